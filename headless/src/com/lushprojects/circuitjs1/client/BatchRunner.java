@@ -0,0 +1,505 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.Vector;
+
+// Runs a circuit many times with different component values, for parameter sweeps and
+// tolerance studies, and writes a line of measurements for each run to a CSV file.
+//
+//   BatchRunner [options] -p elm.item=spec [-p ...] circuit.txt
+//
+// -p varies one value of one element: elm is the element's index (the order of the element
+// lines in the file, starting at 0) and item is the index of the value in its edit dialog
+// (getEditInfo()).  spec is one of
+//   lin:start:stop:count     sweep, evenly spaced
+//   log:start:stop:count     sweep, evenly spaced on a log scale
+//   list:value:value...      sweep through the given values
+//   uniform:pct              random, up to pct percent either side of the value in the file
+//   uniform:min:max          random, evenly distributed between min and max
+//   normal:pct               random, normal distribution with a standard deviation of pct
+//                            percent of the value in the file
+//   normal:mean:sigma        random, normal distribution
+// Sweeps are combined, so two 10-point sweeps make 100 runs (the last one changes fastest),
+// and each of those is run -n times with new random values.
+//
+// options:
+//   -n runs           runs for each sweep point (default 100 if anything is random, else 1)
+//   -t time           simulated time for each run (default .01)
+//   -m measure,...    what to write for each signal: final, min, max, pp (peak to peak),
+//                     avg or rms (default final,max)
+//   -v node,...       measure the voltages at these nodes, given by label or by number (#12;
+//                     the simulator's node numbers, as in GoldenWaveforms).  By default we
+//                     measure the labeled nodes, probes and scopes, and it's an error if the
+//                     circuit has none of those.
+//   -from time        leave out the start of each run for everything but final
+//   -seed n           random seed (default 1).  Each run gets its own generator, so the
+//                     results don't depend on -j
+//   -j jobs           worker processes (default: number of cores)
+//   -o file           output file (default stdout)
+//
+// The circuit is only loaded and analyzed once in each worker; for each run we just set the
+// new values, reset and stamp the matrix again (and analyze again only if one of the values
+// isn't isValueOnlyEdit()).  Runs go to separate worker processes rather than threads because
+// the elements all share CircuitElm.sim.  Lines come out in run order however many workers
+// there are.
+public class BatchRunner {
+    static final String MEASURES[] = { "final", "min", "max", "pp", "avg", "rms" };
+    static final int DIST_NONE = 0;
+    static final int DIST_UNIFORM = 1;
+    static final int DIST_NORMAL = 2;
+
+    // one value to vary
+    static class Param {
+	int elm, item;
+	// sweep values, or null if it's random
+	double values[];
+	// random distribution and its parameters (see header comment).  if relative, a is a
+	// fraction of the nominal value
+	int dist;
+	double a, b;
+	boolean relative;
+	// value in the circuit file
+	double nominal;
+	boolean valueOnly;
+	String name;
+
+	double getRandomValue(Random rand) {
+	    double x = (dist == DIST_UNIFORM) ? 2*rand.nextDouble()-1 : rand.nextGaussian();
+	    if (relative)
+		return nominal*(1+a*x);
+	    if (dist == DIST_UNIFORM)
+		return a + (b-a)*(x+1)/2;
+	    return a + b*x;
+	}
+    }
+
+    String circuitFile;
+    String args[];
+    Vector<Param> params = new Vector<Param>();
+    int runsPerPoint = -1;
+    int runCount;
+    double simTime = .01, fromTime;
+    String measures[] = { "final", "max" };
+    // from -v, or null
+    String nodes[];
+    long seed = 1;
+    int jobs = Runtime.getRuntime().availableProcessors();
+    // which worker this is, or -1
+    int worker = -1;
+    String outFile;
+
+    HeadlessSim sim;
+    // which of Waveforms' signals we measure, and their names
+    int signals[];
+    String signalNames[];
+
+    // for sorting worker output into run order
+    TreeMap<Integer, String> pendingRows = new TreeMap<Integer, String>();
+    int nextRow;
+    PrintWriter out;
+
+    static Param parseParam(String s) {
+	int eq = s.indexOf('=');
+	int dot = s.indexOf('.');
+	if (eq < 0 || dot < 0 || dot > eq)
+	    throw new IllegalArgumentException("bad parameter " + s + "; expected elm.item=spec");
+	Param p = new Param();
+	p.elm = Integer.parseInt(s.substring(0, dot));
+	p.item = Integer.parseInt(s.substring(dot+1, eq));
+	String f[] = s.substring(eq+1).split(":");
+	String kind = f[0];
+	int i;
+	if ((kind.equals("lin") || kind.equals("log")) && f.length == 4) {
+	    double start = Double.parseDouble(f[1]);
+	    double stop = Double.parseDouble(f[2]);
+	    int n = Integer.parseInt(f[3]);
+	    if (n < 1)
+		throw new IllegalArgumentException("bad parameter " + s + "; need at least one point");
+	    p.values = new double[n];
+	    for (i = 0; i != n; i++) {
+		double x = (n == 1) ? 0 : i/(n-1.);
+		p.values[i] = kind.equals("lin") ? start + (stop-start)*x : start*Math.pow(stop/start, x);
+	    }
+	} else if (kind.equals("list") && f.length > 1) {
+	    p.values = new double[f.length-1];
+	    for (i = 1; i != f.length; i++)
+		p.values[i-1] = Double.parseDouble(f[i]);
+	} else if ((kind.equals("uniform") || kind.equals("normal")) && (f.length == 2 || f.length == 3)) {
+	    p.dist = kind.equals("uniform") ? DIST_UNIFORM : DIST_NORMAL;
+	    p.relative = (f.length == 2);
+	    if (p.relative)
+		p.a = Double.parseDouble(f[1])/100;
+	    else {
+		p.a = Double.parseDouble(f[1]);
+		p.b = Double.parseDouble(f[2]);
+	    }
+	} else
+	    throw new IllegalArgumentException("bad parameter " + s +
+					       "; expected lin, log, list, uniform or normal with the right number of values");
+	return p;
+    }
+
+    // load the circuit and check the parameters
+    void load() throws IOException {
+	sim = new HeadlessSim();
+	// with several workers, each one already has a core to itself
+	sim.parallel = (jobs == 1);
+	sim.load(Files.readAllBytes(Paths.get(circuitFile)));
+	if (sim.stopMessage != null)
+	    throw new IOException(circuitFile + ": " + sim.stopMessage);
+	for (Param p : params) {
+	    if (p.elm < 0 || p.elm >= sim.elmList.size())
+		throw new IllegalArgumentException("no element " + p.elm + " in " + circuitFile);
+	    CircuitElm ce = sim.getElm(p.elm);
+	    String elmName = ce.getClass().getSimpleName() + " " + p.elm;
+	    EditInfo ei = null;
+	    try {
+		ei = ce.getEditInfo(p.item);
+	    } catch (Throwable e) {
+		// checkboxes and such need the UI
+	    }
+	    if (ei == null || ei.checkbox != null || ei.choice != null || ei.button != null ||
+		ei.textArea != null || ei.text != null)
+		throw new IllegalArgumentException("item " + p.item + " of " + elmName + " isn't a value");
+	    p.nominal = ei.value;
+	    p.valueOnly = ce.isValueOnlyEdit(p.item);
+	    p.name = elmName + " " + ei.name.replaceAll("<[^>]*>", "");
+	}
+	findSignals(new Waveforms(sim, 0, 1).names);
+    }
+
+    // pick the signals to measure out of all the ones Waveforms records
+    void findSignals(String names[]) {
+	Vector<Integer> list = new Vector<Integer>();
+	int i;
+	if (nodes == null) {
+	    for (i = 0; i != names.length; i++)
+		if (!names[i].startsWith("node #"))
+		    list.add(i);
+	    if (list.size() == 0)
+		throw new IllegalArgumentException(circuitFile + " has no labeled nodes, probes or scopes, " +
+						   "so there's nothing to measure; use -v to pick some nodes");
+	} else {
+	    for (String node : nodes) {
+		// labels and node numbers are both recorded as "node ..."
+		int n = Arrays.asList(names).indexOf("node " + node);
+		if (n < 0)
+		    throw new IllegalArgumentException("no node " + node + " in " + circuitFile);
+		list.add(n);
+	    }
+	}
+	signals = new int[list.size()];
+	signalNames = new String[list.size()];
+	for (i = 0; i != signals.length; i++) {
+	    signals[i] = list.get(i);
+	    signalNames[i] = names[signals[i]];
+	}
+    }
+
+    void setupRuns() {
+	int points = 1;
+	boolean random = false;
+	for (Param p : params) {
+	    if (p.values != null)
+		points *= p.values.length;
+	    else
+		random = true;
+	}
+	if (runsPerPoint < 0)
+	    runsPerPoint = random ? 100 : 1;
+	runCount = points*runsPerPoint;
+    }
+
+    // min, max, time average and rms of each signal after fromTime, and its final value
+    static class Stats extends Waveforms {
+	double from, time;
+	double min[], max[], sum[], sumSquares[];
+
+	Stats(HeadlessSim sim, double f, int signals[]) {
+	    super(sim, 0, 1);
+	    keep(signals);
+	    from = f;
+	    int n = names.length;
+	    min = new double[n];
+	    max = new double[n];
+	    sum = new double[n];
+	    sumSquares = new double[n];
+	    int i;
+	    for (i = 0; i != n; i++) {
+		min[i] = Double.POSITIVE_INFINITY;
+		max[i] = Double.NEGATIVE_INFINITY;
+	    }
+	}
+
+	void timeStep(CirSim sim) {
+	    double t = sim.t;
+	    getValues(curValues);
+	    if (t > from) {
+		// each value holds for the time step that led up to it
+		double dt = t-Math.max(lastT, from);
+		int i;
+		for (i = 0; i != names.length; i++) {
+		    double v = curValues[i];
+		    min[i] = Math.min(min[i], v);
+		    max[i] = Math.max(max[i], v);
+		    sum[i] += v*dt;
+		    sumSquares[i] += v*v*dt;
+		}
+		time += dt;
+	    }
+	    double x[] = lastValues;
+	    lastValues = curValues;
+	    curValues = x;
+	    lastT = t;
+	}
+
+	double get(int i, String measure) {
+	    if (measure.equals("final"))
+		return lastValues[i];
+	    if (time == 0)
+		return Double.NaN;
+	    if (measure.equals("min"))
+		return min[i];
+	    if (measure.equals("max"))
+		return max[i];
+	    if (measure.equals("pp"))
+		return max[i]-min[i];
+	    if (measure.equals("avg"))
+		return sum[i]/time;
+	    return Math.sqrt(sumSquares[i]/time);
+	}
+    }
+
+    static String csv(String s) {
+	if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+	    return s;
+	return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    String getHeader() {
+	StringBuilder sb = new StringBuilder("run");
+	for (Param p : params)
+	    sb.append(',').append(csv(p.name));
+	for (String name : signalNames)
+	    for (String m : measures)
+		sb.append(',').append(csv(name + " " + m));
+	sb.append(",error");
+	return sb.toString();
+    }
+
+    // do run r and return its line of output
+    String run(int r) {
+	// seed each run's generator from its number so it doesn't matter which worker does it
+	Random rand = new Random(new SplittableRandom(seed + r*0x9E3779B97F4A7C15L).nextLong());
+	int n = params.size();
+	double values[] = new double[n];
+	int i;
+	int point = r/runsPerPoint;
+	for (i = n-1; i >= 0; i--) {
+	    Param p = params.get(i);
+	    if (p.values != null) {
+		values[i] = p.values[point % p.values.length];
+		point /= p.values.length;
+	    }
+	}
+	for (i = 0; i != n; i++) {
+	    Param p = params.get(i);
+	    if (p.values == null)
+		values[i] = p.getRandomValue(rand);
+	}
+
+	// if the last run failed, things may be in a strange state, so start from scratch
+	boolean analyze = (sim.stopMessage != null);
+	StringBuilder sb = new StringBuilder();
+	sb.append(r);
+	for (i = 0; i != n; i++) {
+	    Param p = params.get(i);
+	    CircuitElm ce = sim.getElm(p.elm);
+	    EditInfo ei = ce.getEditInfo(p.item);
+	    ei.value = values[i];
+	    ce.setEditValue(p.item, ei);
+	    if (!p.valueOnly)
+		analyze = true;
+	    sb.append(',').append(values[i]);
+	}
+	sim.restart();
+	if (analyze)
+	    sim.analyzeFlag = true;
+	Stats stats = new Stats(sim, fromTime, signals);
+	sim.recorder = stats;
+	try {
+	    sim.runUntil(simTime);
+	} catch (Throwable e) {
+	    if (sim.stopMessage == null)
+		sim.stopMessage = e.toString();
+	}
+	sim.recorder = null;
+	for (i = 0; i != signalNames.length; i++)
+	    for (String m : measures)
+		sb.append(',').append(stats.get(i, m));
+	sb.append(',');
+	if (sim.stopMessage != null)
+	    sb.append(csv(sim.stopMessage));
+	return sb.toString();
+    }
+
+    // worker output can come in any order; write it out in run order
+    synchronized void addRow(int r, String line) {
+	pendingRows.put(r, line);
+	while (pendingRows.containsKey(nextRow))
+	    out.println(pendingRows.remove(nextRow++));
+	out.flush();
+    }
+
+    void runWorkers() throws IOException, InterruptedException {
+	String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+	Process procs[] = new Process[jobs];
+	Thread readers[] = new Thread[jobs];
+	int k;
+	for (k = 0; k != jobs; k++) {
+	    Vector<String> cmd = new Vector<String>();
+	    cmd.add(java);
+	    cmd.add("-cp");
+	    cmd.add(System.getProperty("java.class.path"));
+	    cmd.add(BatchRunner.class.getName());
+	    for (String a : args)
+		cmd.add(a);
+	    cmd.add("-j");
+	    cmd.add(Integer.toString(jobs));
+	    cmd.add("-worker");
+	    cmd.add(Integer.toString(k));
+	    ProcessBuilder pb = new ProcessBuilder(cmd);
+	    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+	    procs[k] = pb.start();
+	    final BufferedReader in = new BufferedReader(new InputStreamReader(procs[k].getInputStream()));
+	    readers[k] = new Thread() {
+		public void run() {
+		    try {
+			String line;
+			while ((line = in.readLine()) != null) {
+			    int comma = line.indexOf(',');
+			    if (comma > 0)
+				addRow(Integer.parseInt(line.substring(0, comma)), line);
+			}
+		    } catch (IOException e) {
+		    }
+		}
+	    };
+	    readers[k].start();
+	}
+	boolean ok = true;
+	for (k = 0; k != jobs; k++) {
+	    readers[k].join();
+	    if (procs[k].waitFor() != 0)
+		ok = false;
+	}
+	if (!ok || nextRow != runCount)
+	    throw new IOException("workers failed; got " + nextRow + " of " + runCount + " runs");
+    }
+
+    public static void main(String args[]) throws Exception {
+	BatchRunner b = new BatchRunner();
+	b.args = args;
+	int i;
+	try {
+	    for (i = 0; i < args.length; i++) {
+		String a = args[i];
+		if (a.equals("-p"))
+		    b.params.add(parseParam(args[++i]));
+		else if (a.equals("-n"))
+		    b.runsPerPoint = Integer.parseInt(args[++i]);
+		else if (a.equals("-t"))
+		    b.simTime = Double.parseDouble(args[++i]);
+		else if (a.equals("-m"))
+		    b.measures = args[++i].split(",");
+		else if (a.equals("-v"))
+		    b.nodes = args[++i].split(",");
+		else if (a.equals("-from"))
+		    b.fromTime = Double.parseDouble(args[++i]);
+		else if (a.equals("-seed"))
+		    b.seed = Long.parseLong(args[++i]);
+		else if (a.equals("-j"))
+		    b.jobs = Math.max(1, Integer.parseInt(args[++i]));
+		else if (a.equals("-o"))
+		    b.outFile = args[++i];
+		else if (a.equals("-worker"))
+		    b.worker = Integer.parseInt(args[++i]);
+		else if (b.circuitFile == null && !a.startsWith("-"))
+		    b.circuitFile = a;
+		else
+		    throw new IllegalArgumentException("unexpected argument " + a);
+	    }
+	    if (b.circuitFile == null)
+		throw new IllegalArgumentException("no circuit file");
+	    for (String m : b.measures)
+		if (!Arrays.asList(MEASURES).contains(m))
+		    throw new IllegalArgumentException("unknown measure " + m + "; expected one of " +
+						       String.join(", ", MEASURES));
+	} catch (RuntimeException e) {
+	    System.err.println(e.getMessage());
+	    System.err.println("usage: BatchRunner [-n runs] [-t time] [-m measure,...] [-v node,...] [-from time]\n" +
+			       "         [-seed n] [-j jobs] [-o output.csv] -p elm.item=spec [-p ...] circuit.txt");
+	    System.exit(2);
+	}
+
+	// some elements print debugging output, which mustn't get mixed in with ours
+	PrintStream stdout = System.out;
+	System.setOut(System.err);
+	try {
+	    b.load();
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
+	}
+	b.setupRuns();
+	if (b.worker >= 0) {
+	    for (i = b.worker; i < b.runCount; i += b.jobs)
+		stdout.println(b.run(i));
+	    stdout.flush();
+	    return;
+	}
+
+	long start = System.nanoTime();
+	b.out = new PrintWriter((b.outFile == null) ? stdout : new PrintStream(b.outFile));
+	b.out.println(b.getHeader());
+	if (b.jobs == 1 || b.runCount == 1) {
+	    for (i = 0; i != b.runCount; i++)
+		b.addRow(i, b.run(i));
+	} else {
+	    // no point starting more workers than runs
+	    b.jobs = Math.min(b.jobs, b.runCount);
+	    b.runWorkers();
+	}
+	b.out.close();
+	System.err.println(String.format("%d runs, %.1fs", b.runCount, (System.nanoTime()-start)/1e9));
+    }
+}
@@ -0,0 +1,258 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Vector;
+
+// Checks that changes to the simulator (a faster solver, say) don't change its results.  Runs
+// each circuit for a fixed amount of simulated time and records its waveforms (see Waveforms),
+// then either saves them as golden files or compares them to golden files saved earlier.  It
+// can also run each circuit with several solver variants and compare them to each other.  The
+// wall time for each run is printed too, so performance regressions show up in the same run.
+//
+//   GoldenWaveforms record [options] circuit.txt...  save golden files (using the first solver)
+//   GoldenWaveforms check [options] circuit.txt...   compare each solver to the golden files
+//   GoldenWaveforms diff [options] circuit.txt...    compare each solver to the first one
+//
+// options:
+//   -d dir             where to keep golden files (default build/golden)
+//   -t time            simulated time (default .01)
+//   -n steps           stop after this many time steps even if we haven't got that far
+//   -samples n         samples per signal (default 500)
+//   -s solver,...      solver variants to run (see setSolver()); default auto, or
+//                      dense,auto,sparse for diff
+//   -abs tol, -rel tol tolerance, absolute and relative to the size of each signal
+//
+// The usual workflow is to record on a known good commit and check on the new one.  Exits
+// with status 1 if anything doesn't match.
+public class GoldenWaveforms {
+    String mode;
+    Path dir = Paths.get("build/golden");
+    double simTime = .01;
+    int maxSteps = 50000;
+    int sampleCount = 500;
+    String solvers[];
+    double absTol = 1e-5, relTol = 1e-4;
+    int failures;
+
+    static final String SOLVERS[] = { "auto", "dense", "sparse", "matrixlogic", "onematrix", "serial",
+				      "nobypass", "predict", "nolowrank" };
+
+    // set up sim to use one of the solver variants.  this must happen before the circuit is
+    // loaded.
+    static void setSolver(HeadlessSim sim, String solver) {
+	if (solver.equals("auto"))
+	    sim.matrixSolverMode = CirSim.MATRIX_SOLVER_AUTO;
+	else if (solver.equals("dense"))
+	    sim.matrixSolverMode = CirSim.MATRIX_SOLVER_DENSE;
+	else if (solver.equals("sparse"))
+	    sim.matrixSolverMode = CirSim.MATRIX_SOLVER_SPARSE;
+	else if (solver.equals("matrixlogic"))
+	    // logic in the matrix instead of LogicSimulator
+	    sim.eventDrivenLogic = false;
+	else if (solver.equals("onematrix"))
+	    // don't split the circuit into components
+	    sim.splitComponents = false;
+	else if (solver.equals("serial"))
+	    // everything on one thread.  should match auto exactly
+	    sim.parallel = false;
+	else if (solver.equals("nobypass"))
+	    // evaluate nonlinear devices in every subiteration
+	    sim.deviceBypass = false;
+	else if (solver.equals("nolowrank"))
+	    // factor the whole matrix whenever it changes
+	    sim.lowRankUpdates = false;
+	else if (!solver.equals("predict"))
+	    // predict is a circuit option, so it's set in setCircuitOptions()
+	    throw new IllegalArgumentException("unknown solver " + solver + "; expected one of " +
+					       String.join(", ", SOLVERS));
+    }
+
+    // set up the solver variants that override one of the circuit's options.  this must happen
+    // after the circuit is loaded, because loading sets them from the file
+    static void setCircuitOptions(HeadlessSim sim, String solver) {
+	if (solver.equals("predict"))
+	    // start each step's subiterations from a prediction, even if the circuit doesn't ask
+	    // for it
+	    sim.newtonPredictor = true;
+    }
+
+    Waveforms run(String file, String solver) throws IOException {
+	byte text[] = Files.readAllBytes(Paths.get(file));
+	long start = System.nanoTime();
+	HeadlessSim sim = new HeadlessSim();
+	setSolver(sim, solver);
+	sim.maxSteps = maxSteps;
+	sim.load(text);
+	setCircuitOptions(sim, solver);
+	Waveforms w = new Waveforms(sim, sampleCount, simTime/sampleCount);
+	sim.recorder = w;
+	sim.runUntil(simTime);
+	w.wallTime = (System.nanoTime()-start)/1e6;
+	return w;
+    }
+
+    // golden files are named after the circuit and the directory it's in, so tests/ and the
+    // examples can share a directory
+    Path getGoldenPath(String file) {
+	Path p = Paths.get(file).toAbsolutePath().normalize();
+	String name = p.getFileName().toString().replaceFirst("\\.txt$", "");
+	Path parent = p.getParent();
+	if (parent != null && parent.getFileName() != null)
+	    name = parent.getFileName() + "_" + name;
+	return dir.resolve(name + ".golden");
+    }
+
+    void report(String file, String solver, String status, double wallTime, String details) {
+	System.out.println(String.format("%-32s %-7s %-5s %9.1fms  %s",
+					 Paths.get(file).getFileName(), solver, status, wallTime, details));
+    }
+
+    void record(String file) throws IOException {
+	Path path = getGoldenPath(file);
+	Waveforms w;
+	try {
+	    w = run(file, solvers[0]);
+	} catch (Throwable e) {
+	    // don't leave an old one lying around
+	    Files.deleteIfExists(path);
+	    report(file, solvers[0], "error", 0, e.toString());
+	    return;
+	}
+	w.write(path);
+	if (w.names.length == 0) {
+	    // nothing would ever fail.  save it anyway so check complains about it too
+	    failures++;
+	    report(file, solvers[0], "ERROR", w.wallTime, "no signals to record");
+	    return;
+	}
+	report(file, solvers[0], "saved", w.wallTime, w.names.length + " signals, " + w.sampleCount + " samples");
+    }
+
+    // compare one run to the reference and report the result
+    void check(String file, String solver, Waveforms ref, String refName) {
+	Waveforms w;
+	try {
+	    w = run(file, solver);
+	} catch (Throwable e) {
+	    failures++;
+	    report(file, solver, "ERROR", 0, e.toString());
+	    return;
+	}
+	Waveforms.Comparison c = w.compare(ref, absTol, relTol);
+	if (c.failed)
+	    failures++;
+	String time = (ref.wallTime > 0) ?
+	    String.format("(%s %.1fms, %.2fx)  ", refName, ref.wallTime, w.wallTime/ref.wallTime) : "";
+	report(file, solver, c.failed ? "FAIL" : "ok", w.wallTime, time + c);
+    }
+
+    void check(String file) throws IOException {
+	Path path = getGoldenPath(file);
+	if (!Files.exists(path)) {
+	    // record skips circuits that don't run, so this isn't an error
+	    report(file, "", "skip", 0, "no golden file " + path);
+	    return;
+	}
+	Waveforms ref = Waveforms.read(path);
+	if (ref.names.length == 0) {
+	    failures++;
+	    report(file, "", "ERROR", 0, "no signals to compare in " + path);
+	    return;
+	}
+	for (String solver : solvers)
+	    check(file, solver, ref, "golden");
+    }
+
+    void diff(String file) {
+	Waveforms ref;
+	try {
+	    ref = run(file, solvers[0]);
+	} catch (Throwable e) {
+	    report(file, solvers[0], "skip", 0, e.toString());
+	    return;
+	}
+	if (ref.names.length == 0) {
+	    failures++;
+	    report(file, solvers[0], "ERROR", ref.wallTime, "no signals to compare");
+	    return;
+	}
+	report(file, solvers[0], "ref", ref.wallTime, ref.names.length + " signals, " + ref.sampleCount + " samples");
+	int i;
+	for (i = 1; i < solvers.length; i++)
+	    check(file, solvers[i], ref, solvers[0]);
+    }
+
+    public static void main(String args[]) throws IOException {
+	GoldenWaveforms g = new GoldenWaveforms();
+	Vector<String> files = new Vector<String>();
+	int i;
+	for (i = 0; i < args.length; i++) {
+	    String a = args[i];
+	    if (g.mode == null)
+		g.mode = a;
+	    else if (a.equals("-d"))
+		g.dir = Paths.get(args[++i]);
+	    else if (a.equals("-t"))
+		g.simTime = Double.parseDouble(args[++i]);
+	    else if (a.equals("-n"))
+		g.maxSteps = Integer.parseInt(args[++i]);
+	    else if (a.equals("-samples"))
+		g.sampleCount = Integer.parseInt(args[++i]);
+	    else if (a.equals("-s"))
+		g.solvers = args[++i].split(",");
+	    else if (a.equals("-abs"))
+		g.absTol = Double.parseDouble(args[++i]);
+	    else if (a.equals("-rel"))
+		g.relTol = Double.parseDouble(args[++i]);
+	    else
+		files.add(a);
+	}
+	if (g.mode == null || !(g.mode.equals("record") || g.mode.equals("check") || g.mode.equals("diff"))) {
+	    System.err.println("usage: GoldenWaveforms record|check|diff [-d dir] [-t time] [-n steps] [-samples n]\n" +
+			       "         [-s solver,...] [-abs tol] [-rel tol] circuit.txt...");
+	    System.exit(2);
+	}
+	if (g.solvers == null)
+	    g.solvers = g.mode.equals("diff") ? new String[] { "dense", "auto", "sparse" } : new String[] { "auto" };
+	// check the names before we start
+	for (String solver : g.solvers)
+	    setSolver(new HeadlessSim(), solver);
+	if (g.mode.equals("record"))
+	    Files.createDirectories(g.dir);
+
+	long start = System.nanoTime();
+	for (String file : files) {
+	    if (g.mode.equals("record"))
+		g.record(file);
+	    else if (g.mode.equals("check"))
+		g.check(file);
+	    else
+		g.diff(file);
+	}
+	System.out.println(String.format("%d circuits, %d failures, %.1fs", files.size(), g.failures,
+					 (System.nanoTime()-start)/1e9));
+	System.exit(g.failures > 0 ? 1 : 0);
+    }
+}
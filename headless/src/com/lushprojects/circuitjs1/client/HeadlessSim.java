@@ -0,0 +1,352 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.lushprojects.circuitjs1.client.util.Locale;
+
+// Runs the simulator on the JVM without a browser, for batch jobs, benchmarks and tests.  It
+// uses the same parser, elements and solver as the web version; we just replace the parts of
+// CirSim that talk to the UI.  This isn't part of the GWT module (it's in its own source set),
+// so it can use java.io and friends.  It still needs gwt-user on the classpath when it runs,
+// since CirSim implements GWT's event handler interfaces, though none of that code gets called.
+//
+//   gradle runHeadless --args="-t 0.1 tests/7seg.txt tests/cccs.txt"
+//
+// runCircuit() normally decides when to end a frame by looking at the clock, which would make
+// the results depend on how fast the machine is.  Here each frame is FRAME_STEPS time steps.
+public class HeadlessSim extends CirSim {
+    static final int FRAME_STEPS = 100;
+
+    double stopTime;
+    int frameSteps;
+    boolean smallGrid;
+
+    // stop after this many time steps even if we haven't reached stopTime (0 = no limit).
+    // some circuits use tiny time steps and would take forever otherwise
+    int maxSteps;
+
+    // total subiterations over all time steps so far, for statistics
+    long subIterationCount;
+
+    // elements the circuit's scopes are looking at, and what each scope shows (Scope.VAL_*)
+    Vector<CircuitElm> scopeElms = new Vector<CircuitElm>();
+    Vector<Integer> scopeValues = new Vector<Integer>();
+
+    // if set, records waveforms after each time step
+    Waveforms recorder;
+
+    // use the fork-join pool for separate components of the circuit (see solveComponents()),
+    // for big circuits' doStep() calls (see ParallelStepper) and for factoring big matrices
+    // (ParallelDenseLU, ParallelSparseLU).  None of these change the results at all, however
+    // many threads the pool has (java.util.concurrent.ForkJoinPool.common.parallelism).  Set
+    // this before loading the circuit.
+    boolean parallel = true;
+    // smaller components take less time to factor than to hand to another thread
+    static final int PARALLEL_MIN_SIZE = 40;
+    ParallelStepper stepper = new ParallelStepper(this);
+
+    HeadlessSim() {
+	headless = true;
+	if (Locale.localizationMap == null)
+	    Locale.localizationMap = new HashMap<String,String>();
+	// CircuitElm.initClass() also reads display settings from local storage, which we don't have
+	CircuitElm.sim = this;
+	CircuitElm.ps1 = new Point();
+	CircuitElm.ps2 = new Point();
+	elmList = new Vector<CircuitElm>();
+	adjustables = new Vector<Adjustable>();
+	scopes = new Scope[20];
+	// fixed seed so noise sources give the same results every run
+	random = new Random(0);
+	setGrid();
+	maxTimeStep = timeStep = 5e-6;
+	minTimeStep = 50e-12;
+	// frames end after FRAME_STEPS, not after a certain amount of time
+	minFrameRate = 1e-6;
+    }
+
+    // load a circuit in the usual text format
+    void load(byte text[]) {
+	readCircuit(text, RC_RETAIN | RC_NO_CENTER);
+	analyzeCircuit();
+	analyzeFlag = false;
+	preStampAndStampCircuit();
+    }
+
+    // run the simulation until time reaches tm.  returns false if it stopped with an error
+    boolean runUntil(double tm) {
+	stopTime = tm;
+	while (t < stopTime && stopMessage == null && !reachedMaxSteps()) {
+	    boolean didAnalyze = analyzeFlag;
+	    if (analyzeFlag) {
+		analyzeCircuit();
+		analyzeFlag = false;
+	    }
+	    if (needsStamp)
+		preStampAndStampCircuit();
+	    if (stopMessage != null)
+		break;
+	    double lastT = t;
+	    simRunning = true;
+	    frameSteps = 0;
+	    // make runCircuit() think it's been a long time since the last frame, so it doesn't skip this one
+	    lastIterTime = 1;
+	    lastFrameTime = System.currentTimeMillis();
+	    runCircuit(didAnalyze);
+	    // nothing to simulate
+	    if (t == lastT && stopMessage == null)
+		break;
+	}
+	return stopMessage == null;
+    }
+
+    // run n more time steps (or until the simulation stops)
+    boolean runSteps(int n) {
+	int oldMaxSteps = maxSteps;
+	maxSteps = steps+n;
+	boolean ok = runUntil(Double.MAX_VALUE);
+	maxSteps = oldMaxSteps;
+	return ok;
+    }
+
+    boolean reachedMaxSteps() { return maxSteps > 0 && steps >= maxSteps; }
+
+    // start again from time 0, like the reset button.  The circuit is stamped again (so any
+    // values changed with setEditValue() take effect), but it isn't analyzed again unless
+    // analyzeFlag is set.
+    void restart() {
+	int i;
+	t = timeStepAccum = 0;
+	timeStepCount = 0;
+	steps = 0;
+	subIterationCount = 0;
+	timeStep = maxTimeStep;
+	lteNextTimeStep = timeStepAfterBreakpoint = 0;
+	predictor.reset();
+	stopMessage = null;
+	stopElm = null;
+	random = new Random(0);
+	for (i = 0; i != elmList.size(); i++)
+	    getElm(i).reset();
+	needsStamp = true;
+    }
+
+    // total size of the simplified matrix, or of all the components' matrices
+    int getMatrixSize() {
+	if (circuitComponents == null)
+	    return circuitMatrixSize;
+	int i, n = 0;
+	for (i = 0; i != circuitComponents.length; i++)
+	    n += circuitComponents[i].matrixSize;
+	return n;
+    }
+
+    static class SolveTask extends RecursiveAction {
+	CircuitComponent component;
+	boolean ok;
+
+	SolveTask(CircuitComponent c) { component = c; }
+
+	protected void compute() { ok = component.factorAndSolve(); }
+    }
+
+    // components don't share any state, so we can factor the big nonlinear ones in parallel
+    // and get exactly the same results as we would one at a time.  Linear components are
+    // already factored, so they're quick to solve here.
+    boolean solveComponents(CircuitComponent comps[], int count) {
+	Vector<SolveTask> tasks = null;
+	int i;
+	for (i = 0; i != count; i++) {
+	    CircuitComponent c = comps[i];
+	    if (parallel && c.nonLinear && c.matrixSize >= PARALLEL_MIN_SIZE) {
+		if (tasks == null)
+		    tasks = new Vector<SolveTask>();
+		tasks.add(new SolveTask(c));
+	    } else if (!c.factorAndSolve())
+		return false;
+	}
+	if (tasks == null)
+	    return true;
+	ForkJoinTask.invokeAll(tasks);
+	for (i = 0; i != tasks.size(); i++)
+	    if (!tasks.get(i).ok)
+		return false;
+	return true;
+    }
+
+    DenseLU createDenseLU(int n) { return parallel ? new ParallelDenseLU(n) : new DenseLU(n); }
+    SparseLU createSparseLU(int n) { return parallel ? new ParallelSparseLU(n) : new SparseLU(n); }
+
+    void stampCircuit() {
+	stepper.reset();
+	super.stampCircuit();
+    }
+
+    void stepElements(CircuitElm elms[]) {
+	if (!parallel || !circuitNonLinear || !stepper.step(elms))
+	    super.stepElements(elms);
+    }
+
+    // while ParallelStepper is running elements on other threads, their stamps go into its
+    // buffers, and it calls stampMatrixNow() etc. later
+    void stampMatrix(int i, int j, double x) {
+	if (stepper.recording)
+	    stepper.stampMatrix(i, j, x);
+	else
+	    super.stampMatrix(i, j, x);
+    }
+
+    void stampRightSide(int i, double x) {
+	if (stepper.recording)
+	    stepper.stampRightSide(i, x);
+	else
+	    super.stampRightSide(i, x);
+    }
+
+    void stop(String s, CircuitElm ce) {
+	if (stepper.recording)
+	    stepper.stop(s, ce);
+	else
+	    super.stop(s, ce);
+    }
+
+    void stampMatrixNow(int i, int j, double x) { super.stampMatrix(i, j, x); }
+    void stampRightSideNow(int i, double x) { super.stampRightSide(i, x); }
+
+    // number of rows in the simplified matrix that nonlinear elements change in doStep()
+    int getNonLinearRowCount() {
+	if (!circuitNonLinear || circuitRowInfo == null)
+	    return 0;
+	int i, n = 0;
+	for (i = 0; i != circuitMatrixFullSize; i++)
+	    if (circuitRowInfo.mapRow[i] >= 0 && circuitRowInfo.lsChanges[i])
+		n++;
+	return n;
+    }
+
+    // called by runCircuit() after each time step
+    void callTimeStepHook() {
+	subIterationCount += subIterations+1;
+	if (recorder != null)
+	    recorder.timeStep(this);
+	if (++frameSteps >= FRAME_STEPS || t >= stopTime || reachedMaxSteps())
+	    simRunning = false;
+    }
+
+    // same as Scope.undump(), but we only want to know what it's looking at
+    void readHeadlessScope(StringTokenizer st) {
+	int e = Integer.parseInt(st.nextToken());
+	CircuitElm ce = (e >= 0) ? getElm(e) : null;
+	if (ce == null)
+	    return;
+	st.nextToken();  // speed
+	int value = Integer.parseInt(st.nextToken());
+	if (!(ce instanceof TransistorElm) && value == Scope.VAL_POWER_OLD)
+	    value = Scope.VAL_POWER;
+	scopeElms.add(ce);
+	scopeValues.add(value);
+    }
+
+    void callAnalyzeHook() { }
+    void callUpdateHook() { }
+    public void setSimRunning(boolean s) { simRunning = s; }
+    void needAnalyze() { analyzeFlag = true; }
+    void repaint() { }
+    void enableItems() { }
+    void setPowerBarEnable() { }
+    double getIterCount() { return 1; }
+
+    // same as CirSim.setGrid(), but we don't have the checkbox
+    void setGrid() {
+	gridSize = smallGrid ? 8 : 16;
+	gridMask = ~(gridSize-1);
+	gridRound = gridSize/2-1;
+    }
+
+    // same as CirSim.readOptions() without the UI settings
+    void readOptions(StringTokenizer st, int importFlags) {
+	int flags = Integer.parseInt(st.nextToken());
+	smallGrid = (flags & 2) != 0;
+	setGrid();
+	adjustTimeStep = (flags & 64) != 0;
+	lteTimeStep = (flags & 128) != 0;
+	gear2Integration = (flags & 256) != 0;
+	newtonPredictor = (flags & 512) != 0;
+	lteMaxTimeStep = 0;
+	maxTimeStep = timeStep = Double.parseDouble(st.nextToken());
+	st.nextToken();  // simulation speed
+	st.nextToken();  // current speed
+	CircuitElm.voltageRange = Double.parseDouble(st.nextToken());
+	try {
+	    st.nextToken();  // power brightness
+	    minTimeStep = Double.parseDouble(st.nextToken());
+	    lteMaxTimeStep = Double.parseDouble(st.nextToken());
+	} catch (Exception e) {
+	}
+    }
+
+    // run each circuit given on the command line for a fixed simulated time (or number of
+    // steps), and print how long it took
+    public static void main(String args[]) throws IOException {
+	double simTime = .1;
+	int maxSteps = 0;
+	int i;
+	for (i = 0; i < args.length; i++) {
+	    if (args[i].equals("-t")) {
+		simTime = Double.parseDouble(args[++i]);
+		continue;
+	    }
+	    if (args[i].equals("-n")) {
+		maxSteps = Integer.parseInt(args[++i]);
+		continue;
+	    }
+	    String name = Paths.get(args[i]).getFileName().toString();
+	    byte text[] = Files.readAllBytes(Paths.get(args[i]));
+	    long start = System.nanoTime();
+	    HeadlessSim sim = new HeadlessSim();
+	    sim.maxSteps = maxSteps;
+	    String result;
+	    try {
+		sim.load(text);
+		long loaded = System.nanoTime();
+		sim.runUntil(simTime);
+		long done = System.nanoTime();
+		double runTime = (done-loaded)/1e9;
+		result = String.format("t=%.6f steps=%d matrix=%d load=%.1fms run=%.1fms steps/s=%.0f",
+				       sim.t, sim.steps, sim.getMatrixSize(), (loaded-start)/1e6, runTime*1e3,
+				       (runTime > 0) ? sim.steps/runTime : 0.);
+		if (sim.stopMessage != null)
+		    result += " stopped: " + sim.stopMessage;
+	    } catch (Throwable e) {
+		result = "failed: " + e;
+	    }
+	    System.out.println(String.format("%-24s ", name) + result);
+	}
+    }
+}
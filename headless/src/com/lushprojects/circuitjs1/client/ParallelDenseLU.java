@@ -0,0 +1,63 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// DenseLU that does the trailing update (which is nearly all of the work for a big matrix) on
+// the fork-join pool, a block of rows per task.  Each row is updated by exactly the same
+// operations in the same order no matter which thread does it, so the factors are bit for bit
+// the same as DenseLU's, however many threads there are.
+class ParallelDenseLU extends DenseLU {
+    // rows per task
+    static final int ROW_BLOCK = 16;
+    // not worth handing out smaller updates
+    static final int MIN_ROWS = 4*ROW_BLOCK;
+
+    ParallelDenseLU(int n) {
+	super(n);
+    }
+
+    class UpdateTask extends RecursiveAction {
+	int kb, ke, i0, i1;
+
+	UpdateTask(int kb_, int ke_, int i0_, int i1_) {
+	    kb = kb_; ke = ke_; i0 = i0_; i1 = i1_;
+	}
+
+	protected void compute() { updateTrailingRows(kb, ke, i0, i1); }
+    }
+
+    void updateTrailing(int kb, int ke) {
+	int n = size;
+	if (n-ke < MIN_ROWS) {
+	    super.updateTrailing(kb, ke);
+	    return;
+	}
+	UpdateTask tasks[] = new UpdateTask[(n-ke+ROW_BLOCK-1)/ROW_BLOCK];
+	int i;
+	for (i = 0; i != tasks.length; i++) {
+	    int i0 = ke+i*ROW_BLOCK;
+	    tasks[i] = new UpdateTask(kb, ke, i0, Math.min(i0+ROW_BLOCK, n));
+	}
+	ForkJoinTask.invokeAll(tasks);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// SparseLU that does refactor() on the fork-join pool.  Column k of the factors only depends
+// on the columns of L named by the rows of U in column k, so we sort the columns into levels:
+// a column's level is one more than the highest level of the columns it depends on.  All the
+// columns in a level can then be done at the same time, each task with its own workspace.
+// Circuit matrices are sparse enough that the first few levels usually hold most of the
+// columns.
+//
+// refactorColumn() does the same operations in the same order whichever thread runs it, so
+// the factors are bit for bit the same as SparseLU's, however many threads there are.  The
+// pivoting factorization, which has to go one column at a time, is unchanged.
+class ParallelSparseLU extends SparseLU {
+    // columns per task
+    static final int COLUMN_BLOCK = 32;
+    // levels with fewer columns than this are done on this thread
+    static final int MIN_COLUMNS = 2*COLUMN_BLOCK;
+
+    // the columns sorted by level; level l is levelColumns[levelStart[l]..levelStart[l+1]-1]
+    int levelCount;
+    int levelStart[], levelColumns[];
+    // one workspace per task in the widest level, or null if no level is wide enough to bother
+    double workspaces[][];
+
+    ParallelSparseLU(int n) {
+	super(n);
+	levelColumns = new int[n];
+    }
+
+    boolean pivotingFactor() {
+	if (!super.pivotingFactor())
+	    return false;
+	findLevels();
+	return true;
+    }
+
+    void findLevels() {
+	int n = size;
+	int level[] = new int[n];
+	int k, p, l;
+	levelCount = 0;
+	for (k = 0; k != n; k++) {
+	    l = 0;
+	    // the diagonal is the last entry in each column of U
+	    int pend = uColStart[k+1]-1;
+	    for (p = uColStart[k]; p != pend; p++)
+		l = Math.max(l, level[uRow[p]]+1);
+	    level[k] = l;
+	    levelCount = Math.max(levelCount, l+1);
+	}
+	levelStart = new int[levelCount+1];
+	for (k = 0; k != n; k++)
+	    levelStart[level[k]+1]++;
+	int widest = 0;
+	for (l = 0; l != levelCount; l++) {
+	    widest = Math.max(widest, levelStart[l+1]);
+	    levelStart[l+1] += levelStart[l];
+	}
+	int next[] = new int[levelCount];
+	System.arraycopy(levelStart, 0, next, 0, levelCount);
+	for (k = 0; k != n; k++)
+	    levelColumns[next[level[k]]++] = k;
+	workspaces = null;
+	if (widest >= MIN_COLUMNS)
+	    workspaces = new double[(widest+COLUMN_BLOCK-1)/COLUMN_BLOCK][n];
+    }
+
+    class ColumnTask extends RecursiveAction {
+	int start, end;
+	double x[];
+	boolean ok;
+
+	ColumnTask(int s, int e, double x_[]) {
+	    start = s; end = e; x = x_;
+	}
+
+	protected void compute() {
+	    int p;
+	    for (p = start; p != end; p++)
+		if (!refactorColumn(levelColumns[p], x))
+		    return;
+	    ok = true;
+	}
+    }
+
+    boolean refactor() {
+	if (workspaces == null)
+	    return super.refactor();
+	int l, p, i;
+	for (l = 0; l != levelCount; l++) {
+	    int start = levelStart[l], end = levelStart[l+1];
+	    if (end-start < MIN_COLUMNS) {
+		for (p = start; p != end; p++)
+		    if (!refactorColumn(levelColumns[p], work))
+			return false;
+		continue;
+	    }
+	    ColumnTask tasks[] = new ColumnTask[(end-start+COLUMN_BLOCK-1)/COLUMN_BLOCK];
+	    for (i = 0; i != tasks.length; i++) {
+		int s = start+i*COLUMN_BLOCK;
+		tasks[i] = new ColumnTask(s, Math.min(s+COLUMN_BLOCK, end), workspaces[i]);
+	    }
+	    ForkJoinTask.invokeAll(tasks);
+	    for (i = 0; i != tasks.length; i++)
+		if (!tasks[i].ok)
+		    return false;
+	}
+	refactorCount++;
+	return true;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Calls doStep() for a big circuit's elements on the fork-join pool.  Devices like diodes and
+// transistors spend most of each subiteration working out their new conductances, and they
+// only look at their own state and their node voltages, so they can do that in parallel.  But
+// they all stamp into the same matrix, and floating point addition isn't associative, so
+// adding to it from several threads would make the results depend on the timing.  Instead,
+// while a chunk of elements is running, HeadlessSim.stampMatrix() and friends record each stamp
+// in the chunk's StampBuffer, and when all the chunks are finished we replay the buffers in
+// order.  The matrix gets exactly the same additions in the same order as if we'd called
+// doStep() on one thread, so the results are bit for bit the same however many threads there
+// are.
+//
+// Elements whose doStep() we haven't checked (they might use sim.random, say, or other
+// elements' state) run on the calling thread when their turn comes in the replay.
+class ParallelStepper {
+    // elements per task
+    static final int CHUNK_SIZE = 32;
+    // need at least this many elements that can run in parallel to bother
+    static final int MIN_ELEMENTS = 4*CHUNK_SIZE;
+
+    // classes whose doStep() is safe to call in parallel with other elements'.  Elements that
+    // don't have a doStep() at all are safe too
+    static final Class<?> SAFE_CLASSES[] = {
+	DiodeElm.class, VaractorElm.class, TransistorElm.class, MosfetElm.class, JfetElm.class,
+	CapacitorElm.class, InductorElm.class
+    };
+
+    // what one chunk stamped, in order.  col is RIGHT_SIDE for stampRightSide()
+    static class StampBuffer {
+	static final int RIGHT_SIDE = -1;
+
+	int rows[] = new int[64], cols[] = new int[64];
+	double values[] = new double[64];
+	int count;
+	// if an element called stop(), where we were when it did
+	int stopPos = -1;
+	String stopMessage;
+	CircuitElm stopElm;
+
+	void add(int i, int j, double x) {
+	    if (count == rows.length) {
+		int n = count*2;
+		int nrows[] = new int[n], ncols[] = new int[n];
+		double nvalues[] = new double[n];
+		System.arraycopy(rows, 0, nrows, 0, count);
+		System.arraycopy(cols, 0, ncols, 0, count);
+		System.arraycopy(values, 0, nvalues, 0, count);
+		rows = nrows;
+		cols = ncols;
+		values = nvalues;
+	    }
+	    rows[count] = i;
+	    cols[count] = j;
+	    values[count++] = x;
+	}
+
+	void stop(String s, CircuitElm ce) {
+	    if (stopPos >= 0)
+		return;
+	    stopPos = count;
+	    stopMessage = s;
+	    stopElm = ce;
+	}
+
+	void clear() {
+	    count = 0;
+	    stopPos = -1;
+	    stopMessage = null;
+	    stopElm = null;
+	}
+    }
+
+    // a run of elements which are either all done in parallel (and recorded in buffer), or all
+    // done on the calling thread during the replay
+    class Chunk extends RecursiveAction {
+	CircuitElm elms[];
+	int start, end;
+	StampBuffer buffer;
+
+	Chunk(CircuitElm e[], int s, int en, boolean parallel) {
+	    elms = e; start = s; end = en;
+	    if (parallel)
+		buffer = new StampBuffer();
+	}
+
+	protected void compute() {
+	    buffer.clear();
+	    currentBuffer.set(buffer);
+	    try {
+		int i;
+		for (i = start; i != end; i++)
+		    elms[i].doStep();
+	    } finally {
+		currentBuffer.set(null);
+	    }
+	}
+    }
+
+    HeadlessSim sim;
+    // the buffer for the chunk running on each thread
+    ThreadLocal<StampBuffer> currentBuffer = new ThreadLocal<StampBuffer>();
+    // true while chunks are running, so stamps have to go in a buffer
+    boolean recording;
+    // the chunks for each array of elements we've been asked to step (stepElmArr, or a
+    // component's elms), or null if there aren't enough safe ones
+    IdentityHashMap<CircuitElm[], Chunk[]> chunkMap = new IdentityHashMap<CircuitElm[], Chunk[]>();
+    static HashMap<Class<?>, Boolean> safeClasses = new HashMap<Class<?>, Boolean>();
+
+    ParallelStepper(HeadlessSim s) {
+	sim = s;
+    }
+
+    // called when the circuit is stamped again, since the element arrays change
+    void reset() {
+	chunkMap.clear();
+    }
+
+    static synchronized boolean canStepInParallel(CircuitElm ce) {
+	Class<?> c = ce.getClass();
+	Boolean safe = safeClasses.get(c);
+	if (safe == null) {
+	    // find the class that declares doStep()
+	    Class<?> dc = c;
+	    while (dc != CircuitElm.class) {
+		try {
+		    dc.getDeclaredMethod("doStep");
+		    break;
+		} catch (NoSuchMethodException e) {
+		    dc = dc.getSuperclass();
+		}
+	    }
+	    safe = (dc == CircuitElm.class);
+	    for (Class<?> sc : SAFE_CLASSES)
+		if (dc == sc)
+		    safe = true;
+	    safeClasses.put(c, safe);
+	}
+	return safe;
+    }
+
+    Chunk[] makeChunks(CircuitElm elms[]) {
+	int i, safeCount = 0;
+	boolean safe[] = new boolean[elms.length];
+	for (i = 0; i != elms.length; i++)
+	    if (safe[i] = canStepInParallel(elms[i]))
+		safeCount++;
+	if (safeCount < MIN_ELEMENTS)
+	    return null;
+	Vector<Chunk> chunks = new Vector<Chunk>();
+	int start = 0;
+	for (i = 1; i <= elms.length; i++)
+	    if (i == elms.length || safe[i] != safe[start] || (safe[start] && i-start == CHUNK_SIZE)) {
+		chunks.add(new Chunk(elms, start, i, safe[start]));
+		start = i;
+	    }
+	return chunks.toArray(new Chunk[chunks.size()]);
+    }
+
+    // returns false if elms should just be stepped on this thread
+    boolean step(CircuitElm elms[]) {
+	Chunk chunks[];
+	if (chunkMap.containsKey(elms))
+	    chunks = chunkMap.get(elms);
+	else
+	    chunkMap.put(elms, chunks = makeChunks(elms));
+	if (chunks == null)
+	    return false;
+
+	Vector<Chunk> tasks = new Vector<Chunk>();
+	int i, j;
+	for (i = 0; i != chunks.length; i++)
+	    if (chunks[i].buffer != null) {
+		// tasks only run once unless we do this
+		chunks[i].reinitialize();
+		tasks.add(chunks[i]);
+	    }
+	recording = true;
+	try {
+	    ForkJoinTask.invokeAll(tasks);
+	} finally {
+	    recording = false;
+	}
+
+	// replay the stamps, and do the other elements, in order
+	for (i = 0; i != chunks.length; i++) {
+	    Chunk c = chunks[i];
+	    StampBuffer b = c.buffer;
+	    if (b == null) {
+		for (j = c.start; j != c.end; j++)
+		    c.elms[j].doStep();
+	    } else {
+		int count = (b.stopPos >= 0) ? b.stopPos : b.count;
+		for (j = 0; j != count; j++) {
+		    if (b.cols[j] == StampBuffer.RIGHT_SIDE)
+			sim.stampRightSideNow(b.rows[j], b.values[j]);
+		    else
+			sim.stampMatrixNow(b.rows[j], b.cols[j], b.values[j]);
+		}
+		if (b.stopPos >= 0)
+		    sim.stop(b.stopMessage, b.stopElm);
+	    }
+	    if (sim.stopMessage != null)
+		break;
+	}
+	return true;
+    }
+
+    // called by HeadlessSim.stampMatrix() etc. while recording
+    void stampMatrix(int i, int j, double x) {
+	currentBuffer.get().add(i, j, x);
+    }
+
+    void stampRightSide(int i, double x) {
+	currentBuffer.get().add(i, StampBuffer.RIGHT_SIDE, x);
+    }
+
+    void stop(String s, CircuitElm ce) {
+	currentBuffer.get().stop(s, ce);
+    }
+}
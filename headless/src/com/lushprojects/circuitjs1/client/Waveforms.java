@@ -0,0 +1,288 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Voltages at a circuit's labeled nodes and probes, whatever its scopes are showing, and the
+// voltage at every node (by node number, so a circuit with no labels or scopes still gets
+// checked), sampled at fixed intervals of simulated time.  The time steps don't usually land
+// on the sample times, so we interpolate between them; that way we can compare runs that used
+// different time steps.  Saved as gzipped floats, which is plenty for comparing within a
+// tolerance.
+class Waveforms {
+    static final int MAGIC = 0x434a5357;  // "CJSW"
+    static final int VERSION = 2;
+
+    String names[];
+    float samples[][];
+    int sampleCount;
+    double sampleTime;
+    // how long the run took, in ms
+    double wallTime;
+
+    // what we're recording
+    CircuitElm elms[];
+    int values[];
+    static final int VAL_NODE = -1;
+    // for VAL_NODE, which of the element's nodes
+    int posts[];
+    int maxSamples;
+    double lastT;
+    double lastValues[], curValues[];
+
+    Waveforms() { }
+
+    // get ready to record count samples of sim's signals, sampleTime apart.  sim should be loaded
+    // but not run yet.
+    Waveforms(HeadlessSim sim, int count, double st) {
+	Vector<String> nameList = new Vector<String>();
+	Vector<CircuitElm> elmList = new Vector<CircuitElm>();
+	Vector<Integer> valueList = new Vector<Integer>();
+	Vector<Integer> postList = new Vector<Integer>();
+	HashSet<String> labels = new HashSet<String>();
+	int i;
+	for (i = 0; i != sim.elmList.size(); i++) {
+	    CircuitElm ce = sim.getElm(i);
+	    String name = null;
+	    int value = Scope.VAL_VOLTAGE;
+	    if (ce instanceof LabeledNodeElm) {
+		// labeled nodes with the same name are the same node
+		String text = ((LabeledNodeElm) ce).text;
+		if (!labels.add(text))
+		    continue;
+		name = "node " + text;
+		value = VAL_NODE;
+	    } else if (ce instanceof ProbeElm)
+		name = "probe " + i;
+	    if (name == null)
+		continue;
+	    nameList.add(name);
+	    elmList.add(ce);
+	    valueList.add(value);
+	    postList.add(0);
+	}
+	for (i = 0; i != sim.scopeElms.size(); i++) {
+	    CircuitElm ce = sim.scopeElms.get(i);
+	    nameList.add("scope " + i + " (" + ce.getClass().getSimpleName() + " " + sim.locateElm(ce) +
+			 ", value " + sim.scopeValues.get(i) + ")");
+	    elmList.add(ce);
+	    valueList.add(sim.scopeValues.get(i));
+	    postList.add(0);
+	}
+	// node 0 is ground.  any element connected to a node has its voltage
+	for (i = 1; i != sim.nodeList.size(); i++) {
+	    CircuitNodeLink cnl = sim.getCircuitNode(i).links.get(0);
+	    nameList.add("node #" + i);
+	    elmList.add(cnl.elm);
+	    valueList.add(VAL_NODE);
+	    postList.add(cnl.num);
+	}
+
+	int n = nameList.size();
+	names = nameList.toArray(new String[n]);
+	elms = elmList.toArray(new CircuitElm[n]);
+	values = new int[n];
+	posts = new int[n];
+	for (i = 0; i != n; i++) {
+	    values[i] = valueList.get(i);
+	    posts[i] = postList.get(i);
+	}
+	maxSamples = count;
+	sampleTime = st;
+	samples = new float[n][count];
+	lastValues = new double[n];
+	curValues = new double[n];
+	lastT = sim.t;
+	getValues(lastValues);
+    }
+
+    // record only the signals listed in which (indices into names), in that order
+    void keep(int which[]) {
+	int n = which.length;
+	String newNames[] = new String[n];
+	CircuitElm newElms[] = new CircuitElm[n];
+	int newValues[] = new int[n];
+	int newPosts[] = new int[n];
+	int i;
+	for (i = 0; i != n; i++) {
+	    newNames[i] = names[which[i]];
+	    newElms[i] = elms[which[i]];
+	    newValues[i] = values[which[i]];
+	    newPosts[i] = posts[which[i]];
+	}
+	names = newNames;
+	elms = newElms;
+	values = newValues;
+	posts = newPosts;
+	samples = new float[n][maxSamples];
+	lastValues = new double[n];
+	curValues = new double[n];
+	getValues(lastValues);
+    }
+
+    void getValues(double v[]) {
+	int i;
+	for (i = 0; i != elms.length; i++)
+	    v[i] = (values[i] == VAL_NODE) ? elms[i].volts[posts[i]] : elms[i].getScopeValue(values[i]);
+    }
+
+    // called after each time step
+    void timeStep(CirSim sim) {
+	double t = sim.t;
+	getValues(curValues);
+	int i;
+	while (sampleCount < maxSamples && (sampleCount+1)*sampleTime <= t) {
+	    double ts = (sampleCount+1)*sampleTime;
+	    double f = (t > lastT) ? (ts-lastT)/(t-lastT) : 1;
+	    for (i = 0; i != elms.length; i++)
+		samples[i][sampleCount] = (float) (lastValues[i] + (curValues[i]-lastValues[i])*f);
+	    sampleCount++;
+	}
+	double x[] = lastValues;
+	lastValues = curValues;
+	curValues = x;
+	lastT = t;
+    }
+
+    void write(Path path) throws IOException {
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		new GZIPOutputStream(Files.newOutputStream(path))));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeDouble(sampleTime);
+	out.writeDouble(wallTime);
+	out.writeInt(names.length);
+	out.writeInt(sampleCount);
+	int i, j;
+	for (i = 0; i != names.length; i++) {
+	    out.writeUTF(names[i]);
+	    for (j = 0; j != sampleCount; j++)
+		out.writeFloat(samples[i][j]);
+	}
+	out.close();
+    }
+
+    static Waveforms read(Path path) throws IOException {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(
+		new GZIPInputStream(Files.newInputStream(path))));
+	try {
+	    if (in.readInt() != MAGIC || in.readInt() != VERSION)
+		throw new IOException(path + ": not a waveform file, or wrong version");
+	    Waveforms w = new Waveforms();
+	    w.sampleTime = in.readDouble();
+	    w.wallTime = in.readDouble();
+	    int n = in.readInt();
+	    w.sampleCount = w.maxSamples = in.readInt();
+	    w.names = new String[n];
+	    w.samples = new float[n][w.sampleCount];
+	    int i, j;
+	    for (i = 0; i != n; i++) {
+		w.names[i] = in.readUTF();
+		for (j = 0; j != w.sampleCount; j++)
+		    w.samples[i][j] = in.readFloat();
+	    }
+	    return w;
+	} finally {
+	    in.close();
+	}
+    }
+
+    // result of compare()
+    static class Comparison {
+	boolean failed;
+	// if the waveforms couldn't be compared at all, why not
+	String error;
+	// the sample furthest outside the tolerance (or closest to it, if they all match)
+	double deviation, refValue, time;
+	String signal;
+
+	public String toString() {
+	    if (error != null)
+		return error;
+	    if (signal == null)
+		return "nothing to compare";
+	    if (deviation == 0)
+		return "exact match";
+	    return String.format("max deviation %.3g (ref %.6g) in %s at t=%.6g", deviation, refValue, signal, time);
+	}
+    }
+
+    // compare our samples to ref's.  A sample matches if it's within absTol + relTol*scale of
+    // the reference, where scale is the largest absolute value of that signal in ref.
+    Comparison compare(Waveforms ref, double absTol, double relTol) {
+	Comparison c = new Comparison();
+	if (ref.names.length == 0) {
+	    // nothing would ever fail
+	    c.failed = true;
+	    c.error = "no signals to compare";
+	    return c;
+	}
+	if (names.length != ref.names.length || sampleTime != ref.sampleTime) {
+	    c.failed = true;
+	    c.error = "recorded " + names.length + " signals every " + sampleTime + "s, expected " +
+		ref.names.length + " every " + ref.sampleTime + "s";
+	    return c;
+	}
+	double worst = -1;
+	int i, j;
+	for (i = 0; i != names.length; i++) {
+	    if (!names[i].equals(ref.names[i])) {
+		c.failed = true;
+		c.error = "signal " + i + " is " + names[i] + ", expected " + ref.names[i];
+		return c;
+	    }
+	    float r[] = ref.samples[i];
+	    float s[] = samples[i];
+	    double scale = 0;
+	    for (j = 0; j != ref.sampleCount; j++)
+		scale = Math.max(scale, Math.abs(r[j]));
+	    double tol = absTol + relTol*scale;
+	    for (j = 0; j != Math.min(sampleCount, ref.sampleCount); j++) {
+		double d = Math.abs(s[j]-r[j]);
+		// NaN never matches
+		if (!(d <= tol))
+		    c.failed = true;
+		if (d/tol > worst || Double.isNaN(d)) {
+		    worst = Double.isNaN(d) ? Double.POSITIVE_INFINITY : d/tol;
+		    c.deviation = d;
+		    c.refValue = r[j];
+		    c.signal = names[i];
+		    c.time = (j+1)*sampleTime;
+		}
+	    }
+	}
+	if (sampleCount != ref.sampleCount) {
+	    c.failed = true;
+	    c.error = "stopped after " + sampleCount + " samples, expected " + ref.sampleCount + "; " + c;
+	}
+	return c;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH benchmarks for the parts of the simulator that run when a circuit is loaded or changed
+// (analyze, stamp) and on every time step (factor, solve, and whole time steps including
+// each element's doStep()).  Run with "gradle benchmark", which passes the circuit files in
+// tests/ as the circuit parameter and writes the results to build/reports/jmh/results.json.
+// CircuitStats writes the matrix size, nonlinear row count and subiterations per step for
+// the same circuits to circuits.json next to it.
+//
+// Each benchmark method gets its own fork, so they can all share one circuit state.
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CircuitBenchmark {
+    // time steps per invocation of step()
+    static final int STEPS = 100;
+
+    // time steps to run before measuring, so nonlinear elements are past their initial
+    // transients and the matrix we factor looks like a typical one
+    static final int SETTLE_STEPS = 200;
+
+    @Param({"tests/7seg.txt"})
+    public String circuit;
+
+    HeadlessSim sim;
+    // right sides for solve(), one for each component if the circuit was split into
+    // components (see CircuitComponent)
+    double rightSides[][];
+
+    @Setup
+    public void setup() throws IOException {
+	sim = new HeadlessSim();
+	sim.load(Files.readAllBytes(Paths.get(circuit)));
+	sim.runSteps(SETTLE_STEPS);
+	if (sim.stopMessage != null)
+	    throw new IllegalStateException(circuit + ": " + sim.stopMessage);
+	if (!factor())
+	    throw new IllegalStateException(circuit + ": singular matrix");
+	CircuitComponent comps[] = sim.circuitComponents;
+	if (comps == null)
+	    rightSides = new double[][] { new double[sim.circuitMatrixSize] };
+	else {
+	    rightSides = new double[comps.length][];
+	    int i;
+	    for (i = 0; i != comps.length; i++)
+		rightSides[i] = new double[comps[i].matrixSize];
+	}
+    }
+
+    // find the nodes and voltage sources and check the circuit for errors
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean analyze() {
+	sim.analyzeCircuit();
+	return sim.preStampCircuit(false);
+    }
+
+    // stamp and simplify the matrix (and factor it, if the circuit is linear)
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int stamp() {
+	sim.stampCircuit();
+	return sim.circuitMatrixSize;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean factor() {
+	CircuitComponent comps[] = sim.circuitComponents;
+	if (comps == null)
+	    return sim.factorCircuitMatrix();
+	int i;
+	for (i = 0; i != comps.length; i++)
+	    if (!comps[i].factor())
+		return false;
+	return true;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[][] solve() {
+	CircuitComponent comps[] = sim.circuitComponents;
+	if (comps == null) {
+	    System.arraycopy(sim.origRightSide, 0, rightSides[0], 0, rightSides[0].length);
+	    sim.solveFactoredMatrix(rightSides[0]);
+	    return rightSides;
+	}
+	int i;
+	for (i = 0; i != comps.length; i++) {
+	    System.arraycopy(comps[i].origRightSide, 0, rightSides[i], 0, rightSides[i].length);
+	    comps[i].solve(rightSides[i]);
+	}
+	return rightSides;
+    }
+
+    // sustained time steps per second
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(STEPS)
+    public double step() {
+	if (!sim.runSteps(STEPS))
+	    throw new IllegalStateException(circuit + ": " + sim.stopMessage);
+	return sim.t;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Vector;
+
+// Generates circuits of any size, in the usual text format, for finding out how things scale.
+// The circuits in tests/ are all small, so anything that's quadratic in the number of nodes
+// or elements doesn't show up there.  Families:
+//
+//   rc N        N-stage RC ladder driven by an AC source
+//   mesh N[xM]  N x M grid of resistors, with a DC source across opposite corners
+//   counter N   N-bit ripple counter made of JK flip-flops
+//   diodes N    N diodes and LEDs, each with a series resistor, across an AC source
+//   separate NxM N separate copies of diodes M, only connected through ground
+//   nested N    subcircuits nested N deep, each containing two of the next level down
+//
+// We build the circuit out of real elements and dump them, so the output is always in the
+// current format and can be loaded in the browser too.
+//
+//   CircuitGenerator family size [output.txt]
+public class CircuitGenerator {
+    static final String FAMILIES[] = { "rc", "mesh", "counter", "diodes", "separate", "nested" };
+
+    // distance between neighboring nodes
+    static final int SPACING = 64;
+
+    Vector<CircuitElm> elmList = new Vector<CircuitElm>();
+
+    CircuitGenerator() {
+	// the element constructors need a CirSim
+	if (CircuitElm.sim == null)
+	    new HeadlessSim();
+    }
+
+    // generate a circuit, or return null if we don't know the family
+    static String generate(String family, String size) {
+	CircuitGenerator gen = new CircuitGenerator();
+	int n, m;
+	int x = size.indexOf('x');
+	if (x >= 0) {
+	    n = Integer.parseInt(size.substring(0, x));
+	    m = Integer.parseInt(size.substring(x+1));
+	} else
+	    n = m = Integer.parseInt(size);
+	if (family.equals("rc"))
+	    gen.rcLadder(n);
+	else if (family.equals("mesh"))
+	    gen.mesh(n, m);
+	else if (family.equals("counter"))
+	    gen.counter(n);
+	else if (family.equals("diodes"))
+	    gen.diodes(n, 0);
+	else if (family.equals("separate"))
+	    gen.separate(n, m);
+	else if (family.equals("nested"))
+	    gen.nested(n);
+	else
+	    return null;
+	return gen.dump();
+    }
+
+    CircuitElm add(CircuitElm ce, int x1, int y1, int x2, int y2) {
+	ce.x = x1; ce.y = y1;
+	ce.x2 = x2; ce.y2 = y2;
+	ce.setPoints();
+	elmList.add(ce);
+	return ce;
+    }
+
+    void wire(int x1, int y1, int x2, int y2) {
+	add(new WireElm(x1, y1), x1, y1, x2, y2);
+    }
+
+    void wire(Point p1, Point p2) {
+	wire(p1.x, p1.y, p2.x, p2.y);
+    }
+
+    void ground(int x, int y) {
+	add(new GroundElm(x, y), x, y, x, y+16);
+    }
+
+    void resistor(int x1, int y1, int x2, int y2, double r) {
+	ResistorElm re = new ResistorElm(x1, y1);
+	re.resistance = r;
+	add(re, x1, y1, x2, y2);
+    }
+
+    // voltage source with its negative terminal at (x, y2) and positive terminal at (x, y1)
+    void source(int wf, int x, int y1, int y2) {
+	VoltageElm ve = new VoltageElm(x, y2, wf);
+	add(ve, x, y2, x, y1);
+    }
+
+    void label(Point p, String text) {
+	LabeledNodeElm lne = new LabeledNodeElm(p.x, p.y);
+	lne.text = text;
+	add(lne, p.x, p.y, p.x+16, p.y-16);
+    }
+
+    void rcLadder(int n) {
+	int i;
+	source(VoltageElm.WF_AC, 0, 0, SPACING);
+	ground(0, SPACING);
+	for (i = 0; i != n; i++) {
+	    int x = i*SPACING;
+	    resistor(x, 0, x+SPACING, 0, 1000);
+	    CapacitorElm ce = new CapacitorElm(x+SPACING, 0);
+	    ce.capacitance = 1e-6;
+	    add(ce, x+SPACING, 0, x+SPACING, SPACING);
+	    wire(x, SPACING, x+SPACING, SPACING);
+	}
+	label(new Point(n*SPACING, 0), "out");
+    }
+
+    void mesh(int n, int m) {
+	int i, j;
+	for (i = 0; i != n; i++)
+	    for (j = 0; j != m; j++) {
+		int x = i*SPACING, y = j*SPACING;
+		if (i < n-1)
+		    resistor(x, y, x+SPACING, y, 100);
+		if (j < m-1)
+		    resistor(x, y, x, y+SPACING, 100);
+	    }
+
+	// source from the top left corner to the bottom right one, going around the outside
+	int xr = (n-1)*SPACING, yb = m*SPACING;
+	source(VoltageElm.WF_DC, -SPACING, 0, yb);
+	ground(-SPACING, yb);
+	wire(-SPACING, 0, 0, 0);
+	wire(-SPACING, yb, xr, yb);
+	wire(xr, yb, xr, yb-SPACING);
+	label(new Point(xr/2, (m-1)/2*SPACING), "center");
+    }
+
+    void counter(int n) {
+	int i;
+	int width = SPACING*2;
+	int ytop = -SPACING;
+	int ybot = SPACING*3;
+	Point lastQ = null, firstJ = null, firstK = null;
+	for (i = 0; i != n; i++) {
+	    int x = i*width;
+	    CircuitElm ff = new JKFlipFlopElm(x, 0);
+	    add(ff, x, 0, x+48, 0);
+	    Point j = ff.getPost(0), clk = ff.getPost(1), k = ff.getPost(2), q = ff.getPost(3);
+
+	    // J goes to the high bus above the flip-flops and K to the one below
+	    wire(j.x, j.y, j.x, ytop);
+	    wire(k.x, k.y, k.x, ybot);
+	    if (i == 0) {
+		firstJ = j;
+		firstK = k;
+	    } else {
+		wire(j.x-width, ytop, j.x, ytop);
+		wire(k.x-width, ybot, k.x, ybot);
+	    }
+
+	    // each stage is clocked by the output of the one before it
+	    if (lastQ == null) {
+		RailElm clock = new RailElm(clk.x, clk.y, VoltageElm.WF_SQUARE);
+		clock.frequency = 1000;
+		clock.maxVoltage = 2.5;
+		clock.bias = 2.5;
+		add(clock, clk.x, clk.y, clk.x-32, clk.y);
+	    } else
+		wire(lastQ, clk);
+	    label(q, "Q" + i);
+	    lastQ = q;
+	}
+
+	// high rail for both buses, to the left of the first flip-flop
+	int xl = -SPACING;
+	add(new RailElm(xl, ytop, VoltageElm.WF_DC), xl, ytop, xl, ytop-32);
+	wire(xl, ytop, xl, ybot);
+	wire(xl, ytop, firstJ.x, ytop);
+	wire(xl, ybot, firstK.x, ybot);
+    }
+
+    // n diodes with the top of the circuit at y
+    void diodes(int n, int y) {
+	int i;
+	source(VoltageElm.WF_AC, -SPACING, y, y+SPACING*2);
+	ground(-SPACING, y+SPACING*2);
+	for (i = 0; i != n; i++) {
+	    int x = i*SPACING;
+	    wire(x-SPACING, y, x, y);
+	    wire(x-SPACING, y+SPACING*2, x, y+SPACING*2);
+	    resistor(x, y, x, y+SPACING, 470);
+	    // alternate diodes and LEDs, and which way they point
+	    CircuitElm d = (i % 4 < 2) ? new DiodeElm(x, y+SPACING) : new LEDElm(x, y+SPACING);
+	    if (i % 2 == 0)
+		add(d, x, y+SPACING, x, y+SPACING*2);
+	    else
+		add(d, x, y+SPACING*2, x, y+SPACING);
+	}
+    }
+
+    // n copies of diodes(m) one above the other.  each has its own ground, so the simulator
+    // can solve them separately
+    void separate(int n, int m) {
+	int i;
+	for (i = 0; i != n; i++)
+	    diodes(m, i*SPACING*3);
+    }
+
+    // level 1 is a resistive divider with ports a and b.  level k is two level k-1 subcircuits
+    // in series with a resistor to ground from the point between them.
+    void nested(int depth) {
+	int i;
+	if (CustomCompositeModel.modelMap == null)
+	    CustomCompositeModel.initModelMap();
+	for (i = 1; i <= depth; i++) {
+	    Vector<ExtListEntry> extList = new Vector<ExtListEntry>();
+	    extList.add(new ExtListEntry("a", 1, 0, ChipElm.SIDE_W));
+	    extList.add(new ExtListEntry("b", 2, 0, ChipElm.SIDE_E));
+	    CircuitElm a, b;
+	    if (i == 1) {
+		a = new ResistorElm(0, 0);
+		b = new ResistorElm(0, 0);
+	    } else {
+		a = new CustomCompositeElm(0, 0, getModelName(i-1));
+		b = new CustomCompositeElm(0, 0, getModelName(i-1));
+	    }
+	    CircuitElm shunt = new ResistorElm(0, 0);
+	    ((ResistorElm) shunt).resistance = 10000;
+	    String nodeList = getNodeDump(a, "1 3") + "\r" + getNodeDump(b, "3 2") + "\r" + getNodeDump(shunt, "3 0");
+	    String elmDump = getElmDump(a) + " " + getElmDump(b) + " " + getElmDump(shunt);
+	    CustomCompositeModel model = CustomCompositeModel.createModel(getModelName(i), elmDump, nodeList, extList);
+	    model.sizeX = 2;
+	    model.sizeY = 1;
+	    model.setShowLabel(true);
+	}
+
+	source(VoltageElm.WF_AC, 0, 0, SPACING*2);
+	ground(0, SPACING*2);
+	CircuitElm top = new CustomCompositeElm(SPACING, 0, getModelName(depth));
+	add(top, SPACING, 0, SPACING*2, 0);
+	wire(new Point(0, 0), top.getPost(0));
+	Point b = top.getPost(1);
+	resistor(b.x, b.y, b.x, SPACING*2, 1000);
+	wire(0, SPACING*2, b.x, SPACING*2);
+	label(b, "out");
+    }
+
+    static String getModelName(int depth) {
+	return "nested" + depth;
+    }
+
+    // same format as the node list CirSim.getCircuitAsComposite() writes for each element
+    static String getNodeDump(CircuitElm ce, String nodes) {
+	return ce.getClass().getSimpleName() + " " + nodes;
+    }
+
+    // same as the element dumps in CirSim.getCircuitAsComposite(), for an element at 0,0
+    static String getElmDump(CircuitElm ce) {
+	return CustomLogicModel.escape(ce.dump().replaceFirst("[A-Za-z0-9]+ 0 0 0 0 ", ""));
+    }
+
+    // same as CirSim.dumpCircuit(), with default options
+    String dump() {
+	CustomLogicModel.clearDumpedFlags();
+	CustomCompositeModel.clearDumpedFlags();
+	DiodeModel.clearDumpedFlags();
+	TransistorModel.clearDumpedFlags();
+	StringBuilder sb = new StringBuilder("$ 1 0.000005 10 50 5 50 5e-11\n");
+	int i;
+	for (i = 0; i != elmList.size(); i++) {
+	    CircuitElm ce = elmList.get(i);
+	    String m = ce.dumpModel();
+	    if (m != null && !m.isEmpty())
+		sb.append(m).append("\n");
+	    sb.append(ce.dump()).append("\n");
+	}
+	return sb.toString();
+    }
+
+    public static void main(String args[]) throws IOException {
+	if (args.length < 2) {
+	    System.err.println("usage: CircuitGenerator family size [output.txt]");
+	    System.exit(1);
+	}
+	String text = generate(args[0], args[1]);
+	if (text == null) {
+	    System.err.println("unknown family " + args[0] + "; expected one of " + String.join(", ", FAMILIES));
+	    System.exit(1);
+	}
+	if (args.length > 2)
+	    Files.write(Paths.get(args[2]), text.getBytes(StandardCharsets.UTF_8));
+	else
+	    System.out.print(text);
+    }
+}
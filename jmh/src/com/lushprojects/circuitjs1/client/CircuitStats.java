@@ -0,0 +1,98 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Writes the things about each circuit that explain its CircuitBenchmark results (matrix
+// size, how many components it was split into, how much of it is nonlinear, which solver we
+// used, how many elements LogicSimulator handles, how many subiterations a time step takes
+// with and without CirSim.newtonPredictor, and how often nonlinear devices could skip
+// evaluating their models) to a JSON file, so they can be compared between commits along with
+// the benchmark results.
+//
+//   CircuitStats output.json circuit.txt...
+public class CircuitStats {
+    static final int STEPS = 1000;
+
+    public static void main(String args[]) throws IOException {
+	PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[0])));
+	out.println("[");
+	int i;
+	for (i = 1; i < args.length; i++) {
+	    HeadlessSim sim = new HeadlessSim();
+	    String error = null;
+	    try {
+		sim.load(Files.readAllBytes(Paths.get(args[i])));
+		sim.runSteps(STEPS);
+		error = sim.stopMessage;
+	    } catch (Exception e) {
+		error = e.toString();
+	    }
+	    out.print("  {\"circuit\": " + quote(args[i]));
+	    out.print(", \"matrixSize\": " + sim.getMatrixSize());
+	    out.print(", \"components\": " + (sim.circuitComponents == null ? 1 : sim.circuitComponents.length));
+	    out.print(", \"fullMatrixSize\": " + sim.circuitMatrixFullSize);
+	    out.print(", \"nonLinearRows\": " + sim.getNonLinearRowCount());
+	    out.print(", \"solver\": " + quote(getSolverName(sim)));
+	    out.print(", \"logicElements\": " + (sim.logicSimulator == null ? 0 : sim.logicSimulator.elms.length));
+	    out.print(", \"steps\": " + sim.steps);
+	    double avg = (sim.steps > 0) ? sim.subIterationCount / (double) sim.steps : 0;
+	    out.print(", \"avgSubIterations\": " + avg);
+	    out.print(", \"avgSubIterationsPredictor\": " + getAverageSubIterations(args[i], true));
+	    out.print(", \"predictedSteps\": " + sim.predictor.predictedSteps);
+	    long bypass[] = sim.getBypassCounts();
+	    out.print(", \"deviceEvals\": " + bypass[0] + ", \"deviceBypasses\": " + bypass[1]);
+	    out.print(", \"error\": " + (error == null ? "null" : quote(error)));
+	    out.println(i < args.length-1 ? "}," : "}");
+	}
+	out.println("]");
+	out.close();
+    }
+
+    // run the circuit again to see how many subiterations a step takes with or without
+    // CirSim.newtonPredictor, whatever the circuit's options say
+    static double getAverageSubIterations(String file, boolean predictor) {
+	HeadlessSim sim = new HeadlessSim();
+	try {
+	    sim.load(Files.readAllBytes(Paths.get(file)));
+	    sim.newtonPredictor = predictor;
+	    sim.runSteps(STEPS);
+	} catch (Exception e) {
+	    return 0;
+	}
+	return (sim.steps > 0) ? sim.subIterationCount / (double) sim.steps : 0;
+    }
+
+    static String getSolverName(CirSim sim) {
+	if (sim.circuitSchurSolver != null)
+	    return "schur";
+	if (sim.useSparseMatrix)
+	    return "sparse";
+	return "dense";
+    }
+
+    static String quote(String s) {
+	return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,140 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Loads circuits from CircuitGenerator in increasing sizes and measures how long analyze and
+// stamp take and how many time steps per second we get, to show how each of them scales.
+// Writes a CSV file with one line per circuit, so the curves can be plotted and compared
+// between commits.
+//
+//   ScalingRunner output.csv [family[:size,size...]...]
+//
+// This isn't JMH (the big circuits take too long for that), just a simple timing loop that
+// runs each measurement for at least MIN_TIME after one warmup run.
+public class ScalingRunner {
+    static final String DEFAULT_SIZES[] = {
+	"rc:10,30,100,300",
+	"mesh:4,8,16,24",
+	"counter:2,4,8,16,32",
+	"diodes:10,30,100,300",
+	"separate:1x50,2x50,4x50,8x50",
+	"nested:1,2,3,4,5,6,7"
+    };
+
+    // minimum time to spend on each measurement, in nanoseconds
+    static final long MIN_TIME = 200000000L;
+
+    // time steps per call to runSteps() when measuring steps per second
+    static final int STEPS = 20;
+
+    HeadlessSim sim;
+
+    interface Task {
+	void run();
+    }
+
+    // average time of task in ms
+    static double time(Task task) {
+	task.run();
+	long start = System.nanoTime();
+	long now;
+	int n = 0;
+	do {
+	    task.run();
+	    n++;
+	    now = System.nanoTime();
+	} while (now-start < MIN_TIME);
+	return (now-start)/1e6/n;
+    }
+
+    String measure(String family, String size) {
+	String text = CircuitGenerator.generate(family, size);
+	if (text == null)
+	    throw new IllegalArgumentException("unknown family " + family);
+	sim = new HeadlessSim();
+	long start = System.nanoTime();
+	sim.load(text.getBytes(StandardCharsets.UTF_8));
+	double loadTime = (System.nanoTime()-start)/1e6;
+	if (sim.stopMessage != null)
+	    return null;
+	int elements = sim.elmList.size();
+	int nodes = sim.nodeList.size();
+	int matrixSize = sim.getMatrixSize();
+
+	// same split as CircuitBenchmark
+	double analyzeTime = time(new Task() { public void run() {
+	    sim.analyzeCircuit();
+	    sim.preStampCircuit(false);
+	} });
+	double stampTime = time(new Task() { public void run() { sim.stampCircuit(); } });
+	double stepTime = time(new Task() { public void run() { sim.runSteps(STEPS); } }) / STEPS;
+	if (sim.stopMessage != null)
+	    return null;
+	return family + "," + size + "," + elements + "," + nodes + "," + matrixSize + "," +
+	    String.format("%.3f,%.3f,%.3f,%.0f,", loadTime, analyzeTime, stampTime, 1000/stepTime);
+    }
+
+    public static void main(String args[]) throws IOException {
+	if (args.length < 1) {
+	    System.err.println("usage: ScalingRunner output.csv [family[:size,size...]...]");
+	    System.exit(1);
+	}
+	String runs[] = DEFAULT_SIZES;
+	if (args.length > 1) {
+	    runs = new String[args.length-1];
+	    System.arraycopy(args, 1, runs, 0, runs.length);
+	}
+	PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[0])));
+	String header = "family,size,elements,nodes,matrixSize,loadMs,analyzeMs,stampMs,stepsPerSec,error";
+	out.println(header);
+	System.out.println(header);
+	ScalingRunner runner = new ScalingRunner();
+	for (String run : runs) {
+	    String family = run;
+	    String sizes[] = null;
+	    int colon = run.indexOf(':');
+	    if (colon >= 0) {
+		family = run.substring(0, colon);
+		sizes = run.substring(colon+1).split(",");
+	    } else {
+		for (String def : DEFAULT_SIZES)
+		    if (def.startsWith(family + ":"))
+			sizes = def.substring(family.length()+1).split(",");
+		if (sizes == null)
+		    throw new IllegalArgumentException("no default sizes for " + family);
+	    }
+	    for (String size : sizes) {
+		String line = runner.measure(family, size);
+		if (line == null)
+		    line = family + "," + size + ",,,,,,,,\"" + runner.sim.stopMessage.replace("\"", "'") + "\"";
+		out.println(line);
+		out.flush();
+		System.out.println(line);
+	    }
+	}
+	out.close();
+    }
+}
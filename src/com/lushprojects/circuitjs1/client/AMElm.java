@@ -140,4 +140,7 @@ class AMElm extends CircuitElm {
 	if (n == 2)
 	    signalfreq=ei.value;
     }
+
+    // we don't estimate the error of our waveform
+    boolean needsFixedTimeStep() { return true; }
 }
@@ -112,11 +112,17 @@ public class Adjustable implements Command {
     }
     
     void executeSlider() {
-	elm.sim.analyzeFlag = true;
+	CirSim sim = elm.sim;
+	// if only the element's value changes, just restamp it
+	boolean restamp = elm.isValueOnlyEdit(editItem) && sim.startElementRestamp(elm);
+	if (!restamp)
+	    sim.analyzeFlag = true;
 	EditInfo ei = elm.getEditInfo(editItem);
 	ei.value = getSliderValue();
 	elm.setEditValue(editItem, ei);
-	elm.sim.repaint();
+	if (restamp)
+	    sim.finishElementRestamp(elm);
+	sim.repaint();
     }
     
     double getSliderValue() {
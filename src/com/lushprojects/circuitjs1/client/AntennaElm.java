@@ -54,4 +54,7 @@ package com.lushprojects.circuitjs1.client;
 	public EditInfo getEditInfo(int n) {
 	    return null;
 	}
+
+	// we don't estimate the error of our waveform
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -190,4 +190,7 @@ class AudioInputElm extends RailElm {
 	public static void clearCache() {
 	    audioFileMap.clear();
 	}
+
+	// we play back samples at fixed intervals
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -117,6 +117,9 @@ public class AudioOutputElm extends CircuitElm {
 	double nextDataSample = 0;
 	double dataSample;
 	
+	// we need a sample for every sampleStep
+	boolean needsFixedTimeStep() { return true; }
+
 	void stepFinished() {
 	    dataSample += volts[0];
 	    dataSampleCount++;
@@ -218,6 +221,9 @@ public class AudioOutputElm extends CircuitElm {
 	}
 	
         void createButton() {
+            // no UI to put it in
+            if (CirSim.headless)
+        	return;
             String label = "&#9654; " + Locale.LS("Play Audio");
             if (labelNum > 1)
         	label += " " + labelNum;
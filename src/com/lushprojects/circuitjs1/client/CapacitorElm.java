@@ -26,6 +26,7 @@ class CapacitorElm extends CircuitElm {
 	double compResistance, voltdiff, seriesResistance;
 	double initialVoltage;
 	int capNode2;
+	IntegrationHistory history = new IntegrationHistory();
 	Point plate1[], plate2[];
 	public static final int FLAG_BACK_EULER = 2;
 	public static final int FLAG_RESISTANCE = 4;
@@ -48,6 +49,8 @@ class CapacitorElm extends CircuitElm {
 
 		// if you add more things here, check PolarCapacitorElm.  It loads more state after this
 	    } catch (Exception e) {}
+	    // we may need an internal node for the series resistance
+	    allocNodes();
 	}
 	boolean isTrapezoidal() { return (flags & FLAG_BACK_EULER) == 0; }
 	
@@ -56,10 +59,12 @@ class CapacitorElm extends CircuitElm {
 	    current = curcount = curSourceValue = 0;
 	    // put small charge on caps when reset to start oscillators
 	    voltdiff = initialVoltage;
+	    history.reset();
 	}
 	void shorted() {
 	    super.reset();
 	    voltdiff = current = curcount = curSourceValue = 0;
+	    history.reset();
 	}
 	int getDumpType() { return 'c'; }
 
@@ -138,8 +143,12 @@ class CapacitorElm extends CircuitElm {
 	    // (Norton equivalent) consists of a current source in
 	    // parallel with a resistor.  Trapezoidal is more accurate
 	    // than backward euler but can cause oscillatory behavior
-	    // if RC is small relative to the timestep.
-	    if (isTrapezoidal())
+	    // if RC is small relative to the timestep.  Gear-2 is nearly
+	    // as accurate as trapezoidal and damps like backward euler.
+	    int method = IntegrationHistory.getMethod(sim, isTrapezoidal());
+	    if (method == IntegrationHistory.GEAR2)
+		compResistance = 2*sim.timeStep/(3*capacitance);
+	    else if (method == IntegrationHistory.TRAPEZOIDAL)
 		compResistance = sim.timeStep/(2*capacitance);
 	    else
 		compResistance = sim.timeStep/capacitance;
@@ -150,7 +159,9 @@ class CapacitorElm extends CircuitElm {
 		sim.stampResistor(nodes[1], nodes[2], seriesResistance);
 	}
 	void startIteration() {
-	    if (isTrapezoidal())
+	    if (sim.gear2Integration)
+		curSourceValue = -history.getGear2Value(sim.timeStep, voltdiff)/compResistance;
+	    else if (isTrapezoidal())
 		curSourceValue = -voltdiff/compResistance-current;
 	    else
 		curSourceValue = -voltdiff/compResistance;
@@ -159,6 +170,17 @@ class CapacitorElm extends CircuitElm {
 	void stepFinished() {
 	    voltdiff = volts[0]-volts[capNode2];
 	    calculateCurrent();
+	    history.add(sim.t, voltdiff);
+	}
+
+	void breakpointReached() { history.restart(); }
+
+	double getMaxLteTimeStep() {
+	    if (sim.dcAnalysisFlag)
+		return Double.POSITIVE_INFINITY;
+	    return history.getMaxTimeStep(sim.t+sim.timeStep, volts[0]-volts[capNode2],
+					  IntegrationHistory.getMethod(sim, isTrapezoidal()),
+					  CirSim.LTE_REL_TOL, CirSim.LTE_VOLTAGE_TOL);
 	}
 	
 	void setNodeVoltage(int n, double c) {
@@ -225,13 +247,17 @@ class CapacitorElm extends CircuitElm {
 	    }
 	    if (n == 2)
 		initialVoltage = ei.value;
-	    if (n == 3)
+	    if (n == 3) {
 		seriesResistance = ei.value;
+		allocNodes();
+	    }
 	}
+	// changing the series resistance may add or remove the internal node
+	boolean isValueOnlyEdit(int n) { return n < 3; }
 	int getShortcut() { return 'c'; }
 	public double getCapacitance() { return capacitance; }
 	public double getSeriesResistance() { return seriesResistance; }
 	public void setCapacitance(double c) { capacitance = c; }
-	public void setSeriesResistance(double c) { seriesResistance = c; }
+	public void setSeriesResistance(double c) { seriesResistance = c; allocNodes(); }
 	public boolean isIdealCapacitor() { return (seriesResistance == 0); }
     }
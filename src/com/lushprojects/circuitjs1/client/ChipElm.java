@@ -36,7 +36,7 @@ abstract class ChipElm extends CircuitElm {
 	    highVoltage = 5;
 	    noDiagonal = true;
 	    setupPins();
-	    setSize(sim.smallGridCheckItem.getState() ? 1 : 2);
+	    setSize((!CirSim.headless && sim.smallGridCheckItem.getState()) ? 1 : 2);
 	}
 	public ChipElm(int xa, int ya, int xb, int yb, int f,
 		       StringTokenizer st) {
@@ -63,6 +63,10 @@ abstract class ChipElm extends CircuitElm {
 	boolean needsBits() { return false; }
 	boolean hasCustomVoltage() { return (flags & FLAG_CUSTOM_VOLTAGE) != 0; }
 	boolean isDigitalChip() { return true; }
+	// can LogicSimulator run this chip?  it has to use the default stamp() and doStep(), and
+	// its outputs must depend only on its inputs and its state, not on time.  Chips have to
+	// say so themselves, so a new one doesn't get taken out of the matrix by accident.
+	boolean isLogicChip() { return false; }
 	double getThreshold() { return highVoltage/2; }
 	
 	int defaultBitCount() { return 4; }
@@ -271,7 +275,8 @@ abstract class ChipElm extends CircuitElm {
 		CirSim.console("voltage source count does not match number of outputs");
 	}
 	void execute() {}
-	void doStep() {
+	// read the inputs and update the outputs
+	void calcOutputs() {
 	    int i;
 	    for (i = 0; i != getPostCount(); i++) {
 		Pin p = pins[i];
@@ -279,6 +284,10 @@ abstract class ChipElm extends CircuitElm {
 		    p.value = volts[i] > getThreshold();
 	    }
 	    execute();
+	}
+	void doStep() {
+	    int i;
+	    calcOutputs();
 	    for (i = 0; i != getPostCount(); i++) {
 		Pin p = pins[i];
 		if (p.output)
@@ -348,6 +357,7 @@ abstract class ChipElm extends CircuitElm {
 	}
 	String getChipName() { return "chip"; }
 	boolean getConnection(int n1, int n2) { return false; }
+	boolean isHighImpedanceInput(int n) { return isLogicChip() && !pins[n].output; }
 	boolean hasGroundConnection(int n1) {
 	    return pins[n1].output;
 	}
@@ -582,5 +592,8 @@ abstract class ChipElm extends CircuitElm {
 	    
 
 	}
+
+	// chips switch when an input crosses a threshold, so a long step would make them switch late
+	boolean needsFixedTimeStep() { return true; }
     }
 
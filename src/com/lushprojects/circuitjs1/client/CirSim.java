@@ -224,6 +224,31 @@ MouseOutHandler, MouseWheelHandler {
 
     double minFrameRate = 20;
     boolean adjustTimeStep;
+    // with adjustTimeStep, also pick the time step by estimating the local truncation error of
+    // capacitors and inductors (see IntegrationHistory), so it can grow past maxTimeStep when
+    // nothing's changing fast, up to getLteMaxTimeStep().  Time steps are always maxTimeStep
+    // times a power of two, so matrixCache can keep the matrices for the ones we use.  Ignored
+    // if the circuit has an element that needsFixedTimeStep().
+    boolean lteTimeStep;
+    // integrate capacitors, inductors and transformers with Gear-2 (BDF2) instead of their own
+    // trapezoidal/backward euler setting.  Second order like trapezoidal, but it damps fast
+    // modes instead of letting them ring, so switching circuits can use longer time steps.
+    boolean gear2Integration;
+    // limit for error-controlled time steps, or 0 for LTE_DEFAULT_MAX_RATIO*maxTimeStep
+    double lteMaxTimeStep;
+    // time step the error estimate picked for the next step
+    double lteNextTimeStep;
+    // true if an element needsFixedTimeStep()
+    boolean fixedTimeStep;
+    // if we shortened the last step to land on a breakpoint, the time step to go back to
+    double timeStepAfterBreakpoint;
+    // true if the matrices are for a step shortened to land on a breakpoint.  That can be any
+    // length, so we're unlikely to use it again, and matrixCache shouldn't keep it
+    boolean offGridTimeStep;
+    static final double LTE_REL_TOL = 1e-3;
+    static final double LTE_VOLTAGE_TOL = 1e-6;
+    static final double LTE_CURRENT_TOL = 1e-9;
+    static final int LTE_DEFAULT_MAX_RATIO = 100;
     boolean developerMode;
     static final int HINT_LC = 1;
     static final int HINT_RC = 2;
@@ -235,6 +260,8 @@ MouseOutHandler, MouseWheelHandler {
     // Vector setupList;
     CircuitElm dragElm, menuElm, stopElm;
     CircuitElm elmArr[];
+    // elements that runCircuit() calls doStep() on (all but the ones logicSimulator handles)
+    CircuitElm stepElmArr[];
     ScopeElm scopeElmArr[];
     private CircuitElm mouseElm = null;
     boolean didSwitch = false;
@@ -243,8 +270,71 @@ MouseOutHandler, MouseWheelHandler {
     int draggingPost;
     SwitchElm heldSwitchElm;
     double circuitMatrix[][], circuitRightSide[], lastNodeVoltages[], nodeVoltages[], origRightSide[], origMatrix[][];
-    RowInfo circuitRowInfo[];
-    int circuitPermute[];
+    RowInfo circuitRowInfo;
+
+    // sparse versions of circuitMatrix/origMatrix, used instead of the dense arrays for big circuits.
+    // The matrix is always stamped into circuitSparseMatrix first; simplifyMatrix() decides which to use.
+    SparseMatrix circuitSparseMatrix, origSparseMatrix;
+    SparseLU circuitSparseLU;
+    boolean useSparseMatrix;
+    int matrixSolverMode;
+    static final int MATRIX_SOLVER_AUTO = 0;
+    static final int MATRIX_SOLVER_DENSE = 1;
+    static final int MATRIX_SOLVER_SPARSE = 2;
+    // in auto mode, use a sparse matrix if the simplified matrix is at least this big
+    static final int SPARSE_MATRIX_MIN_SIZE = 100;
+    // for nonlinear circuits, solves the linear and nonlinear parts of the matrix separately
+    // (see SchurSolver).  null if we're factoring the whole matrix every subiteration.
+    SchurSolver circuitSchurSolver;
+    // only partition the matrix if it's at least this big, and at most 1/SCHUR_MIN_RATIO of the
+    // rows are nonlinear
+    static final int SCHUR_MIN_SIZE = 30;
+    static final int SCHUR_MIN_RATIO = 4;
+    // rows of the matrix written by doStep() since they were last restored from origMatrix, so
+    // runCircuit() doesn't have to copy the whole thing every subiteration
+    int changedMatrixRows[];
+    boolean matrixRowChanged[];
+    int changedMatrixRowCount;
+    // factors of the dense matrix.  DenseLU works on its own copy, so circuitMatrix stays the
+    // same apart from the rows doStep() changes
+    DenseLU circuitDenseLU;
+    // if only a few rows of a nonlinear circuit's matrix change between subiterations, we update
+    // the old factors instead of factoring it again (unless lowRankUpdates is off)
+    LowRankUpdate circuitLowRankUpdate;
+    boolean lowRankUpdates = true;
+    static final int LOW_RANK_MIN_SIZE = 20;
+    static final int LOW_RANK_MAX = 8;
+    // matrices for the last few time steps we've used, so adjustTimeStep doesn't have to restamp
+    // the circuit every time it changes the time step
+    CircuitMatrixCache matrixCache = new CircuitMatrixCache(MATRIX_CACHE_SIZE);
+    static final int MATRIX_CACHE_SIZE = 4;
+    // buffers the current matrices live in.  We reuse them when we stamp the circuit again,
+    // unless matrixCache is holding on to them, in which case we take one from the pool
+    MatrixWorkspace circuitWorkspace;
+    Vector<MatrixWorkspace> workspacePool = new Vector<MatrixWorkspace>();
+    // set while we stamp elements just to update their own state
+    boolean ignoreStamps;
+    // simulates the parts of the circuit that are pure logic without the matrix.  null if
+    // there aren't any, or eventDrivenLogic is off
+    LogicSimulator logicSimulator;
+    boolean eventDrivenLogic = true;
+    // if the circuit is made of parts that are only connected to each other through ground,
+    // each one has its own matrix (see CircuitComponent).  null if there's just one matrix
+    CircuitComponent circuitComponents[];
+    // the components we're solving in the current subiteration
+    CircuitComponent activeComponents[];
+    boolean splitComponents = true;
+    // let nonlinear devices stamp their last linearization again, instead of evaluating their
+    // models, when their voltages have changed by less than BYPASS_VOLTAGE_TOL since then
+    // (SPICE's device bypass).  Most devices in a big circuit hardly move in most subiterations
+    boolean deviceBypass = true;
+    static final double BYPASS_VOLTAGE_TOL = 1e-6;
+    // start each time step's subiterations with node voltages extrapolated from the last two
+    // steps instead of the last step's solution (see NodeVoltagePredictor).  Off unless the
+    // circuit asks for it, because it can move the results of circuits that amplify small
+    // differences
+    boolean newtonPredictor;
+    NodeVoltagePredictor predictor = new NodeVoltagePredictor();
     boolean simRunning;
     boolean circuitNonLinear;
     int voltageSourceCount;
@@ -851,6 +941,7 @@ MouseOutHandler, MouseWheelHandler {
 
 	setColors(positiveColor, negativeColor, neutralColor, selectColor, currentColor);
 	setWheelSensitivity();
+	setMatrixSolverMode();
 	
 	if (startCircuitText != null) {
 	    getSetupList(false);
@@ -954,6 +1045,18 @@ MouseOutHandler, MouseWheelHandler {
 	} catch (Exception e) {}
     }
 
+    void setMatrixSolverMode() {
+	matrixSolverMode = MATRIX_SOLVER_AUTO;
+	try {
+	    Storage stor = Storage.getLocalStorageIfSupported();
+	    matrixSolverMode = Integer.parseInt(stor.getItem("matrixSolver"));
+	} catch (Exception e) {}
+	try {
+	    Storage stor = Storage.getLocalStorageIfSupported();
+	    eventDrivenLogic = !"false".equals(stor.getItem("eventDrivenLogic"));
+	} catch (Exception e) {}
+    }
+
     MenuItem menuItemWithShortcut(String icon, String text, String shortcut, MyCommand cmd) {
 	final String edithtml="<div style=\"white-space:nowrap\"><div style=\"display:inline-block;width:100%;\"><i class=\"cirjsicon-";
 	String nbsp = "&nbsp;";
@@ -1470,6 +1573,10 @@ MouseOutHandler, MouseWheelHandler {
     int framerate = 0, steprate = 0;
     static CirSim theSim;
 
+    // set when we're running on the JVM without a browser (see HeadlessSim in headless/src).
+    // There's no UI, canvas or javascript then, so a few things have to be skipped.
+    static boolean headless;
+
     
     public void setSimRunning(boolean s) {
     	if (s) {
@@ -1722,6 +1829,11 @@ MouseOutHandler, MouseWheelHandler {
             g.drawString("Steprate/iter: " + CircuitElm.showFormat.format(steprate / getIterCount()), 10, height += increment);
             g.drawString("iterc: " + CircuitElm.showFormat.format(getIterCount()), 10, height += increment);
             g.drawString("Frames: " + frames, 10, height += increment);
+            if (circuitMatrix != null || circuitSparseMatrix != null)
+        	g.drawString("Matrix: " + getMatrixInfo(), 10, height += increment);
+            long bypass[] = getBypassCounts();
+            if (bypass[0]+bypass[1] > 0)
+        	g.drawString("Device bypass: " + bypass[1] + " of " + (bypass[0]+bypass[1]), 10, height += increment);
             
             height += (increment * 2);
             
@@ -2019,20 +2131,68 @@ MouseOutHandler, MouseWheelHandler {
 	return null;
     }
     
-    public static native void console(String text)
+    public static void console(String text) {
+	if (!headless)
+	    jsConsole(text);
+    }
+
+    static native void jsConsole(String text)
     /*-{
 	    console.log(text);
 	}-*/;
 
-    public static native void debugger() /*-{ debugger; }-*/;
+    public static void debugger() {
+	if (!headless)
+	    jsDebugger();
+    }
+
+    static native void jsDebugger() /*-{ debugger; }-*/;
     
+    // entries for points connected by wires are merged using a disjoint-set forest, so an entry
+    // may just point to another one.  find() returns the entry that holds the node number.
     class NodeMapEntry {
 	int node;
+	NodeMapEntry parent;
+	int rank;
 	NodeMapEntry() { node = -1; }
 	NodeMapEntry(int n) { node = n; }
+	NodeMapEntry find() {
+	    NodeMapEntry root = this;
+	    while (root.parent != null)
+		root = root.parent;
+	    // point everything on the path directly at the root so the next find() is faster
+	    NodeMapEntry e = this;
+	    while (e != root) {
+		NodeMapEntry next = e.parent;
+		e.parent = root;
+		e = next;
+	    }
+	    return root;
+	}
     }
     // map points to node numbers
     HashMap<Point,NodeMapEntry> nodeMap;
+
+    NodeMapEntry getNodeMapEntry(Point pt) {
+	NodeMapEntry e = nodeMap.get(pt);
+	return (e == null) ? null : e.find();
+    }
+
+    // merge the groups containing a and b (union by rank)
+    void mergeNodeMapEntries(NodeMapEntry a, NodeMapEntry b) {
+	a = a.find();
+	b = b.find();
+	if (a == b)
+	    return;
+	if (a.rank < b.rank) {
+	    NodeMapEntry t = a;
+	    a = b;
+	    b = t;
+	}
+	b.parent = a;
+	if (a.rank == b.rank)
+	    a.rank++;
+    }
     
     class WireInfo {
 	CircuitElm wire;
@@ -2077,11 +2237,8 @@ MouseOutHandler, MouseWheelHandler {
 	    }
 	    NodeMapEntry cn2 = nodeMap.get(p1);
 	    if (cn != null && cn2 != null) {
-		// merge nodes; go through map and change all keys pointing to cn2 to point to cn
-		for (Map.Entry<Point, NodeMapEntry> entry : nodeMap.entrySet()) {
-		    if (entry.getValue() == cn2)
-			entry.setValue(cn);
-		}
+		// merge nodes
+		mergeNodeMapEntries(cn, cn2);
 //		mergeCount++;
 		continue;
 	    }
@@ -2199,7 +2356,7 @@ MouseOutHandler, MouseWheelHandler {
 		gotGround = true;
 		
 		// set ground node to 0
-		NodeMapEntry nme = nodeMap.get(ce.getPost(0));
+		NodeMapEntry nme = getNodeMapEntry(ce.getPost(0));
 		nme.node = 0;
 		break;
 	    }
@@ -2217,7 +2374,7 @@ MouseOutHandler, MouseWheelHandler {
 	    nodeList.addElement(cn);
 
 	    // update node map
-	    NodeMapEntry cln = nodeMap.get(pt);
+	    NodeMapEntry cln = getNodeMapEntry(pt);
 	    if (cln != null)
 		cln.node = 0;
 	    else
@@ -2242,7 +2399,7 @@ MouseOutHandler, MouseWheelHandler {
 	    // allocate a node for each post and match posts to nodes
 	    for (j = 0; j != posts; j++) {
 		Point pt = ce.getPost(j);
-		NodeMapEntry cln = nodeMap.get(pt);
+		NodeMapEntry cln = getNodeMapEntry(pt);
 		
 		// is this node not in map yet?  or is the node number unallocated?
 		// (we don't allocate nodes before this because changing the allocation order
@@ -2365,32 +2522,82 @@ MouseOutHandler, MouseWheelHandler {
 	}
     }
     
+    // graphs used to find paths in validateCircuit(), indexed by FindPathInfo type.  created when needed.
+    // INDUCT_NO_INDUCTORS is for INDUCT paths that can't go through any inductors.
+    CircuitTopology topologies[];
+    static final int INDUCT_NO_INDUCTORS = 0;
+    Vector<CircuitElm> inductorList;
+
+    CircuitTopology getTopology(int type) {
+	if (topologies[type] == null)
+	    topologies[type] = (type == INDUCT_NO_INDUCTORS) ?
+		new CircuitTopology(FindPathInfo.INDUCT, false, elmList, nodeList.size()) :
+		new CircuitTopology(type, true, elmList, nodeList.size());
+	return topologies[type];
+    }
+
+    // is there a path from n1 to n2 that doesn't go through element i (see FindPathInfo)?
+    boolean findPath(int type, int i, int n1, int n2) {
+	CircuitElm ce = getElm(i);
+	if (type == FindPathInfo.INDUCT) {
+	    // paths can only go through inductors with the same current as ce, in the right
+	    // direction.  The graph can only handle that if ce has no current (so the path can go
+	    // through inductors with no current, in either direction), or if no inductors can match.
+	    double c = ce.getCurrent();
+	    if (c != 0) {
+		type = INDUCT_NO_INDUCTORS;
+		int j;
+		for (j = 0; j != inductorList.size(); j++) {
+		    CircuitElm ind = inductorList.get(j);
+		    if (ind != ce && Math.abs(Math.abs(ind.getCurrent())-Math.abs(c)) <= 1e-10)
+			type = -1;
+		}
+	    }
+	}
+	if (type >= 0) {
+	    CircuitTopology topo = getTopology(type);
+	    if (topo.canFindPath(i, n1, n2))
+		return topo.findPath(i, n1, n2);
+	    if (type == INDUCT_NO_INDUCTORS)
+		type = FindPathInfo.INDUCT;
+	} else
+	    type = FindPathInfo.INDUCT;
+
+	// do a full search
+	FindPathInfo fpi = new FindPathInfo(type, ce, n2);
+	return fpi.findPath(n1);
+    }
+
     boolean validateCircuit() {
-	int i, j;
+	int i;
+	topologies = new CircuitTopology[FindPathInfo.CAP_V+1];
+	inductorList = new Vector<CircuitElm>();
+	for (i = 0; i != elmList.size(); i++)
+	    if (getElm(i) instanceof InductorElm)
+		inductorList.add(getElm(i));
 	
 	for (i = 0; i != elmList.size(); i++) {
 	    CircuitElm ce = getElm(i);
 	    // look for inductors with no current path
 	    if (ce instanceof InductorElm) {
-		FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
-						    ce.getNode(1));
-		if (!fpi.findPath(ce.getNode(0))) {
+		if (!findPath(FindPathInfo.INDUCT, i, ce.getNode(0), ce.getNode(1))) {
 //		    console(ce + " no path");
+		    boolean hadCurrent = Math.abs(ce.getCurrent()) > 1e-10;
 		    ce.reset();
+		    // this inductor may now be usable in other paths
+		    if (hadCurrent)
+			topologies[FindPathInfo.INDUCT] = null;
 		}
 	    }
 	    // look for current sources with no current path
 	    if (ce instanceof CurrentElm) {
 		CurrentElm cur = (CurrentElm) ce;
-		FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
-						    ce.getNode(1));
-		cur.setBroken(!fpi.findPath(ce.getNode(0)));
+		cur.setBroken(!findPath(FindPathInfo.INDUCT, i, ce.getNode(0), ce.getNode(1)));
 	    }
 	    if (ce instanceof VCCSElm) {
 		VCCSElm cur = (VCCSElm) ce;
-		FindPathInfo fpi = new FindPathInfo(FindPathInfo.INDUCT, ce,
-						    cur.getOutputNode(0));
-		if (cur.hasCurrentOutput() && !fpi.findPath(cur.getOutputNode(1))) {
+		if (cur.hasCurrentOutput() &&
+		    !findPath(FindPathInfo.INDUCT, i, cur.getOutputNode(1), cur.getOutputNode(0))) {
 		    cur.broken = true;
 		} else
 		    cur.broken = false;
@@ -2399,9 +2606,7 @@ MouseOutHandler, MouseWheelHandler {
 	    // look for voltage source or wire loops.  we do this for voltage sources
 	    if (ce.getPostCount() == 2) {
 		if (ce instanceof VoltageElm) {
-		    FindPathInfo fpi = new FindPathInfo(FindPathInfo.VOLTAGE, ce,
-						    ce.getNode(1));
-		    if (fpi.findPath(ce.getNode(0))) {
+		    if (findPath(FindPathInfo.VOLTAGE, i, ce.getNode(0), ce.getNode(1))) {
 			stop("Voltage source/wire loop with no resistance!", ce);
 			return false;
 		    }
@@ -2410,8 +2615,7 @@ MouseOutHandler, MouseWheelHandler {
 
 	    // look for path from rail to ground
 	    if (ce instanceof RailElm || ce instanceof LogicInputElm) {
-		FindPathInfo fpi = new FindPathInfo(FindPathInfo.VOLTAGE, ce, ce.getNode(0));
-		if (fpi.findPath(0)) {
+		if (findPath(FindPathInfo.VOLTAGE, i, 0, ce.getNode(0))) {
 		    stop("Path to ground with no resistance!", ce);
 		    return false;
 		}
@@ -2419,14 +2623,11 @@ MouseOutHandler, MouseWheelHandler {
 	    
 	    // look for shorted caps, or caps w/ voltage but no R
 	    if (ce.isIdealCapacitor()) {
-		FindPathInfo fpi = new FindPathInfo(FindPathInfo.SHORT, ce,
-						    ce.getNode(1));
-		if (fpi.findPath(ce.getNode(0))) {
+		if (findPath(FindPathInfo.SHORT, i, ce.getNode(0), ce.getNode(1))) {
 		    console(ce + " shorted");
 		    ((CapacitorElm) ce).shorted();
 		} else {
-		    fpi = new FindPathInfo(FindPathInfo.CAP_V, ce, ce.getNode(1));
-		    if (fpi.findPath(ce.getNode(0))) {
+		    if (findPath(FindPathInfo.CAP_V, i, ce.getNode(0), ce.getNode(1))) {
 			// loop of ideal capacitors; set a small series resistance to avoid
 			// oscillation in case one of them has voltage on it
 			((CapacitorElm) ce).setSeriesResistance(.1);
@@ -2504,11 +2705,15 @@ MouseOutHandler, MouseWheelHandler {
 	if (!validateCircuit())
 	    return false;
 	
+	logicSimulator = (eventDrivenLogic && !subcircuit) ? LogicSimulator.create(this) : null;
+	
 	nodesWithGroundConnectionCount = nodesWithGroundConnection.size();
 	// only need this for validation
 	nodesWithGroundConnection = null;
 	
 	timeStep = maxTimeStep;
+	lteNextTimeStep = timeStepAfterBreakpoint = 0;
+	predictor.reset();
 	needsStamp = true;
 	
 	callAnalyzeHook();
@@ -2531,26 +2736,86 @@ MouseOutHandler, MouseWheelHandler {
 	    return;
 	}
 
+	matrixCache.clear();
+	offGridTimeStep = false;
 	stampCircuit();
     }
 
+    // restamp the circuit after runCircuit() changed the time step.  If we've used the new time
+    // step recently, just switch back to the matrices we had then.
+    void stampCircuitForTimeStep(double oldTimeStep) {
+	if (!offGridTimeStep)
+	    matrixCache.save(this, oldTimeStep);
+	offGridTimeStep = false;
+	if (!matrixCache.restore(this)) {
+	    stampCircuit();
+	    return;
+	}
+	clearNodeVoltages();
+	// elements may keep values that depend on the time step (like a capacitor's companion
+	// resistance), so stamp them again without changing the matrix
+	int i;
+	ignoreStamps = true;
+	for (i = 0; i != elmArr.length; i++)
+	    elmArr[i].stamp();
+	ignoreStamps = false;
+    }
+
+    // find a workspace for stampCircuit() that matrixCache isn't using
+    MatrixWorkspace getFreeWorkspace() {
+	if (circuitWorkspace != null && !matrixCache.usesWorkspace(circuitWorkspace))
+	    return circuitWorkspace;
+	int i;
+	for (i = 0; i != workspacePool.size(); i++) {
+	    MatrixWorkspace ws = workspacePool.get(i);
+	    if (ws != circuitWorkspace && !matrixCache.usesWorkspace(ws))
+		return ws;
+	}
+	MatrixWorkspace ws = new MatrixWorkspace(this);
+	workspacePool.add(ws);
+	return ws;
+    }
+
+    // HeadlessSim overrides these to use solvers that can factor on several threads
+    DenseLU createDenseLU(int n) { return new DenseLU(n); }
+    SparseLU createSparseLU(int n) { return new SparseLU(n); }
+
+    // call doStep() on each of elms, in order.  HeadlessSim overrides this to do it in parallel
+    void stepElements(CircuitElm elms[]) {
+	int i;
+	for (i = 0; i != elms.length; i++)
+	    elms[i].doStep();
+    }
+
+    // set node voltages to zero, reusing the array if we can
+    void clearNodeVoltages() {
+	int n = nodeList.size()-1;
+	if (nodeVoltages == null || nodeVoltages.length != n) {
+	    nodeVoltages = new double[n];
+	    return;
+	}
+	int i;
+	for (i = 0; i != n; i++)
+	    nodeVoltages[i] = 0;
+    }
+
     // stamp the matrix, meaning populate the matrix as required to simulate the circuit (for all linear elements, at least).
     // this gets called after something changes in the circuit, and also when auto-adjusting timestep
     void stampCircuit() {
 	int i;
 	int matrixSize = nodeList.size()-1 + voltageSourceCount;
-	circuitMatrix = new double[matrixSize][matrixSize];
-	circuitRightSide = new double[matrixSize];
-	nodeVoltages = new double[nodeList.size()-1];
+	MatrixWorkspace ws = circuitWorkspace = getFreeWorkspace();
+	ws.startStamp(matrixSize);
+	circuitMatrix = origMatrix = null;
+	circuitComponents = null;
+	circuitSparseMatrix = ws.stampMatrix;
+	circuitRightSide = ws.stampRightSide;
+	clearNodeVoltages();
 	if (lastNodeVoltages == null || lastNodeVoltages.length != nodeVoltages.length)
 	    lastNodeVoltages = new double[nodeList.size()-1];
-	origMatrix = new double[matrixSize][matrixSize];
-	origRightSide = new double[matrixSize];
+	origRightSide = ws.origRightSide;
 	circuitMatrixSize = circuitMatrixFullSize = matrixSize;
-	circuitRowInfo = new RowInfo[matrixSize];
-	circuitPermute = new int[matrixSize];
-	for (i = 0; i != matrixSize; i++)
-	    circuitRowInfo[i] = new RowInfo();
+	circuitRowInfo = ws.rowInfo;
 	circuitNeedsMap = false;
 	
 	connectUnconnectedNodes();
@@ -2561,31 +2826,56 @@ MouseOutHandler, MouseWheelHandler {
 	    ce.setParentList(elmList);
 	    ce.stamp();
 	}
+	if (logicSimulator != null)
+	    logicSimulator.stamp(circuitRowInfo);
 
 	if (!simplifyMatrix(matrixSize))
 	    return;
 	
 	// check if we called stop()
-	if (circuitMatrix == null)
+	if (circuitMatrix == null && circuitSparseMatrix == null)
 	    return;
 	
-	// if a matrix is linear, we can do the lu_factor here instead of
-	// needing to do it every frame
-	if (!circuitNonLinear) {
-	    if (!lu_factor(circuitMatrix, circuitMatrixSize, circuitPermute)) {
-		stop("Singular matrix!", null);
-		return;
+	circuitLowRankUpdate = null;
+	if (circuitComponents != null) {
+	    // each component has its own matrix.  factor the linear ones now
+	    for (i = 0; i != circuitComponents.length; i++) {
+		CircuitComponent c = circuitComponents[i];
+		if (!c.nonLinear && !c.factor()) {
+		    stop("Singular matrix!", null);
+		    return;
+		}
 	    }
+	} else {
+	    // if a matrix is linear, we can do the lu_factor here instead of
+	    // needing to do it every frame
+	    if (!circuitNonLinear) {
+		if (!factorCircuitMatrix()) {
+		    stop("Singular matrix!", null);
+		    return;
+		}
+	    }
+
+	    // if it's nonlinear, we may still be able to factor the linear part here
+	    if (circuitSchurSolver != null)
+		setupSchurSolver();
+	    if (lowRankUpdates && circuitNonLinear && circuitSchurSolver == null &&
+		circuitMatrixSize >= LOW_RANK_MIN_SIZE)
+		circuitLowRankUpdate = new LowRankUpdate(this, circuitMatrixSize, LOW_RANK_MAX);
 	}
 	
 	// copy elmList to an array to avoid a bunch of calls to canCast() when doing simulation
 	elmArr = new CircuitElm[elmList.size()];
 	int scopeElmCount = 0;
+	fixedTimeStep = false;
 	for (i = 0; i != elmList.size(); i++) {
 	    elmArr[i] = elmList.get(i);
 	    if (elmArr[i] instanceof ScopeElm)
 		scopeElmCount++;
+	    if (elmArr[i].needsFixedTimeStep())
+		fixedTimeStep = true;
 	}
+	stepElmArr = (logicSimulator == null) ? elmArr : logicSimulator.getAnalogElms(elmArr);
 	
 	// copy ScopeElms to an array to avoid a second pass over entire list of elms during simulation
 	scopeElmArr = new ScopeElm[scopeElmCount];
@@ -2602,63 +2892,97 @@ MouseOutHandler, MouseWheelHandler {
     // or at least it did before we added wire removal
     boolean simplifyMatrix(int matrixSize) {
 	int i, j;
+	SparseMatrix mat = circuitSparseMatrix;
+	MatrixWorkspace ws = circuitWorkspace;
+	RowInfo ri = circuitRowInfo;
+
+	// a row which doesn't change in doStep() and has only one nonzero entry (not counting
+	// columns we already know are constant) tells us the value of that column, so we can
+	// drop the row and make the column constant.  That may leave other rows with only one
+	// entry, so we keep a count of nonzero nonconstant entries in each row, and a list of
+	// the rows that reference each column, and use a worklist of rows to check.
+	int nonZeroCount[] = ws.nonZeroCount;
+	int colStart[] = ws.colStart;
 	for (i = 0; i != matrixSize; i++) {
+	    if (ri.lsChanges[i] || ri.dropRow[i] || ri.rsChanges[i])
+		continue;
+	    int cols[] = mat.rowColumns[i];
+	    double vals[] = mat.rowValues[i];
+	    for (j = 0; j != mat.rowLength[i]; j++)
+		if (vals[j] != 0) {
+		    nonZeroCount[i]++;
+		    colStart[cols[j]+1]++;
+		}
+	}
+	for (i = 0; i != matrixSize; i++)
+	    colStart[i+1] += colStart[i];
+	ws.setColRowsSize(colStart[matrixSize]);
+	int colRows[] = ws.colRows;
+	int colFill[] = ws.colFill;
+	// each row can be added to the worklist at most twice: when its count drops to 1, and to 0
+	int worklist[] = ws.worklist;
+	int worklistCount = 0;
+	for (i = 0; i != matrixSize; i++) {
+	    if (ri.lsChanges[i] || ri.dropRow[i] || ri.rsChanges[i])
+		continue;
+	    int cols[] = mat.rowColumns[i];
+	    double vals[] = mat.rowValues[i];
+	    for (j = 0; j != mat.rowLength[i]; j++)
+		if (vals[j] != 0) {
+		    int c = cols[j];
+		    colRows[colStart[c] + colFill[c]++] = i;
+		}
+	    //if (i >= 0) continue;   // uncomment this line to disable matrix simplification for debugging purposes
+	    if (nonZeroCount[i] <= 1)
+		worklist[worklistCount++] = i;
+	}
+
+	while (worklistCount > 0) {
+	    i = worklist[--worklistCount];
+	    if (ri.dropRow[i])
+		continue;
+	    /*System.out.println("row " + i + " " + ri.lsChanges[i] + " " + ri.rsChanges[i] + " " +
+			       ri.dropRow[i]);*/
 	    int qp = -1;
 	    double qv = 0;
-	    RowInfo re = circuitRowInfo[i];
-	    /*System.out.println("row " + i + " " + re.lsChanges + " " + re.rsChanges + " " +
-			       re.dropRow);*/
-	    
-	    //if (qp != -100) continue;   // uncomment this line to disable matrix simplification for debugging purposes
-	    
-	    if (re.lsChanges || re.dropRow || re.rsChanges)
-		continue;
 	    double rsadd = 0;
-
-	    // see if this row can be removed
-	    for (j = 0; j != matrixSize; j++) {
-		double q = circuitMatrix[i][j];
-		if (circuitRowInfo[j].type == RowInfo.ROW_CONST) {
+	    int cols[] = mat.rowColumns[i];
+	    double vals[] = mat.rowValues[i];
+	    int len = mat.rowLength[i];
+	    for (j = 0; j != len; j++) {
+		double q = vals[j];
+		int c = cols[j];
+		if (ri.type[c] == RowInfo.ROW_CONST) {
 		    // keep a running total of const values that have been
 		    // removed already
-		    rsadd -= circuitRowInfo[j].value*q;
+		    rsadd -= ri.value[c]*q;
 		    continue;
 		}
 		// ignore zeroes
 		if (q == 0)
 		    continue;
-		// keep track of first nonzero element that is not ROW_CONST
-		if (qp == -1) {
-		    qp = j;
-		    qv = q;
-		    continue;
-		}
-		// more than one nonzero element?  give up
-		break;
+		// the only nonzero element that is not ROW_CONST
+		qp = c;
+		qv = q;
 	    }
-	    if (j == matrixSize) {
-		if (qp == -1) {
-		    // probably a singular matrix, try disabling matrix simplification above to check this
-		    stop("Matrix error", null);
-		    return false;
-		}
-		RowInfo elt = circuitRowInfo[qp];
-		// we found a row with only one nonzero nonconst entry; that value
-		// is a constant
-		if (elt.type != RowInfo.ROW_NORMAL) {
-		    System.out.println("type already " + elt.type + " for " + qp + "!");
+	    if (qp == -1) {
+		// probably a singular matrix, try disabling matrix simplification above to check this
+		stop("Matrix error", null);
+		return false;
+	    }
+	    // we found a row with only one nonzero nonconst entry; that value
+	    // is a constant
+	    ri.type[qp] = RowInfo.ROW_CONST;
+//	    console("ROW_CONST " + i + " " + rsadd);
+	    ri.value[qp] = (circuitRightSide[i]+rsadd)/qv;
+	    ri.dropRow[i] = true;
+	    // other rows that referenced the element we just made constant might be removable now
+	    for (j = colStart[qp]; j != colStart[qp+1]; j++) {
+		int r = colRows[j];
+		if (ri.dropRow[r])
 		    continue;
-		}
-		elt.type = RowInfo.ROW_CONST;
-//		console("ROW_CONST " + i + " " + rsadd);
-		elt.value = (circuitRightSide[i]+rsadd)/qv;
-		circuitRowInfo[i].dropRow = true;
-		// find first row that referenced the element we just deleted
-		for (j = 0; j != i; j++)
-		    if (circuitMatrix[j][qp] != 0)
-			break;
-		// start over just before that
-		i = j-1;
+		if (--nonZeroCount[r] <= 1)
+		    worklist[worklistCount++] = r;
 	    }
 	}
 	//System.out.println("ac7");
@@ -2666,53 +2990,525 @@ MouseOutHandler, MouseWheelHandler {
 	// find size of new matrix
 	int nn = 0;
 	for (i = 0; i != matrixSize; i++) {
-	    RowInfo elt = circuitRowInfo[i];
-	    if (elt.type == RowInfo.ROW_NORMAL) {
-		elt.mapCol = nn++;
-		//System.out.println("col " + i + " maps to " + elt.mapCol);
+	    if (ri.type[i] == RowInfo.ROW_NORMAL) {
+		ri.mapCol[i] = nn++;
+		//System.out.println("col " + i + " maps to " + ri.mapCol[i]);
 		continue;
 	    }
-	    if (elt.type == RowInfo.ROW_CONST)
-		elt.mapCol = -1;
+	    if (ri.type[i] == RowInfo.ROW_CONST)
+		ri.mapCol[i] = -1;
 	}
 
-	// make the new, simplified matrix
+	// if the circuit falls apart into separate pieces, give each one its own matrix
+	if (splitComponents) {
+	    int rowComponent[] = new int[matrixSize];
+	    circuitComponents = findComponents(matrixSize, rowComponent);
+	    if (circuitComponents != null) {
+		makeComponentMatrices(matrixSize, rowComponent);
+		return true;
+	    }
+	}
+
+	// make the new, simplified matrix.  use sparse storage if it's big enough to be worth it
 	int newsize = nn;
-	double newmatx[][] = new double[newsize][newsize];
-	double newrs  []   = new double[newsize];
+	useSparseMatrix = (matrixSolverMode == MATRIX_SOLVER_SPARSE ||
+			   (matrixSolverMode == MATRIX_SOLVER_AUTO && newsize >= SPARSE_MATRIX_MIN_SIZE));
+
+	// if only a few rows are nonlinear, partition the matrix so we can factor the rest once.
+	// this needs sparse storage.
+	circuitSchurSolver = null;
+	if (circuitNonLinear && matrixSolverMode != MATRIX_SOLVER_DENSE && newsize >= SCHUR_MIN_SIZE) {
+	    int nonLinearCount = 0;
+	    for (i = 0; i != matrixSize; i++)
+		if (!ri.dropRow[i] && ri.lsChanges[i])
+		    nonLinearCount++;
+	    if (nonLinearCount*SCHUR_MIN_RATIO <= newsize) {
+		circuitSchurSolver = new SchurSolver();
+		useSparseMatrix = true;
+	    }
+	}
+	ws.startSimplified(newsize, useSparseMatrix);
+	double newmatx[][] = null;
+	SparseMatrix newsparse = null;
+	if (useSparseMatrix)
+	    newsparse = ws.sparseMatrix;
+	else
+	    newmatx = ws.matrix;
+	double newrs  []   = ws.rightSide;
 	int ii = 0;
 	for (i = 0; i != matrixSize; i++) {
-	    RowInfo rri = circuitRowInfo[i];
-	    if (rri.dropRow) {
-		rri.mapRow = -1;
+	    if (ri.dropRow[i]) {
+		ri.mapRow[i] = -1;
 		continue;
 	    }
 	    newrs[ii] = circuitRightSide[i];
-	    rri.mapRow = ii;
+	    ri.mapRow[i] = ii;
 	    //System.out.println("Row " + i + " maps to " + ii);
-	    for (j = 0; j != matrixSize; j++) {
-		RowInfo ri = circuitRowInfo[j];
-		if (ri.type == RowInfo.ROW_CONST)
-		    newrs[ii] -= ri.value*circuitMatrix[i][j];
+	    int cols[] = mat.rowColumns[i];
+	    double vals[] = mat.rowValues[i];
+	    for (j = 0; j != mat.rowLength[i]; j++) {
+		int c = cols[j];
+		if (ri.type[c] == RowInfo.ROW_CONST)
+		    newrs[ii] -= ri.value[c]*vals[j];
+		else if (useSparseMatrix)
+		    newsparse.add(ii, ri.mapCol[c], vals[j]);
 		else
-		    newmatx[ii][ri.mapCol] += circuitMatrix[i][j];
+		    newmatx[ii][ri.mapCol[c]] += vals[j];
 	    }
 	    ii++;
 	}
 
 //	console("old size = " + matrixSize + " new size = " + newsize);
 	
-	circuitMatrix = newmatx;
 	circuitRightSide = newrs;
 	matrixSize = circuitMatrixSize = newsize;
 	for (i = 0; i != matrixSize; i++)
 	    origRightSide[i] = circuitRightSide[i];
+	if (useSparseMatrix) {
+	    circuitSparseMatrix = newsparse;
+	    origSparseMatrix = ws.origSparseMatrix;
+	    origSparseMatrix.copyFrom(newsparse);
+	    circuitSparseLU = createSparseLU(newsize);
+	    circuitDenseLU = null;
+	} else {
+	    circuitMatrix = newmatx;
+	    circuitDenseLU = ws.denseLU;
+	    origMatrix = ws.origMatrix;
+	    for (i = 0; i != matrixSize; i++)
+		System.arraycopy(circuitMatrix[i], 0, origMatrix[i], 0, matrixSize);
+	    circuitSparseMatrix = origSparseMatrix = null;
+	    circuitSparseLU = null;
+	}
+	changedMatrixRows = ws.changedRows;
+	matrixRowChanged = ws.rowChanged;
+	changedMatrixRowCount = 0;
+	circuitNeedsMap = true;
+	return true;
+    }
+    
+    // find the parts of the circuit that are only connected to each other through ground.  All
+    // the nodes and voltage sources of an element are in the same part, and so are any two rows
+    // with an entry in the stamped matrix.  Parts with nothing left to solve after
+    // simplification go in with the first one.  Fills in rowComponent (the component each row
+    // of the full matrix is in) and returns the components, or null if there's only one.
+    CircuitComponent[] findComponents(int matrixSize, int rowComponent[]) {
+	int i, j;
+	RowInfo ri = circuitRowInfo;
+	SparseMatrix mat = circuitSparseMatrix;
+	int parent[] = new int[matrixSize];
+	for (i = 0; i != matrixSize; i++)
+	    parent[i] = i;
+	int nodeCount = nodeList.size()-1;
+	int vs = 0;
+	int elmRow[] = new int[elmList.size()];
+	for (i = 0; i != elmList.size(); i++) {
+	    CircuitElm ce = getElm(i);
+	    int row = -1;
+	    for (j = 0; j != ce.getPostCount()+ce.getInternalNodeCount(); j++) {
+		int n = ce.getNode(j);
+		if (n > 0)
+		    row = joinRows(parent, row, n-1);
+	    }
+	    // voltage sources are numbered in elmList order (see preStampCircuit())
+	    for (j = 0; j != ce.getVoltageSourceCount(); j++)
+		row = joinRows(parent, row, nodeCount + vs++);
+	    elmRow[i] = row;
+	}
+	for (i = 0; i != matrixSize; i++) {
+	    int cols[] = mat.rowColumns[i];
+	    for (j = 0; j != mat.rowLength[i]; j++)
+		joinRows(parent, i, cols[j]);
+	}
+
+	// number the parts.  each part's root is its first row, so we've always numbered it
+	// already
+	int part[] = new int[matrixSize];
+	int partCount = 0;
+	for (i = 0; i != matrixSize; i++) {
+	    int r = findRoot(parent, i);
+	    part[i] = (r == i) ? partCount++ : part[r];
+	}
+	int unknowns[] = new int[partCount];
+	for (i = 0; i != matrixSize; i++)
+	    if (ri.type[i] == RowInfo.ROW_NORMAL)
+		unknowns[part[i]]++;
+	int partComponent[] = new int[partCount];
+	int count = 0;
+	for (i = 0; i != partCount; i++)
+	    partComponent[i] = (unknowns[i] > 0) ? count++ : 0;
+	if (count < 2)
+	    return null;
+
+	// sort the rows and elements into components
+	int sizes[] = new int[count];
+	int rowCounts[] = new int[count];
+	int elmCounts[] = new int[count];
+	int nonLinearRows[] = new int[count];
+	boolean nonLinear[] = new boolean[count];
+	boolean hasLogic[] = new boolean[count];
+	boolean logicRows[] = (logicSimulator == null) ? null : logicSimulator.isLogicRow;
+	for (i = 0; i != matrixSize; i++) {
+	    int c = rowComponent[i] = partComponent[part[i]];
+	    if (ri.type[i] == RowInfo.ROW_NORMAL)
+		sizes[c]++;
+	    if (!ri.dropRow[i] && ri.lsChanges[i])
+		nonLinearRows[c]++;
+	    if (logicRows == null || !logicRows[i])
+		rowCounts[c]++;
+	}
+	int elmComponent[] = new int[elmList.size()];
+	for (i = 0; i != elmList.size(); i++) {
+	    CircuitElm ce = getElm(i);
+	    int c = elmComponent[i] = (elmRow[i] < 0) ? 0 : rowComponent[elmRow[i]];
+	    if (ce.nonLinear())
+		nonLinear[c] = true;
+	    // gates in a part with nothing to solve don't affect the matrix
+	    if (LogicSimulator.isLogicElm(ce) && elmRow[i] >= 0 && unknowns[part[elmRow[i]]] > 0)
+		hasLogic[c] = true;
+	    if (logicSimulator == null || !logicSimulator.isLogicElm[i])
+		elmCounts[c]++;
+	}
+
+	CircuitComponent comps[] = new CircuitComponent[count];
+	for (i = 0; i != count; i++) {
+	    int n = sizes[i];
+	    boolean sparse = (matrixSolverMode == MATRIX_SOLVER_SPARSE ||
+			      (matrixSolverMode == MATRIX_SOLVER_AUTO && n >= SPARSE_MATRIX_MIN_SIZE));
+	    // same test as simplifyMatrix() for partitioning the matrix
+	    boolean schur = nonLinear[i] && matrixSolverMode != MATRIX_SOLVER_DENSE && n >= SCHUR_MIN_SIZE &&
+		nonLinearRows[i]*SCHUR_MIN_RATIO <= n;
+	    CircuitComponent c = comps[i] = new CircuitComponent(this, n, sparse || schur);
+	    if (schur)
+		c.schurSolver = new SchurSolver();
+	    c.nonLinear = nonLinear[i];
+	    c.hasLogic = hasLogic[i];
+	    c.rows = new int[rowCounts[i]];
+	    c.elms = new CircuitElm[elmCounts[i]];
+	    rowCounts[i] = elmCounts[i] = 0;
+	}
 	for (i = 0; i != matrixSize; i++)
+	    if (logicRows == null || !logicRows[i]) {
+		int c = rowComponent[i];
+		comps[c].rows[rowCounts[c]++] = i;
+	    }
+	for (i = 0; i != elmList.size(); i++)
+	    if (logicSimulator == null || !logicSimulator.isLogicElm[i]) {
+		int c = elmComponent[i];
+		comps[c].elms[elmCounts[c]++] = getElm(i);
+	    }
+	return comps;
+    }
+
+    // put rows a and b in the same part (see findComponents()), and return the part's root.
+    // if a is -1, just return b's root
+    static int joinRows(int parent[], int a, int b) {
+	int rb = findRoot(parent, b);
+	if (a < 0)
+	    return rb;
+	int ra = findRoot(parent, a);
+	// keep the lowest row as the root
+	if (ra < rb) {
+	    parent[rb] = ra;
+	    return ra;
+	}
+	parent[ra] = rb;
+	return rb;
+    }
+
+    static int findRoot(int parent[], int i) {
+	while (parent[i] != i) {
+	    parent[i] = parent[parent[i]];
+	    i = parent[i];
+	}
+	return i;
+    }
+
+    // make a simplified matrix for each of circuitComponents, the same way simplifyMatrix() does
+    // for the whole circuit.  mapRow and mapCol give the row and column in the component's matrix
+    void makeComponentMatrices(int matrixSize, int rowComponent[]) {
+	int i, j;
+	CircuitComponent comps[] = circuitComponents;
+	SparseMatrix mat = circuitSparseMatrix;
+	RowInfo ri = circuitRowInfo;
+	int rowCount[] = new int[comps.length];
+	int colCount[] = new int[comps.length];
+	for (i = 0; i != matrixSize; i++) {
+	    int c = rowComponent[i];
+	    ri.mapRow[i] = ri.dropRow[i] ? -1 : rowCount[c]++;
+	    ri.mapCol[i] = (ri.type[i] == RowInfo.ROW_NORMAL) ? colCount[c]++ : -1;
+	}
+	for (i = 0; i != matrixSize; i++) {
+	    if (ri.dropRow[i])
+		continue;
+	    CircuitComponent c = comps[rowComponent[i]];
+	    int ii = ri.mapRow[i];
+	    c.rightSide[ii] = circuitRightSide[i];
+	    int cols[] = mat.rowColumns[i];
+	    double vals[] = mat.rowValues[i];
+	    for (j = 0; j != mat.rowLength[i]; j++) {
+		int col = cols[j];
+		if (ri.type[col] == RowInfo.ROW_CONST)
+		    c.rightSide[ii] -= ri.value[col]*vals[j];
+		else if (c.useSparseMatrix)
+		    c.sparseMatrix.add(ii, ri.mapCol[col], vals[j]);
+		else
+		    c.matrix[ii][ri.mapCol[col]] += vals[j];
+	    }
+	}
+	for (i = 0; i != comps.length; i++) {
+	    CircuitComponent c = comps[i];
+	    c.saveOriginal();
+	    if (c.schurSolver == null)
+		continue;
+	    boolean nonLinear[] = new boolean[c.matrixSize];
 	    for (j = 0; j != matrixSize; j++)
-		origMatrix[i][j] = circuitMatrix[i][j];
+		if (rowComponent[j] == i && ri.mapRow[j] >= 0 && ri.lsChanges[j])
+		    nonLinear[ri.mapRow[j]] = true;
+	    c.setupSchurSolver(nonLinear);
+	}
+	if (activeComponents == null || activeComponents.length < comps.length)
+	    activeComponents = new CircuitComponent[comps.length];
+	circuitSchurSolver = null;
+	comps[0].load(this);
 	circuitNeedsMap = true;
+    }
+
+    // factor the linear part of the matrix for circuitSchurSolver
+    void setupSchurSolver() {
+	int i;
+	boolean nonLinear[] = new boolean[circuitMatrixSize];
+	RowInfo ri = circuitRowInfo;
+	for (i = 0; i != circuitMatrixFullSize; i++) {
+	    if (ri.mapRow[i] >= 0 && ri.lsChanges[i])
+		nonLinear[ri.mapRow[i]] = true;
+	}
+	// if the linear part is singular by itself, or we had to move too many rows out of
+	// it to fix that, just factor the whole thing every time
+	if (!circuitSchurSolver.init(origSparseMatrix, nonLinear) ||
+	    circuitSchurSolver.nonLinearCount*SCHUR_MIN_RATIO > circuitMatrixSize)
+	    circuitSchurSolver = null;
+    }
+
+    // Changing a value of an element (from a slider or the edit dialog) normally means analyzing
+    // and stamping the whole circuit again.  If the change doesn't affect the topology, we can
+    // just subtract the element's old stamp from the matrix and add the new one.
+    // Call startElementRestamp() before changing the value.  If it returns true, call
+    // finishElementRestamp() afterward, otherwise call needAnalyze() as usual.
+    SparseMatrix restampOldMatrix;
+    double restampOldRightSide[];
+
+    boolean startElementRestamp(CircuitElm ce) {
+	if (analyzeFlag || needsStamp || dcAnalysisFlag || stopMessage != null || !circuitNeedsMap ||
+	    (circuitMatrix == null && circuitSparseMatrix == null) || circuitComponents != null)
+	    return false;
+	if (ce.getVoltageSourceCount() > 0)
+	    return false;
+	// if the element stamps a row that simplifyMatrix() removed, we have to simplify again
+	int i;
+	for (i = 0; i != ce.getPostCount()+ce.getInternalNodeCount(); i++) {
+	    int n = ce.getNode(i);
+	    if (n > 0 && circuitRowInfo.dropRow[n-1])
+		return false;
+	}
+	restampOldRightSide = new double[circuitMatrixSize];
+	restampOldMatrix = stampElementAlone(ce, restampOldRightSide);
 	return true;
     }
+
+    void finishElementRestamp(CircuitElm ce) {
+	double rs[] = new double[circuitMatrixSize];
+	SparseMatrix newStamp = stampElementAlone(ce, rs);
+	addElementStamp(restampOldMatrix, -1);
+	addElementStamp(newStamp, 1);
+	int i;
+	for (i = 0; i != circuitMatrixSize; i++)
+	    origRightSide[i] += rs[i]-restampOldRightSide[i];
+	restampOldMatrix = null;
+	restampOldRightSide = null;
+	matrixCache.clear();
+
+	if (circuitNonLinear) {
+	    if (circuitLowRankUpdate != null)
+		circuitLowRankUpdate.reset();
+	    // the rows we changed will be copied from origMatrix in the next subiteration.
+	    // the linear part of the matrix may have changed, so refactor it
+	    if (circuitSchurSolver != null)
+		setupSchurSolver();
+	    return;
+	}
+	if (useSparseMatrix)
+	    circuitSparseMatrix.copyValues(origSparseMatrix);
+	else {
+	    int j;
+	    for (i = 0; i != circuitMatrixSize; i++)
+		for (j = 0; j != circuitMatrixSize; j++)
+		    circuitMatrix[i][j] = origMatrix[i][j];
+	}
+	if (!factorCircuitMatrix())
+	    stop("Singular matrix!", null);
+    }
+
+    // stamp a single element into a separate matrix and right side, to find its contribution
+    SparseMatrix stampElementAlone(CircuitElm ce, double rs[]) {
+	double saveMatrix[][] = circuitMatrix;
+	SparseMatrix saveSparseMatrix = circuitSparseMatrix;
+	double saveRightSide[] = circuitRightSide;
+	SchurSolver saveSchurSolver = circuitSchurSolver;
+	SparseMatrix m = new SparseMatrix(circuitMatrixSize);
+	circuitMatrix = null;
+	circuitSparseMatrix = m;
+	circuitRightSide = rs;
+	circuitSchurSolver = null;
+	ce.stamp();
+	circuitMatrix = saveMatrix;
+	circuitSparseMatrix = saveSparseMatrix;
+	circuitRightSide = saveRightSide;
+	circuitSchurSolver = saveSchurSolver;
+	return m;
+    }
+
+    // add mult times the entries of m to origMatrix
+    void addElementStamp(SparseMatrix m, double mult) {
+	int i, j;
+	for (i = 0; i != m.size; i++) {
+	    // make sure runCircuit() copies the row to circuitMatrix
+	    if (m.rowLength[i] > 0 && !matrixRowChanged[i]) {
+		matrixRowChanged[i] = true;
+		changedMatrixRows[changedMatrixRowCount++] = i;
+	    }
+	    int cols[] = m.rowColumns[i];
+	    double vals[] = m.rowValues[i];
+	    for (j = 0; j != m.rowLength[i]; j++) {
+		if (useSparseMatrix) {
+		    origSparseMatrix.add(i, cols[j], mult*vals[j]);
+		    // keep circuitSparseMatrix's pattern a superset of origSparseMatrix's
+		    circuitSparseMatrix.findOrInsert(i, cols[j]);
+		} else
+		    origMatrix[i][cols[j]] += mult*vals[j];
+	    }
+	}
+    }
+
+    // factor circuitMatrix (or circuitSparseMatrix) so we can solve it
+    boolean factorCircuitMatrix() {
+	if (circuitSchurSolver != null)
+	    return circuitSchurSolver.factor(circuitSparseMatrix);
+	if (useSparseMatrix)
+	    return circuitSparseLU.factor(circuitSparseMatrix);
+	return circuitDenseLU.factor(circuitMatrix, circuitMatrixSize);
+    }
+
+    // factor the matrix in a nonlinear subiteration.  If only a few rows changed since the last
+    // time we factored it, just set up a low-rank update of the old factors.
+    boolean factorChangedMatrix() {
+	LowRankUpdate lru = circuitLowRankUpdate;
+	if (lru != null && lru.update(changedMatrixRows, changedMatrixRowCount))
+	    return true;
+	if (!factorCircuitMatrix())
+	    return false;
+	if (lru != null)
+	    lru.setBase(changedMatrixRows, changedMatrixRowCount);
+	return true;
+    }
+
+    // solve the factored matrix; b is replaced with the solution.  returns false if the matrix
+    // is singular
+    boolean solveCircuitMatrix(double b[]) {
+	LowRankUpdate lru = circuitLowRankUpdate;
+	if (lru != null && lru.rank > 0) {
+	    if (lru.solve(b))
+		return true;
+	    // the update wasn't accurate enough, so factor the matrix after all
+	    if (!factorCircuitMatrix())
+		return false;
+	    lru.setBase(changedMatrixRows, changedMatrixRowCount);
+	}
+	solveFactoredMatrix(b);
+	return true;
+    }
+
+    // solve using the factors from factorCircuitMatrix(), without any low-rank update
+    void solveFactoredMatrix(double b[]) {
+	if (circuitSchurSolver != null)
+	    circuitSchurSolver.solve(circuitSparseMatrix, b);
+	else if (useSparseMatrix)
+	    circuitSparseLU.solve(b);
+	else
+	    circuitDenseLU.solve(b);
+    }
+
+    // get row i of circuitMatrix (or origMatrix if orig is true) as a dense array
+    void getMatrixRow(int i, boolean orig, double row[]) {
+	if (!useSparseMatrix) {
+	    System.arraycopy(orig ? origMatrix[i] : circuitMatrix[i], 0, row, 0, circuitMatrixSize);
+	    return;
+	}
+	SparseMatrix m = orig ? origSparseMatrix : circuitSparseMatrix;
+	int j;
+	for (j = 0; j != circuitMatrixSize; j++)
+	    row[j] = 0;
+	int cols[] = m.rowColumns[i];
+	double vals[] = m.rowValues[i];
+	for (j = 0; j != m.rowLength[i]; j++)
+	    row[cols[j]] = vals[j];
+    }
+
+    double getCircuitMatrixValue(int i, int j) {
+	if (useSparseMatrix)
+	    return circuitSparseMatrix.get(i, j);
+	return circuitMatrix[i][j];
+    }
+
+    // how many times nonlinear devices have evaluated their models ([0]) and bypassed them ([1])
+    // since they were created
+    long[] getBypassCounts() {
+	long counts[] = new long[2];
+	int i;
+	for (i = 0; i != elmList.size(); i++)
+	    getElm(i).getBypassCounts(counts);
+	return counts;
+    }
+
+    // matrix size and storage, for developer mode
+    String getMatrixInfo() {
+	if (circuitComponents != null) {
+	    String s = circuitComponents.length + " components:";
+	    int i;
+	    for (i = 0; i != circuitComponents.length; i++) {
+		if (i == 8) {
+		    s += " ...";
+		    break;
+		}
+		CircuitComponent c = circuitComponents[i];
+		s += " " + c.matrixSize + "x" + c.matrixSize + (c.useSparseMatrix ? " sparse" : " dense") +
+		    (c.schurSolver != null ? " partitioned" : "");
+	    }
+	    return s;
+	}
+	String s = circuitMatrixSize + "x" + circuitMatrixSize;
+	if (!useSparseMatrix)
+	    s += " dense";
+	else {
+	    s += " sparse, nonzeros " + circuitSparseMatrix.nonZeroCount();
+	    SparseLU lu = circuitSparseLU;
+	    if (circuitSchurSolver != null) {
+		// the whole matrix isn't factored, only the linear block and the Schur complement
+		SchurSolver ss = circuitSchurSolver;
+		s += ", partitioned " + ss.linearCount + "+" + ss.nonLinearCount;
+		lu = ss.schurLU;
+	    }
+	    if (lu.factorNonZeroCount > 0)
+		s += ", LU nonzeros " + lu.factorNonZeroCount + ", fill-in " + lu.getFillIn() +
+		    ", analyzed " + lu.analyzeCount + ", pivoted " + lu.pivotingFactorCount + ", refactored " + lu.refactorCount;
+	}
+	LowRankUpdate lru = circuitLowRankUpdate;
+	if (lru != null)
+	    s += ", low-rank updates " + lru.updateCount + ", factored " + lru.factorCount +
+		", rejected " + lru.rejectCount;
+	if (adjustTimeStep)
+	    s += ", time step cache hits " + matrixCache.hitCount + ", misses " + matrixCache.missCount;
+	return s;
+    }
     
     // make list of posts we need to draw.  posts shared by 2 elements should be hidden, all
     // others should be drawn.  We can't use the node list for this purpose anymore because wires
@@ -2871,6 +3667,10 @@ MouseOutHandler, MouseWheelHandler {
     void stop(String s, CircuitElm ce) {
 	stopMessage = Locale.LS(s);
 	circuitMatrix = null;  // causes an exception
+	circuitSparseMatrix = null;
+	circuitSchurSolver = null;
+	circuitLowRankUpdate = null;
+	matrixCache.clear();
 	stopElm = ce;
 	setSimRunning(false);
 	analyzeFlag = false;
@@ -2957,31 +3757,45 @@ MouseOutHandler, MouseWheelHandler {
     void stampMatrix(int i, int j, double x) {
 	if (Double.isInfinite(x))
 	    debugger();
+	if (ignoreStamps)
+	    return;
 	if (i > 0 && j > 0) {
 	    if (circuitNeedsMap) {
-		i = circuitRowInfo[i-1].mapRow;
-		RowInfo ri = circuitRowInfo[j-1];
-		if (ri.type == RowInfo.ROW_CONST) {
+		RowInfo ri = circuitRowInfo;
+		i = ri.mapRow[i-1];
+		if (ri.type[j-1] == RowInfo.ROW_CONST) {
 		    //System.out.println("Stamping constant " + i + " " + j + " " + x);
-		    circuitRightSide[i] -= x*ri.value;
+		    circuitRightSide[i] -= x*ri.value[j-1];
 		    return;
 		}
-		j = ri.mapCol;
+		j = ri.mapCol[j-1];
 		//System.out.println("stamping " + i + " " + j + " " + x);
+		if (!matrixRowChanged[i]) {
+		    matrixRowChanged[i] = true;
+		    changedMatrixRows[changedMatrixRowCount++] = i;
+		    if (circuitSchurSolver != null && !circuitSchurSolver.nonLinearRow[i]) {
+			// an element changed a row that wasn't marked with stampNonLinear(), so the linear
+			// part of the matrix isn't constant after all.  go back to factoring the whole thing.
+			circuitSchurSolver = null;
+		    }
+		}
 	    } else {
 		i--;
 		j--;
 	    }
-	    circuitMatrix[i][j] += x;
+	    if (circuitMatrix != null)
+		circuitMatrix[i][j] += x;
+	    else
+		circuitSparseMatrix.add(i, j, x);
 	}
     }
 
     // stamp value x on the right side of row i, representing an
     // independent current source flowing into node i
     void stampRightSide(int i, double x) {
-	if (i > 0) {
+	if (i > 0 && !ignoreStamps) {
 	    if (circuitNeedsMap) {
-		i = circuitRowInfo[i-1].mapRow;
+		i = circuitRowInfo.mapRow[i-1];
 		//System.out.println("stamping " + i + " " + x);
 	    } else
 		i--;
@@ -2993,13 +3807,13 @@ MouseOutHandler, MouseWheelHandler {
     void stampRightSide(int i) {
 	//System.out.println("rschanges true " + (i-1));
 	if (i > 0)
-	    circuitRowInfo[i-1].rsChanges = true;
+	    circuitRowInfo.rsChanges[i-1] = true;
     }
     
     // indicate that the values on the left side of row i change in doStep()
     void stampNonLinear(int i) {
 	if (i > 0)
-	    circuitRowInfo[i-1].lsChanges = true;
+	    circuitRowInfo.lsChanges[i-1] = true;
     }
 
     double getIterCount() {
@@ -3019,7 +3833,8 @@ MouseOutHandler, MouseWheelHandler {
 	    if (scopes[i].viewingWire())
 		return false;
 	for (i=0; i != elmList.size(); i++)
-	    if (getElm(i) instanceof ScopeElm && ((ScopeElm)getElm(i)).elmScope.viewingWire())
+	    if (getElm(i) instanceof ScopeElm && ((ScopeElm)getElm(i)).elmScope != null &&
+		((ScopeElm)getElm(i)).elmScope.viewingWire())
 		return false;
 	return true;
     }
@@ -3028,8 +3843,9 @@ MouseOutHandler, MouseWheelHandler {
     int subIterations;
     
     void runCircuit(boolean didAnalyze) {
-	if (circuitMatrix == null || elmList.size() == 0) {
+	if ((circuitMatrix == null && circuitSparseMatrix == null) || elmList.size() == 0) {
 	    circuitMatrix = null;
+	    circuitSparseMatrix = null;
 	    return;
 	}
 	int iter;
@@ -3059,17 +3875,49 @@ MouseOutHandler, MouseWheelHandler {
 	int frameTimeLimit = (int) (1000/minFrameRate);
 	
 	for (iter = 1; ; iter++) {
-	    if (goodIterations >= 3 && timeStep < maxTimeStep) {
+	    boolean useLte = lteTimeStep && adjustTimeStep && !fixedTimeStep && !dcAnalysisFlag;
+	    if (timeStepAfterBreakpoint > 0) {
+		// the last step was shortened to land on a breakpoint, so go back to the one we were using
+		double oldTimeStep = timeStep;
+		timeStep = timeStepAfterBreakpoint;
+		timeStepAfterBreakpoint = 0;
+		stampCircuitForTimeStep(oldTimeStep);
+	    } else if (useLte && lteNextTimeStep > 0 && lteNextTimeStep != timeStep) {
+		// the error estimate for the last step picked a new one
+		double oldTimeStep = timeStep;
+		timeStep = lteNextTimeStep;
+		console("timestep now " + timeStep + " at " + t);
+		stampCircuitForTimeStep(oldTimeStep);
+	    } else if (!useLte && goodIterations >= 3 && timeStep < maxTimeStep) {
 		// things are going well, double the time step
+		double oldTimeStep = timeStep;
 		timeStep = Math.min(timeStep*2, maxTimeStep);
 		console("timestep up = " + timeStep + " at " + t);
-		stampCircuit();
+		stampCircuitForTimeStep(oldTimeStep);
 		goodIterations = 0;
+	    } else if (!useLte && timeStep > maxTimeStep) {
+		// error control was just turned off
+		double oldTimeStep = timeStep;
+		timeStep = maxTimeStep;
+		stampCircuitForTimeStep(oldTimeStep);
+	    }
+
+	    // if something has an edge during this step, shorten the step so it ends there.  The
+	    // shortened step can be any length, so it needs a restamp and refactor, but we don't
+	    // let it push the matrices for the steps we normally use out of matrixCache
+	    double breakpoint = (adjustTimeStep && !dcAnalysisFlag) ? getNextBreakpoint() : Double.POSITIVE_INFINITY;
+	    double normalTimeStep = timeStep;
+	    boolean landing = (breakpoint-t >= minTimeStep && breakpoint-t <= timeStep);
+	    if (landing && breakpoint-t != timeStep) {
+		timeStep = breakpoint-t;
+		stampCircuitForTimeStep(normalTimeStep);
+		offGridTimeStep = (matrixCache.find(timeStep) == null);
 	    }
 	    
 	    int i, j, subiter;
 	    for (i = 0; i != elmArr.length; i++)
 		elmArr[i].startIteration();
+	    predictNodeVoltages();
 	    steps++;
 	    int subiterCount = (adjustTimeStep && timeStep/2 > minTimeStep) ? 100 : 5000;
 	    for (subiter = 0; subiter != subiterCount; subiter++) {
@@ -3077,15 +3925,31 @@ MouseOutHandler, MouseWheelHandler {
 		subIterations = subiter;
 //		if (t % .030 < .002 && timeStep > 1e-6)  // force nonconvergence for debugging
 //		    converged = false;
+		if (circuitComponents != null) {
+		    boolean done = runComponentSubiteration(subiter);
+		    if (stopMessage != null)
+			return;
+		    if (done)
+			break;
+		    continue;
+		}
 		for (i = 0; i != circuitMatrixSize; i++)
 		    circuitRightSide[i] = origRightSide[i];
-		if (circuitNonLinear) {
-		    for (i = 0; i != circuitMatrixSize; i++)
-			for (j = 0; j != circuitMatrixSize; j++)
-			    circuitMatrix[i][j] = origMatrix[i][j];
+		// restore only the matrix rows that doStep() changed last time
+		for (i = 0; i != changedMatrixRowCount; i++) {
+		    int row = changedMatrixRows[i];
+		    matrixRowChanged[row] = false;
+		    if (!circuitNonLinear)
+			continue;
+		    if (useSparseMatrix)
+			circuitSparseMatrix.copyRowValues(origSparseMatrix, row);
+		    else
+			System.arraycopy(origMatrix[row], 0, circuitMatrix[row], 0, circuitMatrixSize);
 		}
-		for (i = 0; i != elmArr.length; i++)
-		    elmArr[i].doStep();
+		changedMatrixRowCount = 0;
+		if (logicSimulator != null)
+		    logicSimulator.step();
+		stepElements(stepElmArr);
 		if (stopMessage != null)
 		    return;
 		boolean printit = debugprint;
@@ -3094,7 +3958,7 @@ MouseOutHandler, MouseWheelHandler {
 		    // we only need this for debugging purposes, so skip it for large matrices 
 		    for (j = 0; j != circuitMatrixSize; j++) {
 			for (i = 0; i != circuitMatrixSize; i++) {
-			    double x = circuitMatrix[i][j];
+			    double x = getCircuitMatrixValue(i, j);
 			    if (Double.isNaN(x) || Double.isInfinite(x)) {
 				stop("nan/infinite matrix!", null);
 				console("circuitMatrix " + i + " " + j + " is " + x);
@@ -3107,7 +3971,7 @@ MouseOutHandler, MouseWheelHandler {
 		    for (j = 0; j != circuitMatrixSize; j++) {
 			String x = "";
 			for (i = 0; i != circuitMatrixSize; i++)
-			    x += circuitMatrix[j][i] + ",";
+			    x += getCircuitMatrixValue(j, i) + ",";
 			x += "\n";
 			console(x);
 		    }
@@ -3117,14 +3981,15 @@ MouseOutHandler, MouseWheelHandler {
 		    // stop if converged (elements check for convergence in doStep())
 		    if (converged && subiter > 0)
 			break;
-		    if (!lu_factor(circuitMatrix, circuitMatrixSize,
-				  circuitPermute)) {
+		    if (!factorChangedMatrix()) {
 			stop("Singular matrix!", null);
 			return;
 		    }
 		}
-		lu_solve(circuitMatrix, circuitMatrixSize, circuitPermute,
-			 circuitRightSide);
+		if (!solveCircuitMatrix(circuitRightSide)) {
+		    stop("Singular matrix!", null);
+		    return;
+		}
 		applySolvedRightSide(circuitRightSide);
 		if (!circuitNonLinear)
 		    break;
@@ -3132,6 +3997,8 @@ MouseOutHandler, MouseWheelHandler {
 	    if (subiter == subiterCount) {
 		// convergence failed
 		goodIterations = 0;
+		predictor.stepFailed();
+		double oldTimeStep = timeStep;
 		if (adjustTimeStep) {
 		    timeStep /= 2;
 		    console("timestep down to " + timeStep + " at " + t);
@@ -3142,24 +4009,53 @@ MouseOutHandler, MouseWheelHandler {
 		    break;
 		}
 		// we reduced the timestep.  reset circuit state to the way it was at start of iteration
-		setNodeVoltages(lastNodeVoltages);
-		stampCircuit();
+		rejectTimeStep();
+		stampCircuitForTimeStep(oldTimeStep);
 		continue;
 	    }
+	    if (useLte) {
+		double limit = getLteTimeStepLimit();
+		if (limit < timeStep && timeStep/2 >= minTimeStep) {
+		    // the error's too big, so try again with a smaller step
+		    double oldTimeStep = timeStep;
+		    timeStep = Math.min(quantizeTimeStep(limit), timeStep/2);
+		    console("timestep rejected, down to " + timeStep + " at " + t);
+		    rejectTimeStep();
+		    stampCircuitForTimeStep(oldTimeStep);
+		    lteNextTimeStep = 0;
+		    goodIterations = 0;
+		    continue;
+		}
+		lteNextTimeStep = quantizeTimeStep(Math.min(limit, timeStep*2));
+	    }
 	    if (subiter > 5 || timeStep < maxTimeStep)
 		console("converged after " + subiter + " iterations, timeStep = " + timeStep);
 	    if (subiter < 3)
 		goodIterations++;
 	    else
 		goodIterations = 0;
+	    predictor.stepDone(subiter);
 	    t += timeStep;
+	    if (landing)
+		t = breakpoint;
 	    timeStepAccum += timeStep;
-	    if (timeStepAccum >= maxTimeStep) {
+	    // time steps may be longer than maxTimeStep with lteTimeStep
+	    while (timeStepAccum >= maxTimeStep) {
 		timeStepAccum -= maxTimeStep;
 		timeStepCount++;
 	    }
 	    for (i = 0; i != elmArr.length; i++)
 		elmArr[i].stepFinished();
+	    if (landing) {
+		for (i = 0; i != elmArr.length; i++)
+		    elmArr[i].breakpointReached();
+		// things may change quickly after the edge, so with error-controlled steps, start
+		// again from maxTimeStep at most
+		if (useLte)
+		    lteNextTimeStep = Math.min(normalTimeStep, maxTimeStep);
+		else
+		    timeStepAfterBreakpoint = normalTimeStep;
+	    }
 	    if (!delayWireProcessing)
 		calcWireCurrents();
 	    for (i = 0; i != scopeCount; i++)
@@ -3168,6 +4064,10 @@ MouseOutHandler, MouseWheelHandler {
 		scopeElmArr[i].stepScope();
 	    callTimeStepHook();
 	    // save last node voltages so we can restart the next iteration if necessary
+	    if (landing)
+		predictor.restart();
+	    else
+		predictor.add(lastNodeVoltages, timeStep);
 	    for (i = 0; i != lastNodeVoltages.length; i++)
 		lastNodeVoltages[i] = nodeVoltages[i];
 //	    console("set lastrightside at " + t + " " + lastNodeVoltages);
@@ -3187,17 +4087,189 @@ MouseOutHandler, MouseWheelHandler {
 //	System.out.println((System.currentTimeMillis()-lastFrameTime)/(double) iter);
     }
 
+    // with newtonPredictor, give the elements that want it (nonlinear devices, see
+    // CircuitElm.usePredictedVoltages()) a guess at the node voltages at the end of this step,
+    // so their first subiteration starts closer to the solution.  Only their own copies of the
+    // voltages change; the first solve overwrites them.  Newton may still end up somewhere
+    // else within its tolerance than it would have from the last step's solution.  Call after
+    // startIteration(), which needs the voltages from the start of the step
+    void predictNodeVoltages() {
+	if (!newtonPredictor || !circuitNonLinear || dcAnalysisFlag || !predictor.startStep())
+	    return;
+	boolean logicRows[] = (logicSimulator == null) ? null : logicSimulator.isLogicRow;
+	int i, j;
+	for (i = 0; i != elmArr.length; i++) {
+	    CircuitElm ce = elmArr[i];
+	    if (!ce.usePredictedVoltages())
+		continue;
+	    int n = ce.getPostCount()+ce.getInternalNodeCount();
+	    for (j = 0; j != n; j++) {
+		int node = ce.getNode(j)-1;
+		if (node < 0 || (logicRows != null && logicRows[node]))
+		    continue;
+		ce.setNodeVoltage(j, predictor.predict(node, lastNodeVoltages[node], timeStep));
+	    }
+	}
+    }
+
+    // the earliest breakpoint of any element (see CircuitElm.getNextBreakpoint())
+    double getNextBreakpoint() {
+	double bp = Double.POSITIVE_INFINITY;
+	int i;
+	for (i = 0; i != elmArr.length; i++)
+	    bp = Math.min(bp, elmArr[i].getNextBreakpoint());
+	return bp;
+    }
+
+    // go back to the state at the start of the time step runCircuit() just tried
+    void rejectTimeStep() {
+	setNodeVoltages(lastNodeVoltages);
+	int i;
+	for (i = 0; i != elmArr.length; i++)
+	    elmArr[i].rejectStep();
+    }
+
+    // the largest time step that keeps the error of the step we just solved in tolerance for
+    // every element
+    double getLteTimeStepLimit() {
+	double limit = Double.POSITIVE_INFINITY;
+	int i;
+	for (i = 0; i != elmArr.length; i++)
+	    limit = Math.min(limit, elmArr[i].getMaxLteTimeStep());
+	return limit;
+    }
+
+    double getLteMaxTimeStep() {
+	return (lteMaxTimeStep > 0) ? lteMaxTimeStep : maxTimeStep*LTE_DEFAULT_MAX_RATIO;
+    }
+
+    // the largest maxTimeStep*2^n that's no bigger than ts, within minTimeStep and
+    // getLteMaxTimeStep()
+    double quantizeTimeStep(double ts) {
+	double q = maxTimeStep;
+	double max = getLteMaxTimeStep();
+	while (q > ts && q/2 >= minTimeStep)
+	    q /= 2;
+	while (q*2 <= ts && q*2 <= max)
+	    q *= 2;
+	return q;
+    }
+
+    // do one subiteration of runCircuit() for a circuit made of separate components.  Each
+    // component is solved until it converges (or just once, if it's linear), so a nonlinear one
+    // doesn't make us solve the others again.  But gates change their outputs a subiteration
+    // after their inputs, so components with gates in them keep going as long as the rest of
+    // the circuit does, which gives them the same timing as in one big matrix.  Returns true
+    // when every component is done.
+    boolean runComponentSubiteration(int subiter) {
+	CircuitComponent comps[] = circuitComponents;
+	int i;
+	if (logicSimulator != null)
+	    logicSimulator.step();
+	boolean allConverged = true;
+	for (i = 0; i != comps.length; i++) {
+	    CircuitComponent c = comps[i];
+	    if (subiter == 0)
+		c.done = false;
+	    else if (c.done && !c.hasLogic)
+		continue;
+	    c.restore();
+	    c.load(this);
+	    converged = true;
+	    stepElements(c.elms);
+	    c.save(this);
+	    if (stopMessage != null)
+		return true;
+	    // elements check for convergence in doStep()
+	    c.converged = converged;
+	    c.done = false;
+	    if (!converged)
+		allConverged = false;
+	}
+	int count = 0;
+	for (i = 0; i != comps.length; i++) {
+	    CircuitComponent c = comps[i];
+	    if (c.done)
+		continue;
+	    if (subiter > 0 && (c.hasLogic ? (circuitNonLinear && allConverged) : (c.nonLinear && c.converged)))
+		c.done = true;
+	    else
+		activeComponents[count++] = c;
+	}
+	if (count == 0)
+	    return true;
+	if (!solveComponents(activeComponents, count)) {
+	    stop("Singular matrix!", null);
+	    return true;
+	}
+	for (i = 0; i != count; i++) {
+	    CircuitComponent c = activeComponents[i];
+	    applyComponentSolution(c);
+	    if (c.hasLogic ? !circuitNonLinear : !c.nonLinear)
+		c.done = true;
+	}
+	if (logicSimulator != null)
+	    logicSimulator.show();
+	for (i = 0; i != comps.length; i++)
+	    if (!comps[i].done)
+		return false;
+	return true;
+    }
+
+    // factor (if necessary) and solve the matrices of the first count components in comps.
+    // returns false if one of them is singular
+    boolean solveComponents(CircuitComponent comps[], int count) {
+	int i;
+	for (i = 0; i != count; i++)
+	    if (!comps[i].factorAndSolve())
+		return false;
+	return true;
+    }
+
+    // same as applySolvedRightSide() for one component
+    void applyComponentSolution(CircuitComponent c) {
+	int i, k;
+	RowInfo ri = circuitRowInfo;
+	int nodeCount = nodeList.size()-1;
+	for (i = 0; i != c.rows.length; i++) {
+	    int j = c.rows[i];
+	    double res = (ri.type[j] == RowInfo.ROW_CONST) ? ri.value[j] : c.rightSide[ri.mapCol[j]];
+	    if (Double.isNaN(res))
+		break;
+	    if (j < nodeCount)
+		nodeVoltages[j] = res;
+	    else {
+		int ji = j-nodeCount;
+		voltageSources[ji].setCurrent(ji, res);
+	    }
+	}
+	for (i = 0; i != c.rows.length; i++) {
+	    int j = c.rows[i];
+	    if (j >= nodeCount)
+		continue;
+	    CircuitNode cn = getCircuitNode(j+1);
+	    for (k = 0; k != cn.links.size(); k++) {
+		CircuitNodeLink cnl = cn.links.elementAt(k);
+		cnl.elm.setNodeVoltage(cnl.num, nodeVoltages[j]);
+	    }
+	}
+    }
+
     // set node voltages given right side found by solving matrix
     void applySolvedRightSide(double rs[]) {
 //	console("setvoltages " + rs);
 	int j;
+	RowInfo ri = circuitRowInfo;
+	// logicSimulator takes care of its own rows
+	boolean logicRows[] = (logicSimulator == null) ? null : logicSimulator.isLogicRow;
 	for (j = 0; j != circuitMatrixFullSize; j++) {
-	    RowInfo ri = circuitRowInfo[j];
+	    if (logicRows != null && logicRows[j])
+		continue;
 	    double res = 0;
-	    if (ri.type == RowInfo.ROW_CONST)
-		res = ri.value;
+	    if (ri.type[j] == RowInfo.ROW_CONST)
+		res = ri.value[j];
 	    else
-		res = rs[ri.mapCol];
+		res = rs[ri.mapCol[j]];
 	    if (Double.isNaN(res)) {
 		converged = false;
 		break;
@@ -3210,13 +4282,27 @@ MouseOutHandler, MouseWheelHandler {
 	    }
 	}
 	
-	setNodeVoltages(nodeVoltages);
+	if (logicSimulator == null) {
+	    setNodeVoltages(nodeVoltages);
+	    return;
+	}
+	setNodeVoltages(nodeVoltages, logicRows);
+	logicSimulator.show();
     }
     
     // set node voltages in each element given an array of node voltages
     void setNodeVoltages(double nv[]) {
+	if (logicSimulator != null)
+	    logicSimulator.invalidate();
+	setNodeVoltages(nv, null);
+    }
+
+    // same, but skip the nodes whose entries in skip[] are set
+    void setNodeVoltages(double nv[], boolean skip[]) {
 	int j, k;
 	for (j = 0; j != nv.length; j++) {
+	    if (skip != null && skip[j])
+		continue;
 	    double res = nv[j];
 	    CircuitNode cn = getCircuitNode(j+1);
 	    for (k = 0; k != cn.links.size(); k++) {
@@ -3843,13 +4929,23 @@ MouseOutHandler, MouseWheelHandler {
 	f |= (showValuesCheckItem.getState()) ? 0 : 16;
 	// 32 = linear scale in afilter
 	f |= adjustTimeStep ? 64 : 0;
+	f |= lteTimeStep ? 128 : 0;
+	f |= gear2Integration ? 256 : 0;
+	f |= newtonPredictor ? 512 : 0;
 	String dump = "$ " + f + " " +
 	    maxTimeStep + " " + getIterCount() + " " +
 	    currentBar.getValue() + " " + CircuitElm.voltageRange + " " +
-	    powerBar.getValue() + " " + minTimeStep + "\n";
-	return dump;
+	    powerBar.getValue() + " " + minTimeStep;
+	// leave this off unless it's used, so circuits that don't use error control save the same
+	// way they always have
+	if (lteTimeStep || lteMaxTimeStep > 0)
+	    dump += " " + lteMaxTimeStep;
+	return dump + "\n";
     }
     
+    // called instead of creating a scope when we're running without a UI
+    void readHeadlessScope(StringTokenizer st) { }
+
     String dumpCircuit() {
 	int i;
 	CustomLogicModel.clearDumpedFlags();
@@ -4076,6 +5172,11 @@ MouseOutHandler, MouseWheelHandler {
 		    if (subs && tint != '.')
 			continue;
 		    if (tint == 'o') {
+			// scopes need a canvas
+			if (headless) {
+			    readHeadlessScope(st);
+			    break;
+			}
 			Scope sc = new Scope(this);
 			sc.position = scopeCount;
 			sc.undump(st);
@@ -4210,6 +5311,10 @@ MouseOutHandler, MouseWheelHandler {
 	powerCheckItem.setState((flags & 8) == 8);
 	showValuesCheckItem.setState((flags & 16) == 0);
 	adjustTimeStep = (flags & 64) != 0;
+	lteTimeStep = (flags & 128) != 0;
+	gear2Integration = (flags & 256) != 0;
+	newtonPredictor = (flags & 512) != 0;
+	lteMaxTimeStep = 0;
 	maxTimeStep = timeStep = new Double (st.nextToken()).doubleValue();
 	double sp = new Double(st.nextToken()).doubleValue();
 	int sp2 = (int) (Math.log(10*sp)*24+61.5);
@@ -4221,6 +5326,7 @@ MouseOutHandler, MouseWheelHandler {
 	try {
 	    powerBar.setValue(new Integer(st.nextToken()).intValue());
 	    minTimeStep = Double.parseDouble(st.nextToken());
+	    lteMaxTimeStep = Double.parseDouble(st.nextToken());
 	} catch (Exception e) {
 	}
 	setGrid();
@@ -5983,6 +7089,9 @@ MouseOutHandler, MouseWheelHandler {
     }
 
     public static CircuitElm constructElement(String n, int x1, int y1){
+    	// we compare n with == below, which works in javascript but only works on the JVM
+    	// (see HeadlessSim) if n is interned
+    	n = n.intern();
     	if (n=="GroundElm")
     		return (CircuitElm) new GroundElm(x1, y1);
     	if (n=="ResistorElm")
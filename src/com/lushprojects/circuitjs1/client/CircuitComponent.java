@@ -0,0 +1,167 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// A part of the circuit that's only connected to the rest of it through ground, if at all.
+// Files often have several separate circuits side by side, and there's no point in solving
+// them as one big matrix: factoring costs grow much faster than the size, and a nonlinear
+// circuit would make us solve all the linear ones again on every subiteration.  So
+// CirSim.simplifyMatrix() gives each component its own matrix, and runCircuit() solves each
+// one until it has converged (see CirSim.runComponentSubiteration()).
+//
+// Elements stamp into CirSim's circuitMatrix etc., so load() points those at our matrix before
+// our elements' doStep() is called, and save() gets back what stamping changed.  factor() and
+// solve() only use our own fields, so different components can be solved at the same time
+// (which is also why we don't use a LowRankUpdate here; it goes through CirSim).
+class CircuitComponent {
+    // rows of the full matrix (nodes and voltage sources) in this component, not counting the
+    // ones logicSimulator takes care of
+    int rows[];
+    // elements runCircuit() calls doStep() on
+    CircuitElm elms[];
+    // the matrix changes in doStep(), so we have to keep solving it until it converges
+    boolean nonLinear;
+    // has logic gates in it, so it keeps iterating as long as anything else does
+    boolean hasLogic;
+    // set when we're finished with this component for the current time step
+    boolean done;
+    boolean converged;
+
+    // the simplified matrix and its factors, as in CirSim
+    int matrixSize;
+    boolean useSparseMatrix;
+    double matrix[][], origMatrix[][];
+    DenseLU denseLU;
+    SparseMatrix sparseMatrix, origSparseMatrix;
+    SparseLU sparseLU;
+    SchurSolver schurSolver;
+    double rightSide[], origRightSide[];
+    int changedRows[];
+    boolean rowChanged[];
+    int changedRowCount;
+
+    CircuitComponent(CirSim sim, int n, boolean sparse) {
+	matrixSize = n;
+	useSparseMatrix = sparse;
+	if (sparse) {
+	    sparseMatrix = new SparseMatrix(n);
+	    origSparseMatrix = new SparseMatrix(n);
+	    sparseLU = sim.createSparseLU(n);
+	} else {
+	    matrix = new double[n][n];
+	    origMatrix = new double[n][n];
+	    denseLU = sim.createDenseLU(n);
+	}
+	rightSide = new double[n];
+	origRightSide = new double[n];
+	changedRows = new int[n];
+	rowChanged = new boolean[n];
+    }
+
+    // call after filling in matrix (or sparseMatrix) and rightSide
+    void saveOriginal() {
+	int i;
+	for (i = 0; i != matrixSize; i++)
+	    origRightSide[i] = rightSide[i];
+	if (useSparseMatrix) {
+	    origSparseMatrix.copyFrom(sparseMatrix);
+	    return;
+	}
+	for (i = 0; i != matrixSize; i++)
+	    System.arraycopy(matrix[i], 0, origMatrix[i], 0, matrixSize);
+    }
+
+    // if only a few rows are nonlinear, factor the rest once (see CirSim.setupSchurSolver())
+    void setupSchurSolver(boolean nonLinearRows[]) {
+	schurSolver = new SchurSolver();
+	if (!schurSolver.init(origSparseMatrix, nonLinearRows) ||
+	    schurSolver.nonLinearCount*CirSim.SCHUR_MIN_RATIO > matrixSize)
+	    schurSolver = null;
+    }
+
+    // make sim stamp into our matrix
+    void load(CirSim sim) {
+	sim.circuitMatrixSize = matrixSize;
+	sim.useSparseMatrix = useSparseMatrix;
+	sim.circuitMatrix = matrix;
+	sim.origMatrix = origMatrix;
+	sim.circuitDenseLU = denseLU;
+	sim.circuitSparseMatrix = sparseMatrix;
+	sim.origSparseMatrix = origSparseMatrix;
+	sim.circuitSparseLU = sparseLU;
+	sim.circuitSchurSolver = schurSolver;
+	sim.circuitRightSide = rightSide;
+	sim.origRightSide = origRightSide;
+	sim.changedMatrixRows = changedRows;
+	sim.matrixRowChanged = rowChanged;
+	sim.changedMatrixRowCount = changedRowCount;
+    }
+
+    // get back what stamping may have changed after load()
+    void save(CirSim sim) {
+	changedRowCount = sim.changedMatrixRowCount;
+	schurSolver = sim.circuitSchurSolver;
+    }
+
+    // get ready for a subiteration, like the start of each subiteration in CirSim.runCircuit()
+    void restore() {
+	int i;
+	for (i = 0; i != matrixSize; i++)
+	    rightSide[i] = origRightSide[i];
+	for (i = 0; i != changedRowCount; i++) {
+	    int row = changedRows[i];
+	    rowChanged[row] = false;
+	    if (!nonLinear)
+		continue;
+	    if (useSparseMatrix)
+		sparseMatrix.copyRowValues(origSparseMatrix, row);
+	    else
+		System.arraycopy(origMatrix[row], 0, matrix[row], 0, matrixSize);
+	}
+	changedRowCount = 0;
+    }
+
+    boolean factor() {
+	if (schurSolver != null)
+	    return schurSolver.factor(sparseMatrix);
+	if (useSparseMatrix)
+	    return sparseLU.factor(sparseMatrix);
+	return denseLU.factor(matrix, matrixSize);
+    }
+
+    // solve the factored matrix; b is replaced with the solution
+    void solve(double b[]) {
+	if (schurSolver != null)
+	    schurSolver.solve(sparseMatrix, b);
+	else if (useSparseMatrix)
+	    sparseLU.solve(b);
+	else
+	    denseLU.solve(b);
+    }
+
+    // factor the matrix if doStep() changed it, and solve for rightSide.  returns false if the
+    // matrix is singular
+    boolean factorAndSolve() {
+	if (nonLinear && !factor())
+	    return false;
+	solve(rightSide);
+	return true;
+    }
+}
@@ -1098,8 +1098,17 @@ public abstract class CircuitElm implements Editable {
     // is this a wire we can remove?
     boolean isRemovableWire() { return false; }
     
+    // does post n only look at the voltage there, without stamping anything?  if a node is
+    // driven by a logic element and everything else on it is like this, LogicSimulator can
+    // take the node out of the matrix.
+    boolean isHighImpedanceInput(int n) { return isRemovableWire(); }
+    
     boolean isIdealCapacitor() { return false; }
 
+    // does changing edit value n only change the values we stamp, and not the circuit topology?
+    // if so, the simulator can restamp just this element instead of analyzing the whole circuit.
+    boolean isValueOnlyEdit(int n) { return false; }
+
     boolean canViewInScope() { return getPostCount() <= 2; }
     boolean canFlipX() { return true; }
     boolean canFlipY() { return true; }
@@ -1164,6 +1173,39 @@ public abstract class CircuitElm implements Editable {
     
     void updateModels() {}
     void stepFinished() {}
+
+    // with error-controlled time steps, the largest time step that would keep this element's
+    // local truncation error in tolerance, judging by the step runCircuit() just solved (see
+    // IntegrationHistory).  Called before stepFinished()
+    double getMaxLteTimeStep() { return Double.POSITIVE_INFINITY; }
+
+    // runCircuit() is throwing away the time step it just solved to try a smaller one.  Go
+    // back to the state from before startIteration()
+    void rejectStep() {}
+
+    // true if the element only works with the usual time steps (because it takes a sample every
+    // maxTimeStep, say), so we can't use error-controlled time steps
+    boolean needsFixedTimeStep() { return false; }
+
+    // the next time after sim.t when this element's output jumps (or has a corner), or infinity.
+    // With adjustTimeStep, runCircuit() shortens the step that would cross it so it lands there
+    // instead of finding the edge by failing to converge.  Elements evaluate their output at the
+    // start of each step, so return a time just after the edge, where that sees the new value
+    double getNextBreakpoint() { return Double.POSITIVE_INFINITY; }
+
+    // runCircuit() just landed on a breakpoint, after calling stepFinished().  The waveforms may
+    // have a corner here, so forget anything that assumes they're smooth
+    void breakpointReached() {}
+
+    // for statistics: add the number of times doStep() evaluated a nonlinear device model to
+    // counts[0], and the number of times it bypassed that (see CirSim.deviceBypass) to counts[1].
+    // Each element keeps its own counts, so doStep() can run on several threads
+    void getBypassCounts(long counts[]) {}
+
+    // true if runCircuit() should set this element's node voltages to a prediction of where
+    // they'll end up before the first doStep() of each time step (see CirSim.newtonPredictor).
+    // Only worth it for nonlinear devices, and only if doStep() just linearizes around volts[]
+    boolean usePredictedVoltages() { return false; }
     
     // get current flowing into node n out of this element
     double getCurrentIntoNode(int n) {
@@ -0,0 +1,151 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// Keeps the stamped matrices (and their factors) for the last few time steps.  When
+// adjustTimeStep is on, runCircuit() halves the time step when it can't converge and doubles it
+// again when things settle down, and the circuit has to be restamped each time.  But the
+// matrices only depend on the time step, so if we've used it recently we can just switch back.
+class CircuitMatrixCache {
+    static class Entry {
+	double timeStep;
+	long lastUsed;
+	int matrixSize;
+	boolean useSparseMatrix;
+	double matrix[][], origMatrix[][];
+	DenseLU denseLU;
+	SparseMatrix sparseMatrix, origSparseMatrix;
+	SparseLU sparseLU;
+	SchurSolver schurSolver;
+	LowRankUpdate lowRankUpdate;
+	double rightSide[], origRightSide[];
+	RowInfo rowInfo;
+	int changedRows[];
+	boolean rowChanged[];
+	int changedRowCount;
+	// if the circuit was split into components, their matrices (the fields above are just
+	// whichever one was loaded last)
+	CircuitComponent components[];
+	// the buffers all of the above live in
+	MatrixWorkspace workspace;
+    }
+
+    Entry entries[];
+    int entryCount;
+    long useCount;
+    int hitCount, missCount;
+
+    CircuitMatrixCache(int size) {
+	entries = new Entry[size];
+    }
+
+    void clear() {
+	int i;
+	for (i = 0; i != entryCount; i++)
+	    entries[i] = null;
+	entryCount = 0;
+    }
+
+    Entry find(double timeStep) {
+	int i;
+	for (i = 0; i != entryCount; i++)
+	    if (entries[i].timeStep == timeStep)
+		return entries[i];
+	return null;
+    }
+
+    // is one of our entries using ws?
+    boolean usesWorkspace(MatrixWorkspace ws) {
+	int i;
+	for (i = 0; i != entryCount; i++)
+	    if (entries[i].workspace == ws)
+		return true;
+	return false;
+    }
+
+    // save sim's current matrices under time step ts, replacing the least recently used entry if
+    // the cache is full
+    void save(CirSim sim, double ts) {
+	Entry e = find(ts);
+	if (e == null) {
+	    if (entryCount < entries.length)
+		e = entries[entryCount++] = new Entry();
+	    else {
+		int i;
+		e = entries[0];
+		for (i = 1; i != entryCount; i++)
+		    if (entries[i].lastUsed < e.lastUsed)
+			e = entries[i];
+	    }
+	    e.timeStep = ts;
+	}
+	e.lastUsed = ++useCount;
+	e.matrixSize = sim.circuitMatrixSize;
+	e.useSparseMatrix = sim.useSparseMatrix;
+	e.matrix = sim.circuitMatrix;
+	e.origMatrix = sim.origMatrix;
+	e.denseLU = sim.circuitDenseLU;
+	e.sparseMatrix = sim.circuitSparseMatrix;
+	e.origSparseMatrix = sim.origSparseMatrix;
+	e.sparseLU = sim.circuitSparseLU;
+	e.schurSolver = sim.circuitSchurSolver;
+	e.lowRankUpdate = sim.circuitLowRankUpdate;
+	e.rightSide = sim.circuitRightSide;
+	e.origRightSide = sim.origRightSide;
+	e.rowInfo = sim.circuitRowInfo;
+	e.changedRows = sim.changedMatrixRows;
+	e.rowChanged = sim.matrixRowChanged;
+	e.changedRowCount = sim.changedMatrixRowCount;
+	e.components = sim.circuitComponents;
+	e.workspace = sim.circuitWorkspace;
+    }
+
+    // switch sim to the matrices saved for its current time step.  returns false if we don't
+    // have them
+    boolean restore(CirSim sim) {
+	Entry e = find(sim.timeStep);
+	if (e == null) {
+	    missCount++;
+	    return false;
+	}
+	hitCount++;
+	e.lastUsed = ++useCount;
+	sim.circuitMatrixSize = e.matrixSize;
+	sim.useSparseMatrix = e.useSparseMatrix;
+	sim.circuitMatrix = e.matrix;
+	sim.origMatrix = e.origMatrix;
+	sim.circuitDenseLU = e.denseLU;
+	sim.circuitSparseMatrix = e.sparseMatrix;
+	sim.origSparseMatrix = e.origSparseMatrix;
+	sim.circuitSparseLU = e.sparseLU;
+	sim.circuitSchurSolver = e.schurSolver;
+	sim.circuitLowRankUpdate = e.lowRankUpdate;
+	sim.circuitRightSide = e.rightSide;
+	sim.origRightSide = e.origRightSide;
+	sim.circuitRowInfo = e.rowInfo;
+	sim.changedMatrixRows = e.changedRows;
+	sim.matrixRowChanged = e.rowChanged;
+	sim.changedMatrixRowCount = e.changedRowCount;
+	sim.circuitComponents = e.components;
+	sim.circuitWorkspace = e.workspace;
+	sim.circuitNeedsMap = true;
+	return true;
+    }
+}
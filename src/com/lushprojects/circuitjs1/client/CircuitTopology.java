@@ -0,0 +1,211 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.util.Vector;
+
+// Answers the questions validateCircuit() asks (is there a path between two nodes that doesn't
+// go through a given element, using only certain kinds of elements) for all elements at once,
+// instead of doing a separate search for each one like FindPathInfo does.
+//
+// We build a graph with an edge for each connection through an element that the path can use,
+// and find its connected components and bridges (edges whose removal disconnects the graph) in
+// one depth first search.  There's a path around an element if both its nodes are in the same
+// component and, if the element is in the graph itself, its edge is not a bridge.
+class CircuitTopology {
+    int type;
+    boolean useInductors;
+    int nodeCount;
+
+    int edgeCount;
+    int edgeNode1[], edgeNode2[];
+
+    // edges added for each element, by index in the element list
+    int elmFirstEdge[], elmEdgeCount[];
+
+    int component[];
+    boolean bridge[];
+
+    // type is one of the FindPathInfo types.  For INDUCT paths, useInductors says whether to
+    // include inductors with no current (FindPathInfo only lets a path go through inductors with
+    // the same current as the first element).
+    CircuitTopology(int type_, boolean useInductors_, Vector<CircuitElm> elmList, int nodeCount_) {
+	type = type_;
+	useInductors = useInductors_;
+	nodeCount = nodeCount_;
+	edgeNode1 = new int[16];
+	edgeNode2 = new int[16];
+	int n = elmList.size();
+	elmFirstEdge = new int[n];
+	elmEdgeCount = new int[n];
+	int i, j, k;
+	for (i = 0; i != n; i++) {
+	    CircuitElm ce = elmList.get(i);
+	    elmFirstEdge[i] = edgeCount;
+	    if (!isPathElm(ce))
+		continue;
+	    int cn = ce.getConnectionNodeCount();
+	    for (j = 0; j != cn; j++) {
+		int nj = ce.getConnectionNode(j);
+		// posts which have a ground connection; our path can go through ground
+		if (ce.hasGroundConnection(j))
+		    addEdge(nj, 0);
+		for (k = j+1; k < cn; k++)
+		    if (ce.getConnection(j, k))
+			addEdge(nj, ce.getConnectionNode(k));
+	    }
+	    elmEdgeCount[i] = edgeCount-elmFirstEdge[i];
+	}
+	findBridges();
+    }
+
+    // can a path go through ce?  (same rules as FindPathInfo.checkElm())
+    boolean isPathElm(CircuitElm ce) {
+	switch (type) {
+	case CirSim.FindPathInfo.INDUCT:
+	    // inductors need a path free of current sources
+	    if (ce instanceof CurrentElm)
+		return false;
+	    if (ce instanceof InductorElm)
+		return useInductors && Math.abs(ce.getCurrent()) <= 1e-10;
+	    return true;
+	case CirSim.FindPathInfo.VOLTAGE:
+	    // when checking for voltage loops, we only care about voltage sources/wires/ground
+	    return ce.isWireEquivalent() || ce instanceof VoltageElm || ce instanceof GroundElm;
+	case CirSim.FindPathInfo.SHORT:
+	    return ce.isWireEquivalent();
+	case CirSim.FindPathInfo.CAP_V:
+	    return ce.isWireEquivalent() || ce.isIdealCapacitor() || ce instanceof VoltageElm;
+	}
+	return false;
+    }
+
+    void addEdge(int n1, int n2) {
+	// loops back to the same node don't matter
+	if (n1 == n2)
+	    return;
+	if (edgeCount == edgeNode1.length) {
+	    int a1[] = new int[edgeCount*2];
+	    int a2[] = new int[edgeCount*2];
+	    System.arraycopy(edgeNode1, 0, a1, 0, edgeCount);
+	    System.arraycopy(edgeNode2, 0, a2, 0, edgeCount);
+	    edgeNode1 = a1;
+	    edgeNode2 = a2;
+	}
+	edgeNode1[edgeCount] = n1;
+	edgeNode2[edgeCount] = n2;
+	edgeCount++;
+    }
+
+    // find connected components and bridges with a single (non-recursive) depth first search
+    void findBridges() {
+	int n = nodeCount;
+	int i;
+
+	// list of edges at each node
+	int adjStart[] = new int[n+1];
+	int adjEdge[] = new int[edgeCount*2];
+	for (i = 0; i != edgeCount; i++) {
+	    adjStart[edgeNode1[i]+1]++;
+	    adjStart[edgeNode2[i]+1]++;
+	}
+	for (i = 0; i != n; i++)
+	    adjStart[i+1] += adjStart[i];
+	int fill[] = new int[n];
+	for (i = 0; i != edgeCount; i++) {
+	    int n1 = edgeNode1[i], n2 = edgeNode2[i];
+	    adjEdge[adjStart[n1] + fill[n1]++] = i;
+	    adjEdge[adjStart[n2] + fill[n2]++] = i;
+	}
+
+	component = new int[n];
+	bridge = new boolean[edgeCount];
+	int disc[] = new int[n];
+	int low[] = new int[n];
+	int next[] = new int[n];
+	int stackNode[] = new int[n];
+	int stackEdge[] = new int[n];
+	for (i = 0; i != n; i++)
+	    disc[i] = -1;
+	int time = 0, compCount = 0;
+	int s;
+	for (s = 0; s != n; s++) {
+	    if (disc[s] >= 0)
+		continue;
+	    int sp = 0;
+	    disc[s] = low[s] = time++;
+	    component[s] = compCount;
+	    next[s] = adjStart[s];
+	    stackNode[sp] = s;
+	    stackEdge[sp++] = -1;
+	    while (sp > 0) {
+		int v = stackNode[sp-1];
+		if (next[v] < adjStart[v+1]) {
+		    int e = adjEdge[next[v]++];
+		    // don't go back the way we came (but do follow parallel edges)
+		    if (e == stackEdge[sp-1])
+			continue;
+		    int w = (edgeNode1[e] == v) ? edgeNode2[e] : edgeNode1[e];
+		    if (disc[w] < 0) {
+			disc[w] = low[w] = time++;
+			component[w] = compCount;
+			next[w] = adjStart[w];
+			stackNode[sp] = w;
+			stackEdge[sp++] = e;
+		    } else if (disc[w] < low[v])
+			low[v] = disc[w];
+		    continue;
+		}
+		int e = stackEdge[--sp];
+		if (sp > 0) {
+		    int u = stackNode[sp-1];
+		    if (low[v] < low[u])
+			low[u] = low[v];
+		    if (low[v] > disc[u])
+			bridge[e] = true;
+		}
+	    }
+	    compCount++;
+	}
+    }
+
+    // can we answer findPath() for element elmIndex?  We can't if the element has more than
+    // one edge in the graph, since removing it may remove several.
+    boolean canFindPath(int elmIndex, int n1, int n2) {
+	int count = elmEdgeCount[elmIndex];
+	if (count == 0)
+	    return true;
+	if (count > 1)
+	    return false;
+	int e = elmFirstEdge[elmIndex];
+	return (edgeNode1[e] == n1 && edgeNode2[e] == n2) || (edgeNode1[e] == n2 && edgeNode2[e] == n1);
+    }
+
+    // is there a path from n1 to n2 that doesn't go through element elmIndex?
+    boolean findPath(int elmIndex, int n1, int n2) {
+	if (n1 == n2)
+	    return true;
+	if (component[n1] != component[n2])
+	    return false;
+	if (elmEdgeCount[elmIndex] == 0)
+	    return true;
+	return !bridge[elmFirstEdge[elmIndex]];
+    }
+}
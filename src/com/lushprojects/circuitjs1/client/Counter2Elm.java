@@ -101,6 +101,7 @@ class Counter2Elm extends ChipElm {
 		modulus = (int)ei.value;
 	}
 	int getVoltageSourceCount() { return bits+1; }
+	boolean isLogicChip() { return true; }
 	
 	boolean carry;
 	
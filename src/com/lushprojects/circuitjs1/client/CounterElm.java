@@ -123,6 +123,7 @@ class CounterElm extends ChipElm {
 	boolean hasUpDown() { return (flags & FLAG_UP_DOWN) != 0; }
 	boolean negativeEdgeTriggered() { return (flags & FLAG_NEGATIVE_EDGE) != 0; }
 	int getVoltageSourceCount() { return bits; }
+	boolean isLogicChip() { return true; }
 	void execute() {
 	    boolean neg = negativeEdgeTriggered();
 	    if (pins[0].value != neg && lastClock == neg) {
@@ -52,8 +52,8 @@ public class CustomCompositeModel implements Comparable<CustomCompositeModel> {
 	modelMap.put(d.name, d);
 	sequenceNumber = 1;
 	
-	// get models from local storage
-        Storage stor = Storage.getLocalStorageIfSupported();
+	// get models from local storage (if we have a browser)
+        Storage stor = CirSim.headless ? null : Storage.getLocalStorageIfSupported();
         if (stor != null) {
             int len = stor.getLength();
             int i;
@@ -24,6 +24,8 @@ import com.google.gwt.user.client.Window;
 class CustomTransformerElm extends CircuitElm {
 	double coilCurrents[], coilInductances[], coilCurCounts[], coilCurSourceValues[], coilPolarities[];
 	double nodeCurrents[], nodeCurCounts[];
+	// past coil currents, for Gear-2 integration
+	IntegrationHistory coilHistories[];
         public static final int FLAG_FLIP = 1;
 	int flip;
 	
@@ -118,6 +120,9 @@ class CustomTransformerElm extends CircuitElm {
 		coilCurrents = new double[coilCount];
 	    coilCurCounts = new double[coilCount];
 	    coilCurSourceValues = new double[coilCount];
+	    coilHistories = new IntegrationHistory[coilCount];
+	    for (int i = 0; i != coilCount; i++)
+		coilHistories[i] = new IntegrationHistory();
 	    coilPolarities = new double[coilCount];
 	    nodePoints = newPointArray(nodeCount);
 	    nodeTaps = newPointArray(nodeCount);
@@ -279,8 +284,10 @@ class CustomTransformerElm extends CircuitElm {
 	int getPostCount() { return nodeCount; }
 	void reset() {
 	    int i;
-	    for (i = 0; i != coilCount; i++)
+	    for (i = 0; i != coilCount; i++) {
 		coilCurrents[i] = coilCurSourceValues[i] = coilCurCounts[i] = 0;
+		coilHistories[i].reset();
+	    }
 	    for (i = 0; i != nodeCount; i++)
 		volts[i] = nodeCurrents[i] = nodeCurCounts[i] = 0;
 	}
@@ -308,7 +315,8 @@ class CustomTransformerElm extends CircuitElm {
 	    //  c. current source controlled by voltage v2, G = a4 dt/2
 	    //
 	    // For backward euler, the current source value is just i1(t1) and we use
-	    // dt instead of dt/2 for the resistor and VCCS.
+	    // dt instead of dt/2 for the resistor and VCCS.  For Gear-2 it's
+	    // 4/3 i1(t1) - 1/3 i1(t1-dt) and we use 2/3 dt.
 	    xformMatrix = new double[coilCount][coilCount];
 	    int i;
 	    // fill diagonal
@@ -322,10 +330,10 @@ class CustomTransformerElm extends CircuitElm {
 
 	    CirSim.invertMatrix(xformMatrix, coilCount);
 	    
-	    double ts = isTrapezoidal() ? sim.timeStep/2 : sim.timeStep;
+	    double ts = getCompanionTimeStep();
 	    for (i = 0; i != coilCount; i++)
 		for (j = 0; j != coilCount; j++) {
-		    // multiply in dt/2 (or dt for backward euler)
+		    // multiply in dt/2 (or dt for backward euler, 2/3 dt for Gear-2)
 		    xformMatrix[i][j] *= ts;
 		    int ni = coilNodes[i];
 		    int nj = coilNodes[j];
@@ -338,11 +346,20 @@ class CustomTransformerElm extends CircuitElm {
 		sim.stampRightSide(nodes[i]);
 	}
 	
+	double getCompanionTimeStep() {
+	    int method = IntegrationHistory.getMethod(sim, isTrapezoidal());
+	    if (method == IntegrationHistory.GEAR2)
+		return 2*sim.timeStep/3;
+	    return (method == IntegrationHistory.TRAPEZOIDAL) ? sim.timeStep/2 : sim.timeStep;
+	}
+	
 	void startIteration() {
 	    int i;
 	    for (i = 0; i != coilCount; i++) {
 		double val = coilCurrents[i];
-		if (isTrapezoidal()) {
+		if (sim.gear2Integration)
+		    val = coilHistories[i].getGear2Value(sim.timeStep, val);
+		else if (isTrapezoidal()) {
 		    int j;
 		    for (j = 0; j != coilCount; j++) {
 			int n = coilNodes[j];
@@ -354,6 +371,18 @@ class CustomTransformerElm extends CircuitElm {
 	    }
 	}
 	
+	void stepFinished() {
+	    int i;
+	    for (i = 0; i != coilCount; i++)
+		coilHistories[i].add(sim.t, coilCurrents[i]);
+	}
+	
+	void breakpointReached() {
+	    int i;
+	    for (i = 0; i != coilCount; i++)
+		coilHistories[i].restart();
+	}
+	
 	void doStep() {
 	    int i;
 	    for (i = 0; i != coilCount; i++) {
@@ -468,4 +497,6 @@ class CustomTransformerElm extends CircuitElm {
 	// vertical not supported
 	boolean canFlipXY() { return false; }
 
+	// we don't keep the history needed to estimate our truncation error
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -99,6 +99,11 @@ class DCMotorElm extends CircuitElm {
 	sim.stampVoltageSource(nodes[4], 0, voltSources[1]); 
 	//System.out.println("doing stamp voltage "+voltSource);
     }
+    // the inductors keep history for Gear-2 integration
+    void stepFinished() {
+	ind.stepFinished();
+	indInertia.stepFinished();
+    }
     void startIteration() {
 	ind.startIteration(volts[0]-volts[2]);
 	indInertia.startIteration(volts[4]-volts[5]);
@@ -235,4 +240,7 @@ class DCMotorElm extends CircuitElm {
 	if (ei.value > 0 & n==6)
 	    gearRatio = ei.value;
     }
+
+    // we integrate our state with a simple Euler step, so longer steps would lose accuracy
+    boolean needsFixedTimeStep() { return true; }
 }
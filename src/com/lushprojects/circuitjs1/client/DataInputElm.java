@@ -200,4 +200,7 @@ class DataInputElm extends RailElm {
 	public static void clearCache() {
 	    dataFileMap.clear();
 	}
+
+	// we play back samples at fixed intervals
+	boolean needsFixedTimeStep() { return true; }
     }
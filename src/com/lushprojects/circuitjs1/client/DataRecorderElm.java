@@ -57,6 +57,9 @@ public class DataRecorderElm extends CircuitElm {
 	    arr[1] = "V = " + getVoltageText(volts[0]);
 	    arr[2] = (dataFull ? dataCount : dataPtr) + "/" + dataCount;
 	}
+	// we record one value per maxTimeStep
+	boolean needsFixedTimeStep() { return true; }
+
 	void stepFinished() {
 	    if (lastTimeStepCount == sim.timeStepCount)
 		return;
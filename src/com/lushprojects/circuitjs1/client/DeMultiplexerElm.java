@@ -33,7 +33,6 @@ package com.lushprojects.circuitjs1.client;
 	    try {
 		selectBitCount = Integer.parseInt(st.nextToken());
 		setupPins();
-		allocNodes();
 	    } catch (Exception e) {}
 	}
 	String getChipName() { return "demultiplexer"; }
@@ -45,6 +44,7 @@ package com.lushprojects.circuitjs1.client;
 	    outputCount = 1 << selectBitCount;
 	    sizeX = 1+selectBitCount;
 	    sizeY = 1+outputCount;
+	    qPin = outputCount+selectBitCount;
 	    pins = new Pin[getPostCount()];
 	    int i;
 	    for (i = 0; i != outputCount; i++) {
@@ -55,13 +55,14 @@ package com.lushprojects.circuitjs1.client;
 		int ii = i+outputCount;
 		pins[ii] = new Pin(i, SIDE_S, "S" + i);
 	    }
-	    qPin = outputCount+selectBitCount;
 	    pins[qPin] = new Pin(0, SIDE_W, "Q");
+	    allocNodes();
 	}
 	int getPostCount() {
 	    return qPin+1;
 	}
 	int getVoltageSourceCount() { return outputCount; }
+	boolean isLogicChip() { return true; }
 
 	void execute() {
 	    int val = 0;
@@ -73,6 +73,7 @@ class DecimalDisplayElm extends ChipElm {
     int getPostCount() { return bitCount; }
     int getDumpType() { return 419; }
     int getVoltageSourceCount() { return 0; }
+    boolean isLogicChip() { return true; }
     public EditInfo getChipEditInfo(int n) {
         if (n == 0)
             return new EditInfo("# of Bits", bitCount, 1, 8).
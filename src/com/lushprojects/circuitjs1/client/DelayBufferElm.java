@@ -139,4 +139,6 @@ class DelayBufferElm extends CircuitElm {
 	    return 0;
 	}
 
+	// our delay is only as precise as the time step
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -0,0 +1,215 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// LU factorization of a dense matrix, for circuits that aren't big enough to use SparseLU.
+// lu_factor() works on a double[][] and walks down columns, jumping from one row array to the
+// next; in javascript each of those is a separate array lookup.  Here we copy the matrix into
+// one flat array (row i starts at i*size) and do the elimination right-looking and in blocks:
+// we factor a panel of BLOCK_SIZE columns, then subtract its contribution from the rest of the
+// matrix, so the inner loops all run along contiguous rows.
+//
+// Every entry gets its updates in the same order as in lu_factor(), with the same pivots, so
+// the factors are exactly the same; only the order we visit the entries in is different.
+class DenseLU {
+    static final int BLOCK_SIZE = 32;
+
+    int size;
+    double lu[];
+    int pivotRow[];
+
+    DenseLU(int n) {
+	lu = new double[n*n];
+	pivotRow = new int[n];
+    }
+
+    // factor the top left n x n block of a.  returns false if it's singular
+    boolean factor(double a[][], int n) {
+	size = n;
+	int i, j;
+	boolean singular = false;
+	for (i = 0; i != n; i++) {
+	    // check for a possible singular matrix by scanning for rows that are all zeroes
+	    double row[] = a[i];
+	    boolean allZeros = true;
+	    for (j = 0; j != n; j++)
+		if (row[j] != 0) {
+		    allZeros = false;
+		    break;
+		}
+	    if (allZeros)
+		singular = true;
+	    System.arraycopy(row, 0, lu, i*n, n);
+	}
+	if (singular)
+	    return false;
+
+	int kb;
+	for (kb = 0; kb < n; kb += BLOCK_SIZE) {
+	    int ke = Math.min(kb+BLOCK_SIZE, n);
+	    if (!factorPanel(kb, ke))
+		return false;
+	    if (ke == n)
+		break;
+	    solvePanelRows(kb, ke);
+	    updateTrailing(kb, ke);
+	}
+	return true;
+    }
+
+    // factor columns kb..ke-1 (which have already been updated for all earlier columns),
+    // swapping whole rows as we pivot
+    boolean factorPanel(int kb, int ke) {
+	int n = size;
+	double a[] = lu;
+	int i, j, k;
+	for (j = kb; j != ke; j++) {
+	    // find the pivot
+	    double largest = 0;
+	    int largestRow = -1;
+	    for (i = j; i != n; i++) {
+		double x = Math.abs(a[i*n+j]);
+		if (x >= largest) {
+		    largest = x;
+		    largestRow = i;
+		}
+	    }
+	    if (j != largestRow) {
+		if (largestRow == -1) {
+		    CirSim.console("largestRow == -1");
+		    return false;
+		}
+		int r1 = largestRow*n, r2 = j*n;
+		for (k = 0; k != n; k++) {
+		    double x = a[r1+k];
+		    a[r1+k] = a[r2+k];
+		    a[r2+k] = x;
+		}
+	    }
+	    pivotRow[j] = largestRow;
+
+	    int rj = j*n;
+	    if (a[rj+j] == 0.0) {
+		CirSim.console("didn't avoid zero");
+		return false;
+	    }
+	    if (j == n-1)
+		break;
+
+	    // compute this column of L, and update the rest of the panel with it
+	    double mult = 1.0/a[rj+j];
+	    for (i = j+1; i != n; i++) {
+		int ri = i*n;
+		double l = (a[ri+j] *= mult);
+		if (l == 0)
+		    continue;
+		for (k = j+1; k != ke; k++)
+		    a[ri+k] -= l*a[rj+k];
+	    }
+	}
+	return true;
+    }
+
+    // finish the rows of U in the panel (rows kb..ke-1, columns ke and up)
+    void solvePanelRows(int kb, int ke) {
+	int n = size;
+	double a[] = lu;
+	int i, k, c;
+	for (i = kb+1; i != ke; i++) {
+	    int ri = i*n;
+	    for (k = kb; k != i; k++) {
+		double l = a[ri+k];
+		if (l == 0)
+		    continue;
+		int rk = k*n;
+		for (c = ke; c != n; c++)
+		    a[ri+c] -= l*a[rk+c];
+	    }
+	}
+    }
+
+    // subtract the panel's contribution from the rest of the matrix (rows and columns ke and
+    // up)
+    void updateTrailing(int kb, int ke) {
+	updateTrailingRows(kb, ke, ke, size);
+    }
+
+    // do updateTrailing() for rows i0..i1-1 only.  Each row is independent of the others, so
+    // they can be done in any order.  we go through the columns in blocks so the panel's rows
+    // of U stay in the cache
+    void updateTrailingRows(int kb, int ke, int i0, int i1) {
+	int n = size;
+	double a[] = lu;
+	int i, k, c, cb;
+	int colBlock = BLOCK_SIZE*8;
+	for (cb = ke; cb < n; cb += colBlock) {
+	    int ce = Math.min(cb+colBlock, n);
+	    for (i = i0; i != i1; i++) {
+		int ri = i*n;
+		for (k = kb; k != ke; k++) {
+		    double l = a[ri+k];
+		    if (l == 0)
+			continue;
+		    int rk = k*n;
+		    for (c = cb; c != ce; c++)
+			a[ri+c] -= l*a[rk+c];
+		}
+	    }
+	}
+    }
+
+    // solve using the factors (same as lu_solve()).  b is replaced with the solution
+    void solve(double b[]) {
+	int n = size;
+	double a[] = lu;
+	int i, j;
+
+	// find first nonzero b element
+	for (i = 0; i != n; i++) {
+	    int row = pivotRow[i];
+	    double swap = b[row];
+	    b[row] = b[i];
+	    b[i] = swap;
+	    if (swap != 0)
+		break;
+	}
+
+	// forward substitution using the lower triangular matrix
+	int bi = i++;
+	for (; i < n; i++) {
+	    int row = pivotRow[i];
+	    double tot = b[row];
+	    b[row] = b[i];
+	    int ri = i*n;
+	    for (j = bi; j < i; j++)
+		tot -= a[ri+j]*b[j];
+	    b[i] = tot;
+	}
+
+	// back-substitution using the upper triangular matrix
+	for (i = n-1; i >= 0; i--) {
+	    double tot = b[i];
+	    int ri = i*n;
+	    for (j = i+1; j != n; j++)
+		tot -= a[ri+j]*b[j];
+	    b[i] = tot/a[ri+i];
+	}
+    }
+}
@@ -49,6 +49,7 @@ class Diode {
 	    double i = -.005;
 	    zoffset = zvoltage-Math.log(-(1+i/leakage))/vzcoef;
 	}
+	bypassValid = false;
     }
 	
     void setupForDefaultModel() {
@@ -57,6 +58,7 @@ class Diode {
     
     void reset() {
 	lastvoltdiff = 0;
+	bypassValid = false;
     }
 	
     // Electron thermal voltage at SPICE's default temperature of 27 C (300.15 K):
@@ -79,6 +81,11 @@ class Diode {
     // Critical voltages for limiting the normal diode and Zener breakdown exponentials.
     double vcrit, vzcrit;
     double lastvoltdiff;
+    // the last linearization doStep() stamped, and the voltage and gmin it was for, so we can
+    // use it again if the voltage has hardly changed (see CirSim.deviceBypass)
+    double bypassVoltDiff, bypassGmin, bypassGeq, bypassNc;
+    boolean bypassValid;
+    long evalCount, bypassCount;
     
     double limitStep(double vnew, double vold) {
 	double arg;
@@ -133,6 +140,7 @@ class Diode {
     void stamp(int n0, int n1) {
 	nodes[0] = n0;
 	nodes[1] = n1;
+	bypassValid = false;
 	sim.stampNonLinear(nodes[0]);
 	sim.stampNonLinear(nodes[1]);
     }
@@ -155,13 +163,23 @@ class Diode {
 		gmin = .1;
 	}
 
+	if (sim.deviceBypass && bypassValid && gmin == bypassGmin &&
+	    Math.abs(voltdiff-bypassVoltDiff) < CirSim.BYPASS_VOLTAGE_TOL) {
+	    // close enough to where we last evaluated the model that its linearization is
+	    // still good, so skip the exponentials
+	    bypassCount++;
+	    sim.stampConductance(nodes[0], nodes[1], bypassGeq);
+	    sim.stampCurrentSource(nodes[0], nodes[1], bypassNc);
+	    return;
+	}
+	evalCount++;
+
+	double geq, nc;
 	if (voltdiff >= 0 || zvoltage == 0) {
 	    // regular diode or forward-biased zener
 	    double eval = Math.exp(voltdiff*vdcoef);
-	    double geq = vdcoef*leakage*eval + gmin;
-	    double nc = (eval-1)*leakage - geq*voltdiff;
-	    sim.stampConductance(nodes[0], nodes[1], geq);
-	    sim.stampCurrentSource(nodes[0], nodes[1], nc);
+	    geq = vdcoef*leakage*eval + gmin;
+	    nc = (eval-1)*leakage - geq*voltdiff;
 	} else {
 	    // Zener diode
 	    
@@ -176,19 +194,28 @@ class Diode {
 	     * nc is I(Vd) + I'(Vd)*(-Vd)
 	     */
 
-	    double geq = leakage* ( 
+	    geq = leakage* ( 
 		vdcoef*Math.exp(voltdiff*vdcoef) + vzcoef*Math.exp((-voltdiff-zoffset)*vzcoef)
 		) + gmin;
 
-	    double nc = leakage* (
+	    nc = leakage* (
 		Math.exp(voltdiff*vdcoef) 
 		- Math.exp((-voltdiff-zoffset)*vzcoef) 
 		- 1
 		) + geq*(-voltdiff);
-
-	    sim.stampConductance(nodes[0], nodes[1], geq);
-	    sim.stampCurrentSource(nodes[0], nodes[1],  nc);
 	}
+	bypassVoltDiff = voltdiff;
+	bypassGmin = gmin;
+	bypassGeq = geq;
+	bypassNc = nc;
+	bypassValid = true;
+	sim.stampConductance(nodes[0], nodes[1], geq);
+	sim.stampCurrentSource(nodes[0], nodes[1], nc);
+    }
+
+    void getBypassCounts(long counts[]) {
+	counts[0] += evalCount;
+	counts[1] += bypassCount;
     }
     
     double calculateCurrent(double voltdiff) {
@@ -118,6 +118,12 @@ class DiodeElm extends CircuitElm {
 	drawPosts(g);
     }
 	
+    void getBypassCounts(long counts[]) {
+	diode.getBypassCounts(counts);
+    }
+
+    boolean usePredictedVoltages() { return true; }
+
     void reset() {
 	diode.reset();
 	volts[0] = volts[1] = curcount = 0;
@@ -253,6 +253,17 @@ class EditDialog extends Dialog {
 
 	void apply() {
 		int i;
+		// if we're only changing values of a circuit element, just restamp it instead
+		// of analyzing the whole circuit again
+		CircuitElm ce = null;
+		if (elm instanceof CircuitElm) {
+			ce = (CircuitElm) elm;
+			for (i = 0; i != einfocount; i++)
+				if (einfos[i].button == null && !ce.isValueOnlyEdit(i))
+					ce = null;
+			if (ce != null && !cframe.startElementRestamp(ce))
+				ce = null;
+		}
 		for (i = 0; i != einfocount; i++) {
 			EditInfo ei = einfos[i];
 			if (ei.textf!=null && ei.text==null) {
@@ -272,7 +283,11 @@ class EditDialog extends Dialog {
 				adj.setSliderValue(ei.value);
 			}
 		}
-		cframe.needAnalyze();
+		if (ce != null) {
+			cframe.finishElementRestamp(ce);
+			cframe.repaint();
+		} else
+			cframe.needAnalyze();
 	}
 
 	public void itemStateChanged(GwtEvent e) {
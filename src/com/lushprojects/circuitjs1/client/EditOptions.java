@@ -79,12 +79,44 @@ class EditOptions implements Editable {
 		if (n == 12)
 		    return new EditInfo("Mouse Wheel Sensitivity", sim.wheelSensitivity);
 		if (n == 13) {
+		    EditInfo ei = new EditInfo("Matrix Solver", 0, -1, -1);
+		    ei.choice = new Choice();
+		    ei.choice.add("Automatic");
+		    ei.choice.add("Dense");
+		    ei.choice.add("Sparse");
+		    ei.choice.select(sim.matrixSolverMode);
+		    return ei;
+		}
+		if (n == 14) {
+		    EditInfo ei = new EditInfo("", 0, -1, -1);
+		    ei.checkbox = new Checkbox("Event-Driven Logic", sim.eventDrivenLogic);
+		    return ei;
+		}
+		if (n == 15) {
+		    EditInfo ei = new EditInfo("", 0, -1, -1);
+		    ei.checkbox = new Checkbox("Gear-2 Integration", sim.gear2Integration);
+		    return ei;
+		}
+		if (n == 16) {
+		    EditInfo ei = new EditInfo("", 0, -1, -1);
+		    ei.checkbox = new Checkbox("Predict Newton Starting Point", sim.newtonPredictor);
+		    return ei;
+		}
+		if (n == 17) {
 		    EditInfo ei = new EditInfo("", 0, -1, -1);
 		    ei.checkbox = new Checkbox("Auto-Adjust Timestep", sim.adjustTimeStep);
 		    return ei;
 		}
-		if (n == 14 && sim.adjustTimeStep)
+		if (n == 18 && sim.adjustTimeStep)
 		    return new EditInfo("Minimum time step size (s)", sim.minTimeStep, 0, 0);
+		if (n == 19 && sim.adjustTimeStep) {
+		    EditInfo ei = new EditInfo("", 0, -1, -1);
+		    ei.checkbox = new Checkbox("Error-Controlled Timestep", sim.lteTimeStep);
+		    return ei;
+		}
+		if (n == 20 && sim.adjustTimeStep && sim.lteTimeStep)
+		    return new EditInfo("Maximum time step size (s)", (sim.lteMaxTimeStep > 0) ? sim.lteMaxTimeStep :
+					    sim.maxTimeStep*CirSim.LTE_DEFAULT_MAX_RATIO, 0, 0);
 
 		return null;
 	}
@@ -162,11 +194,37 @@ class EditOptions implements Editable {
 			stor.setItem("wheelSensitivity", Double.toString(sim.wheelSensitivity));
 		}
 		if (n == 13) {
+		    sim.matrixSolverMode = ei.choice.getSelectedIndex();
+		    Storage stor = Storage.getLocalStorageIfSupported();
+		    if (stor != null)
+			stor.setItem("matrixSolver", Integer.toString(sim.matrixSolverMode));
+		    sim.needAnalyze();
+		}
+		if (n == 14) {
+		    sim.eventDrivenLogic = ei.checkbox.getState();
+		    Storage stor = Storage.getLocalStorageIfSupported();
+		    if (stor != null)
+			stor.setItem("eventDrivenLogic", Boolean.toString(sim.eventDrivenLogic));
+		    sim.needAnalyze();
+		}
+		if (n == 15) {
+		    sim.gear2Integration = ei.checkbox.getState();
+		    sim.needAnalyze();
+		}
+		if (n == 16)
+		    sim.newtonPredictor = ei.checkbox.getState();
+		if (n == 17) {
 		    sim.adjustTimeStep = ei.checkbox.getState();
 		    ei.newDialog = true;
 		}
-		if (n == 14 && ei.value > 0)
+		if (n == 18 && ei.value > 0)
 		    sim.minTimeStep = ei.value;
+		if (n == 19) {
+		    sim.lteTimeStep = ei.checkbox.getState();
+		    ei.newDialog = true;
+		}
+		if (n == 20 && ei.value > 0)
+		    sim.lteMaxTimeStep = ei.value;
 	}
 	
 	Color setColor(String name, EditInfo ei, Color def) {
@@ -153,4 +153,7 @@ class FMElm extends CircuitElm {
 	if (n == 3)
 	    deviation=ei.value;
     }
+
+    // we don't estimate the error of our waveform
+    boolean needsFixedTimeStep() { return true; }
 }
@@ -61,6 +61,7 @@ package com.lushprojects.circuitjs1.client;
 	    return bits*3+2;
 	}
 	int getVoltageSourceCount() { return bits+1; }
+	boolean isLogicChip() { return true; }
 
 	void execute() {
 	    int i;
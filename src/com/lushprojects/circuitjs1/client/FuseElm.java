@@ -172,4 +172,7 @@ class FuseElm extends CircuitElm {
 		setPoints();
 	    }
 	}
+
+	// we integrate our state with a simple Euler step, so longer steps would lose accuracy
+	boolean needsFixedTimeStep() { return true; }
     }
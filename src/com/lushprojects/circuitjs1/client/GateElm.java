@@ -39,7 +39,7 @@ package com.lushprojects.circuitjs1.client;
 	    if (lastSchmitt)
 		flags |= FLAG_SCHMITT;
 	    
-	    setSize(sim.smallGridCheckItem.getState() ? 1 : 2);
+	    setSize((!CirSim.headless && sim.smallGridCheckItem.getState()) ? 1 : 2);
 	}
 	public GateElm(int xa, int ya, int xb, int yb, int f,
 			StringTokenizer st) {
@@ -126,7 +126,7 @@ package com.lushprojects.circuitjs1.client;
 	}
 
 	String getGateText() { return null; }
-	static boolean useEuroGates() { return sim.euroGatesCheckItem.getState(); }
+	static boolean useEuroGates() { return !CirSim.headless && sim.euroGatesCheckItem.getState(); }
 
 	void drawGatePolygon(Graphics g) {
 	    drawThickPolygon(g, gatePoly);
@@ -194,20 +194,27 @@ package com.lushprojects.circuitjs1.client;
 	
 	int oscillationCount;
 	double lastTime;
+	// true if we left the output the same to stop it oscillating, so it can change next
+	// time step even if the inputs don't
+	boolean heldOutput;
 	
-	void doStep() {
+	// get the output for the current inputs.  this may be called more than once per time step.
+	boolean getOutput() {
 	    boolean f = calcFunction();
 	    if (isInverting())
 		f = !f;
 	    
 	    if (lastTime != sim.t) {
 		// detect oscillation (using same strategy as Atanua)
+		heldOutput = false;
 		if (lastOutput == !f) {
 		    if (oscillationCount++ > 50) {
 			// output is oscillating too much, randomly leave output the same
 			oscillationCount = 0;
-			if (sim.getrand(10) > 5)
+			if (sim.getrand(10) > 5) {
 			    f = lastOutput;
+			    heldOutput = true;
+			}
 		    }
 		} else
 		    oscillationCount = 0;
@@ -215,10 +222,15 @@ package com.lushprojects.circuitjs1.client;
 		lastOutput = f;
 		lastTime = sim.t;
 	    }
-	    
-	    double res = f ? highVoltage : 0;
+	    return f;
+	}
+	
+	void doStep() {
+	    double res = getOutput() ? highVoltage : 0;
 	    sim.updateVoltageSource(0, nodes[inputCount], voltSource, res);
 	}
+	
+	boolean isHighImpedanceInput(int n) { return n < inputCount; }
 	public EditInfo getEditInfo(int n) {
 	    if (n == 0)
 		return new EditInfo("# of Inputs", inputCount, 1, 8).
@@ -266,5 +278,8 @@ package com.lushprojects.circuitjs1.client;
 		return current;
 	    return 0;
 	}
+
+	// we switch as soon as an input crosses the threshold, so a long step would make us switch late
+	boolean needsFixedTimeStep() { return true; }
     }
 
@@ -45,6 +45,7 @@ package com.lushprojects.circuitjs1.client;
 	    return 4;
 	}
 	int getVoltageSourceCount() {return 2;}
+	boolean isLogicChip() { return true; }
 
 	void execute() {
 	
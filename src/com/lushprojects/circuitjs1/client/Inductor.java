@@ -28,6 +28,9 @@ class Inductor {
     double inductance;
     double compResistance, current;
     double curSourceValue;
+    // current at the start of the time step, in case it's rejected
+    double startCurrent;
+    IntegrationHistory history = new IntegrationHistory();
     Inductor(CirSim s) {
 	sim = s;
 	nodes = new int[2];
@@ -43,7 +46,8 @@ class Inductor {
 	// need to set curSourceValue here in case one of inductor nodes is node 0.  In that case
 	// calculateCurrent() may get called (from setNodeVoltage()) when analyzing circuit, before
 	// startIteration() gets called
-	curSourceValue = current = c;
+	curSourceValue = current = startCurrent = c;
+	history.reset();
     }
     void stamp(int n0, int n1) {
 	// inductor companion model using trapezoidal or backward euler
@@ -53,7 +57,10 @@ class Inductor {
 	// The oscillation is a real problem in circuits with switches.
 	nodes[0] = n0;
 	nodes[1] = n1;
-	if (isTrapezoidal())
+	int method = IntegrationHistory.getMethod(sim, isTrapezoidal());
+	if (method == IntegrationHistory.GEAR2)
+	    compResistance = 3*inductance/(2*sim.timeStep);
+	else if (method == IntegrationHistory.TRAPEZOIDAL)
 	    compResistance = 2*inductance/sim.timeStep;
 	else // backward euler
 	    compResistance = inductance/sim.timeStep;
@@ -64,7 +71,10 @@ class Inductor {
     boolean nonLinear() { return false; }
 
     void startIteration(double voltdiff) {
-	if (isTrapezoidal())
+	startCurrent = current;
+	if (sim.gear2Integration)
+	    curSourceValue = history.getGear2Value(sim.timeStep, current);
+	else if (isTrapezoidal())
 	    curSourceValue = voltdiff/compResistance+current;
 	else // backward euler
 	    curSourceValue = current;
@@ -81,4 +91,23 @@ class Inductor {
     void doStep(double voltdiff) {
 	sim.stampCurrentSource(nodes[0], nodes[1], curSourceValue);
     }
+
+    void stepFinished() {
+	history.add(sim.t, current);
+    }
+
+    void breakpointReached() {
+	history.restart();
+    }
+
+    double getMaxLteTimeStep() {
+	return history.getMaxTimeStep(sim.t+sim.timeStep, current,
+				      IntegrationHistory.getMethod(sim, isTrapezoidal()),
+				      CirSim.LTE_REL_TOL, CirSim.LTE_CURRENT_TOL);
+    }
+
+    // calculateCurrent() changed current while we were solving the step
+    void rejectStep() {
+	current = startCurrent;
+    }
 }
@@ -73,6 +73,13 @@ package com.lushprojects.circuitjs1.client;
 	void startIteration() {
 	    ind.startIteration(volts[0]-volts[1]);
 	}
+	void stepFinished() { ind.stepFinished(); }
+	void breakpointReached() { ind.breakpointReached(); }
+	double getMaxLteTimeStep() { return ind.getMaxLteTimeStep(); }
+	void rejectStep() {
+	    ind.rejectStep();
+	    current = ind.current;
+	}
 	boolean nonLinear() { return ind.nonLinear(); }
 	void calculateCurrent() {
 	    double voltdiff = volts[0]-volts[1];
@@ -116,6 +123,7 @@ package com.lushprojects.circuitjs1.client;
 	    ind.setup(inductance, current, flags);
 	}
 	
+	boolean isValueOnlyEdit(int n) { return n < 3; }
 	int getShortcut() { return 'L'; }
 	public double getInductance() { return inductance; }
 	void setInductance(double l) {
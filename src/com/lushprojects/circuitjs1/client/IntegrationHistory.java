@@ -0,0 +1,126 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// The last few accepted values of a capacitor's voltage or an inductor's current, and when
+// they were accepted.  With error-controlled time steps (CirSim.lteTimeStep), runCircuit()
+// uses these to estimate the local truncation error of each time step it solves: a
+// trapezoidal step is exact for a quadratic, so its error is about h^3/12 times the third
+// derivative, a Gear-2 step's is about 2h^3/9 times the third, and a backward Euler step's
+// is about h^2/2 times the second.  We estimate the derivatives with divided differences of
+// the new value and the history.  Gear-2 integration (CirSim.gear2Integration) also needs
+// the value one step back, see getGear2Value().
+class IntegrationHistory {
+    static final int BACKWARD_EULER = 0;
+    static final int TRAPEZOIDAL = 1;
+    static final int GEAR2 = 2;
+
+    // the integration method an element should use, given its own trapezoidal/backward euler
+    // setting.  Gear-2 is a circuit option, and overrides both.
+    static int getMethod(CirSim sim, boolean trapezoidal) {
+	if (sim.gear2Integration)
+	    return GEAR2;
+	return trapezoidal ? TRAPEZOIDAL : BACKWARD_EULER;
+    }
+
+    double values[] = new double[3];
+    double times[] = new double[3];
+    int count;
+
+    void reset() {
+	count = 0;
+    }
+
+    // forget everything but the last value, after a discontinuity
+    void restart() {
+	if (count > 1)
+	    count = 1;
+    }
+
+    // value x was accepted at time t
+    void add(double t, double x) {
+	values[2] = values[1];
+	values[1] = values[0];
+	values[0] = x;
+	times[2] = times[1];
+	times[1] = times[0];
+	times[0] = t;
+	if (count < 3)
+	    count++;
+    }
+
+    // Gear-2 (BDF2) gives x(t+h) = 4/3 x(t) - 1/3 x(t-h) + 2/3 h x'(t+h).  We keep the 2/3 h
+    // fixed even when the last step was a different size, so the companion model only depends
+    // on h and the matrix doesn't have to be rebuilt; instead we interpolate x(t-h) from the
+    // history.  x is the value now (at the last accepted time).  Returns 4/3 x(t) - 1/3 x(t-h).
+    double getGear2Value(double h, double x) {
+	double past;
+	if (count < 2)
+	    // just started, or after a breakpoint, so whatever came before may be on the other
+	    // side of a jump.  do a backward euler step (of 2/3 h) until we have some history
+	    past = x;
+	else {
+	    double tp = times[0]-h;
+	    if (count == 2)
+		past = x + (values[1]-x)*(tp-times[0])/(times[1]-times[0]);
+	    else {
+		// quadratic through the last three points
+		double l0 = (tp-times[1])*(tp-times[2])/((times[0]-times[1])*(times[0]-times[2]));
+		double l1 = (tp-times[0])*(tp-times[2])/((times[1]-times[0])*(times[1]-times[2]));
+		double l2 = (tp-times[0])*(tp-times[1])/((times[2]-times[0])*(times[2]-times[1]));
+		past = x*l0 + values[1]*l1 + values[2]*l2;
+	    }
+	}
+	return (4*x-past)/3;
+    }
+
+    // we just solved for value x at time t.  return the largest step from the last accepted
+    // time that would keep the error within tol (relative to the size of x) + absTol
+    double getMaxTimeStep(double t, double x, int method, double tol, double absTol) {
+	if (count == 0)
+	    return Double.POSITIVE_INFINITY;
+	if (count < (method == BACKWARD_EULER ? 2 : 3))
+	    // not enough history to tell yet, so allow this step but not a longer one
+	    return 1.5*(t-times[0]);
+	double h = t-times[0];
+	double d1 = (x-values[0])/h;
+	double d2 = (values[0]-values[1])/(times[0]-times[1]);
+	double dd = (d1-d2)/(t-times[1]);
+	double err;
+	int order;
+	if (method != BACKWARD_EULER) {
+	    double d3 = (values[1]-values[2])/(times[1]-times[2]);
+	    double dd2 = (d2-d3)/(times[0]-times[2]);
+	    // third derivative is 6 times the third divided difference
+	    err = Math.abs(h*h*h*(dd-dd2)/(t-times[2]));
+	    err *= (method == GEAR2) ? 4./3 : 1./2;
+	    order = 3;
+	} else {
+	    // second derivative is 2 times the second divided difference
+	    err = Math.abs(h*h*dd);
+	    order = 2;
+	}
+	if (!(err > 0))
+	    return Double.POSITIVE_INFINITY;
+	double lim = tol*Math.max(Math.abs(x), Math.abs(values[0])) + absTol;
+	// aim a little under the limit, so the next step isn't rejected as soon as the error grows
+	return .9*h*Math.pow(lim/err, 1./order);
+    }
+}
@@ -200,4 +200,6 @@ package com.lushprojects.circuitjs1.client;
 	    return 0;
 	}
 
+	// we switch as soon as the input crosses a threshold, so a long step would make us switch late
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -56,6 +56,7 @@ package com.lushprojects.circuitjs1.client;
 	}
 	int getPostCount() { return 5 + (hasReset() ? 1:0); }
 	int getVoltageSourceCount() { return 2; }
+	boolean isLogicChip() { return true; }
 	
 	boolean justLoaded;
 	
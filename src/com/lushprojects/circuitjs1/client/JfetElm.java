@@ -121,6 +121,11 @@ class JfetElm extends MosfetElm {
 	    diode.doStep(pnp*(volts[0]-volts[1]));
 	}
 	
+	void getBypassCounts(long counts[]) {
+	    super.getBypassCounts(counts);
+	    diode.getBypassCounts(counts);
+	}
+	
 	void calculateCurrent() {
 	    gateCurrent = pnp*diode.calculateCurrent(pnp*(volts[0]-volts[1]));
 	}
@@ -204,4 +204,6 @@ class LampElm extends CircuitElm {
 	    return x == Scope.VAL_R;
 	}
 
+	// we integrate our state with a simple Euler step, so longer steps would lose accuracy
+	boolean needsFixedTimeStep() { return true; }
     }
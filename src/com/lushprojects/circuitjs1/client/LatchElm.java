@@ -65,6 +65,7 @@ class LatchElm extends ChipElm {
 	lastLoad = pins[loadPin].value;
     }
     int getVoltageSourceCount() { return bits; }
+    boolean isLogicChip() { return true; }
     int getPostCount() { return bits*2+1; }
     int getDumpType() { return 168; }
     public EditInfo getChipEditInfo(int n) {
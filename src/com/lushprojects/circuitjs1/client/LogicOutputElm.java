@@ -80,6 +80,7 @@ package com.lushprojects.circuitjs1.client;
 		sim.stampResistor(nodes[0], 0, 1e6);
 	}
 	double getVoltageDiff() { return volts[0]; }
+	boolean isHighImpedanceInput(int n) { return !needsPullDown(); }
 	void getInfo(String arr[]) {
 	    arr[0] = "logic output";
 	    arr[1] = (volts[0] < threshold) ? "low" : "high";
@@ -0,0 +1,455 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+// Simulates the pure logic parts of a circuit outside of the matrix.  Gates and chips have
+// voltage sources for outputs, and normally we update all of them in doStep() and solve the
+// matrix every time step, even if nothing is switching.  But if a node is driven by a logic
+// output and everything else on it is a logic input (or a wire, probe, etc.), nothing in the
+// matrix depends on it, so we can take the node and the voltage source driving it out of the
+// matrix, and set its voltage ourselves.  A logic element whose outputs all go to nodes like
+// that is evaluated here, and only when one of its inputs changes.
+//
+// Inputs on analog nodes are fine; we check those for changes every subiteration.  Outputs
+// that go to analog nodes aren't, so elements with outputs like that stay in the matrix.
+// stamp() makes our nodes constant rows of the matrix, so analog elements can still read
+// them, and applySolvedRightSide() leaves them to show(), which only updates the ones that
+// changed.
+class LogicSimulator {
+    // gate delay, in calls to step().  doStep() sees the node voltages from the last time the
+    // matrix was solved, so in the matrix a gate's output changes one solve after its inputs
+    // (one time step, unless the circuit is nonlinear).  We do the same so we get the same
+    // results.  So the "wheel" is really just a one-step delay buffer: every element has the
+    // same delay, there are no per-gate propagation delays (the elements don't have any to
+    // give us), and step() still runs every subiteration to look at the analog inputs, even
+    // though it only evaluates elements whose inputs changed.
+    static final int DELAY = 1;
+    static final int WHEEL_SIZE = DELAY+1;
+
+    CirSim sim;
+
+    // our elements, in elmList order, and which entries of elmList they are
+    CircuitElm elms[];
+    boolean isLogicElm[];
+    // for each element, its output posts and the node (index into nodes) each one drives
+    int outputPosts[][], outputNodes[][];
+    // the voltage sources for all of their outputs
+    int voltSources[];
+
+    // the nodes we drive, their voltages, and the elements that read each one
+    int nodes[];
+    CircuitNode circuitNodes[];
+    double values[];
+    // the voltage each node will have after the events on the wheel
+    double scheduledValues[];
+    int fanout[][];
+    // nodes we changed that the elements haven't seen yet, because the matrix hasn't been
+    // solved since
+    int pending[], pendingCount;
+    boolean isPending[];
+    // matrix rows of our nodes and voltage sources
+    boolean isLogicRow[];
+
+    // analog nodes read by our elements, the voltages we last saw, and the elements that read them
+    int inputNodes[];
+    double inputValues[];
+    int inputFanout[][];
+
+    // node changes for each of the next WHEEL_SIZE time steps
+    int eventNodes[][];
+    double eventValues[][];
+    int eventCount[];
+
+    // elements to evaluate next time step
+    int dirty[], dirtyCount;
+    boolean isDirty[];
+    int evalList[];
+    // evaluate everything for this many more time steps
+    int evalAllSteps;
+
+    int stepCount;
+    // the current time step and the one before
+    double stepTime = Double.NaN, lastStepTime = Double.NaN;
+    RowInfo lastRowInfo;
+    long evalCount;
+
+    static boolean isLogicElm(CircuitElm ce) {
+	if (ce instanceof GateElm)
+	    return true;
+	return (ce instanceof ChipElm) && ((ChipElm) ce).isLogicChip();
+    }
+
+    static boolean isOutput(CircuitElm ce, int post) {
+	if (ce instanceof GateElm)
+	    return post == ((GateElm) ce).inputCount;
+	return ((ChipElm) ce).pins[post].output;
+    }
+
+    static int getVoltSource(CircuitElm ce, int post) {
+	if (ce instanceof GateElm)
+	    return ce.voltSource;
+	return ((ChipElm) ce).pins[post].voltSource;
+    }
+
+    // find the logic in sim's circuit.  call this after the nodes and voltage sources have
+    // been allocated.  returns null if there's nothing for us to do.
+    static LogicSimulator create(CirSim sim) {
+	int i, j;
+	int nodeCount = sim.nodeList.size();
+	HashMap<CircuitElm,Integer> candidates = new HashMap<CircuitElm,Integer>();
+	for (i = 0; i != sim.elmList.size(); i++) {
+	    CircuitElm ce = sim.getElm(i);
+	    if (isLogicElm(ce))
+		candidates.put(ce, i);
+	}
+	if (candidates.isEmpty())
+	    return null;
+
+	// a node is ours if exactly one logic output drives it, and everything else on it is a
+	// high impedance input
+	boolean digital[] = new boolean[nodeCount];
+	for (i = 1; i < nodeCount; i++) {
+	    CircuitNode cn = sim.getCircuitNode(i);
+	    if (cn.internal)
+		continue;
+	    int drivers = 0;
+	    boolean ok = true;
+	    for (j = 0; j != cn.links.size(); j++) {
+		CircuitNodeLink cnl = cn.links.get(j);
+		if (candidates.containsKey(cnl.elm) && isOutput(cnl.elm, cnl.num))
+		    drivers++;
+		else if (!cnl.elm.isHighImpedanceInput(cnl.num))
+		    ok = false;
+	    }
+	    digital[i] = ok && drivers == 1;
+	}
+
+	// an element is ours if all of its outputs are
+	Vector<CircuitElm> elmList = new Vector<CircuitElm>();
+	boolean isLogicElm[] = new boolean[sim.elmList.size()];
+	for (i = 0; i != sim.elmList.size(); i++) {
+	    CircuitElm ce = sim.getElm(i);
+	    if (!candidates.containsKey(ce))
+		continue;
+	    boolean ok = true;
+	    for (j = 0; j != ce.getPostCount(); j++)
+		if (isOutput(ce, j) && !digital[ce.getNode(j)])
+		    ok = false;
+	    if (ok) {
+		elmList.add(ce);
+		isLogicElm[i] = true;
+	    }
+	}
+	if (elmList.isEmpty())
+	    return null;
+	LogicSimulator ls = new LogicSimulator();
+	ls.sim = sim;
+	ls.isLogicElm = isLogicElm;
+	ls.init(elmList, nodeCount);
+	return ls;
+    }
+
+    void init(Vector<CircuitElm> elmList, int nodeCount) {
+	int i, j;
+	int n = elmList.size();
+	elms = elmList.toArray(new CircuitElm[n]);
+	outputPosts = new int[n][];
+	outputNodes = new int[n][];
+
+	// number our nodes, in the order of the elements driving them
+	int nodeIndex[] = new int[nodeCount];
+	Arrays.fill(nodeIndex, -1);
+	Vector<Integer> nodeList = new Vector<Integer>();
+	Vector<Integer> vsList = new Vector<Integer>();
+	for (i = 0; i != n; i++) {
+	    CircuitElm ce = elms[i];
+	    int outputs = 0;
+	    for (j = 0; j != ce.getPostCount(); j++)
+		if (isOutput(ce, j))
+		    outputs++;
+	    outputPosts[i] = new int[outputs];
+	    outputNodes[i] = new int[outputs];
+	    outputs = 0;
+	    for (j = 0; j != ce.getPostCount(); j++) {
+		if (!isOutput(ce, j))
+		    continue;
+		int node = ce.getNode(j);
+		nodeIndex[node] = nodeList.size();
+		nodeList.add(node);
+		int vs = getVoltSource(ce, j);
+		vsList.add(vs);
+		// the matrix won't tell us the current any more, but it's zero anyway
+		ce.setCurrent(vs, 0);
+		outputPosts[i][outputs] = j;
+		outputNodes[i][outputs++] = nodeIndex[node];
+	    }
+	}
+	nodes = toArray(nodeList);
+	voltSources = toArray(vsList);
+	circuitNodes = new CircuitNode[nodes.length];
+	isLogicRow = new boolean[nodeCount-1+sim.voltageSourceCount];
+	for (i = 0; i != nodes.length; i++) {
+	    circuitNodes[i] = sim.getCircuitNode(nodes[i]);
+	    isLogicRow[nodes[i]-1] = true;
+	    isLogicRow[nodeCount-1+voltSources[i]] = true;
+	}
+	values = new double[nodes.length];
+	scheduledValues = new double[nodes.length];
+	pending = new int[nodes.length];
+	isPending = new boolean[nodes.length];
+
+	// find the elements reading each node.  we don't need to watch the ground node
+	Vector<Vector<Integer>> fanoutList = new Vector<Vector<Integer>>();
+	for (i = 0; i != nodes.length; i++)
+	    fanoutList.add(new Vector<Integer>());
+	int inputIndex[] = new int[nodeCount];
+	Arrays.fill(inputIndex, -1);
+	Vector<Integer> inputList = new Vector<Integer>();
+	Vector<Vector<Integer>> inputFanoutList = new Vector<Vector<Integer>>();
+	for (i = 0; i != n; i++) {
+	    CircuitElm ce = elms[i];
+	    for (j = 0; j != ce.getPostCount(); j++) {
+		int node = ce.getNode(j);
+		if (isOutput(ce, j) || node == 0)
+		    continue;
+		Vector<Integer> list;
+		if (nodeIndex[node] >= 0)
+		    list = fanoutList.get(nodeIndex[node]);
+		else {
+		    if (inputIndex[node] < 0) {
+			inputIndex[node] = inputList.size();
+			inputList.add(node);
+			inputFanoutList.add(new Vector<Integer>());
+		    }
+		    list = inputFanoutList.get(inputIndex[node]);
+		}
+		// the same element may read a node on more than one post
+		if (list.isEmpty() || list.lastElement() != i)
+		    list.add(i);
+	    }
+	}
+	fanout = new int[nodes.length][];
+	for (i = 0; i != nodes.length; i++)
+	    fanout[i] = toArray(fanoutList.get(i));
+	inputNodes = toArray(inputList);
+	inputValues = new double[inputNodes.length];
+	Arrays.fill(inputValues, Double.NaN);
+	inputFanout = new int[inputNodes.length][];
+	for (i = 0; i != inputNodes.length; i++)
+	    inputFanout[i] = toArray(inputFanoutList.get(i));
+
+	eventNodes = new int[WHEEL_SIZE][nodes.length];
+	eventValues = new double[WHEEL_SIZE][nodes.length];
+	eventCount = new int[WHEEL_SIZE];
+	dirty = new int[n];
+	evalList = new int[n];
+	isDirty = new boolean[n];
+
+	// doStep() runs on every element every subiteration, so it doesn't matter if some elements
+	// ignore their inputs the first time (like flip-flops that were just loaded).  We have to
+	// evaluate everything twice to get the same results.
+	evalAllSteps = 2;
+    }
+
+    static int[] toArray(Vector<Integer> v) {
+	int a[] = new int[v.size()];
+	int i;
+	for (i = 0; i != a.length; i++)
+	    a[i] = v.get(i);
+	return a;
+    }
+
+    // take our nodes and voltage sources out of the matrix.  call this after stamping the
+    // elements, before simplifyMatrix(), which will drop the rows.  applySolvedRightSide()
+    // gets the voltages of the nodes from ri.value.
+    void stamp(RowInfo ri) {
+	int i;
+	for (i = 0; i != nodes.length; i++) {
+	    int row = nodes[i]-1;
+	    ri.type[row] = RowInfo.ROW_CONST;
+	    ri.value[row] = values[i];
+	    ri.dropRow[row] = true;
+	}
+	int vsBase = sim.nodeList.size()-1;
+	for (i = 0; i != voltSources.length; i++) {
+	    int row = vsBase+voltSources[i];
+	    ri.type[row] = RowInfo.ROW_CONST;
+	    ri.value[row] = 0;
+	    ri.dropRow[row] = true;
+	}
+	lastRowInfo = ri;
+	// stampCircuit() cleared the node voltages
+	invalidate();
+    }
+
+    // which elements still need doStep() called every time step
+    CircuitElm[] getAnalogElms(CircuitElm elmArr[]) {
+	CircuitElm arr[] = new CircuitElm[elmArr.length-elms.length];
+	int i, j = 0;
+	for (i = 0; i != elmArr.length; i++)
+	    if (!isLogicElm[i])
+		arr[j++] = elmArr[i];
+	return arr;
+    }
+
+    void markDirty(int e) {
+	if (!isDirty[e]) {
+	    isDirty[e] = true;
+	    dirty[dirtyCount++] = e;
+	}
+    }
+
+    void markDirty(int list[]) {
+	int i;
+	for (i = 0; i != list.length; i++)
+	    markDirty(list[i]);
+    }
+
+    void markPending(int d) {
+	if (!isPending[d]) {
+	    isPending[d] = true;
+	    pending[pendingCount++] = d;
+	}
+    }
+
+    // the elements' node voltages were set by something else, so set all of ours again after
+    // the next solve
+    void invalidate() {
+	int i;
+	for (i = 0; i != nodes.length; i++)
+	    markPending(i);
+    }
+
+    // called by applySolvedRightSide() after solving the matrix.  sets the voltages of the nodes
+    // that changed, and gets ready to evaluate the elements that read them.
+    void show() {
+	int i, j;
+	double nv[] = sim.nodeVoltages;
+	for (i = 0; i != pendingCount; i++) {
+	    int d = pending[i];
+	    double v = values[d];
+	    nv[nodes[d]-1] = v;
+	    CircuitNode cn = circuitNodes[d];
+	    for (j = 0; j != cn.links.size(); j++) {
+		CircuitNodeLink cnl = cn.links.get(j);
+		cnl.elm.setNodeVoltage(cnl.num, v);
+	    }
+	    isPending[d] = false;
+	    markDirty(fanout[d]);
+	}
+	pendingCount = 0;
+    }
+
+    // change node d to v after DELAY time steps
+    void schedule(int d, double v) {
+	if (v == scheduledValues[d])
+	    return;
+	scheduledValues[d] = v;
+	// the inputs we're looking at are from the last time step
+	int slot = (stepCount-1+DELAY) % WHEEL_SIZE;
+	eventNodes[slot][eventCount[slot]] = d;
+	eventValues[slot][eventCount[slot]++] = v;
+    }
+
+    void evaluate(int e) {
+	CircuitElm ce = elms[e];
+	if (ce instanceof GateElm) {
+	    GateElm g = (GateElm) ce;
+	    // if we skipped the last time step, doStep() would have seen that the output didn't
+	    // change and reset the oscillation count
+	    if (g.lastTime != lastStepTime && g.lastTime != stepTime)
+		g.oscillationCount = 0;
+	    boolean f = g.getOutput();
+	    schedule(outputNodes[e][0], f ? g.highVoltage : 0);
+	    if (g.heldOutput)
+		markDirty(e);
+	} else {
+	    ChipElm chip = (ChipElm) ce;
+	    chip.calcOutputs();
+	    int i;
+	    for (i = 0; i != outputPosts[e].length; i++)
+		schedule(outputNodes[e][i], chip.pins[outputPosts[e][i]].value ? chip.highVoltage : 0);
+	}
+	evalCount++;
+    }
+
+    // called every subiteration, instead of our elements' doStep().  evaluates the elements
+    // whose inputs changed since the last solve, and applies the changes that are due now.
+    void step() {
+	if (sim.t != stepTime) {
+	    lastStepTime = stepTime;
+	    stepTime = sim.t;
+	}
+
+	int i;
+	double nv[] = sim.nodeVoltages;
+	for (i = 0; i != inputNodes.length; i++) {
+	    double v = nv[inputNodes[i]-1];
+	    if (v != inputValues[i]) {
+		inputValues[i] = v;
+		markDirty(inputFanout[i]);
+	    }
+	}
+	if (evalAllSteps > 0) {
+	    evalAllSteps--;
+	    for (i = 0; i != elms.length; i++)
+		markDirty(i);
+	}
+
+	// evaluate in the same order doStep() would be called.  anything marked while we're
+	// doing this is for the next time step.
+	int list[] = dirty;
+	int count = dirtyCount;
+	dirty = evalList;
+	evalList = list;
+	dirtyCount = 0;
+	Arrays.sort(list, 0, count);
+	for (i = 0; i != count; i++) {
+	    int e = list[i];
+	    isDirty[e] = false;
+	    evaluate(e);
+	}
+
+	// the matrix may have been restamped or switched to one for another time step
+	RowInfo ri = sim.circuitRowInfo;
+	if (ri != lastRowInfo) {
+	    for (i = 0; i != nodes.length; i++)
+		ri.value[nodes[i]-1] = values[i];
+	    lastRowInfo = ri;
+	    invalidate();
+	}
+	int slot = stepCount % WHEEL_SIZE;
+	for (i = 0; i != eventCount[slot]; i++) {
+	    int d = eventNodes[slot][i];
+	    double v = eventValues[slot][i];
+	    if (v == values[d])
+		continue;
+	    values[d] = v;
+	    ri.value[nodes[d]-1] = v;
+	    markPending(d);
+	}
+	eventCount[slot] = 0;
+	stepCount++;
+    }
+}
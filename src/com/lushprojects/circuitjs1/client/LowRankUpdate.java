@@ -0,0 +1,288 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// Solves a nonlinear circuit's matrix using the factors of an earlier version of it, when only
+// a few rows have changed since then (a switch or relay flipped, say).  If B is the matrix we
+// factored and A = B + E*D, where E has a column e_r for each changed row r and D holds the
+// changes to those rows, then by the Sherman-Morrison-Woodbury formula
+//
+//   inverse(A)*b = y - W*inverse(I + D*W)*D*y,   where y = inverse(B)*b and W = inverse(B)*E
+//
+// so with k changed rows we only need to factor a k x k matrix instead of the whole thing.
+// The columns of W only depend on B, so we keep them until B is factored again.
+//
+// This gets inaccurate when A is far from B (a diode that was off in B is on now, say).  Then
+// I + D*W is badly conditioned, and y and W*z are huge and nearly cancel.  So update() gives up
+// if the small matrix has a tiny pivot, and solve() checks the result (see checkSolution())
+// and returns false if it isn't good enough, and the caller factors A instead.
+class LowRankUpdate {
+    CirSim sim;
+    int size;
+    int maxRank;
+
+    // rows of B that were different from origMatrix, with their values.  baseRowSlot gives
+    // the index of each row in baseRows, or -1
+    boolean hasBase;
+    int baseRowCount;
+    int baseRows[];
+    double baseRowValues[][];
+    int baseRowSlot[];
+
+    // rows that are different from B now, and the differences (D)
+    int rank;
+    int rows[];
+    double changes[][];
+
+    // inverse(B)*e_r for each row r we've needed so far
+    double inverseColumns[][];
+    int inverseRows[];
+    int inverseCount;
+
+    double capMatrix[][];
+    int capPermute[];
+    double capRightSide[];
+    double rowValues[], origRowValues[];
+    boolean rowChecked[];
+    // copy of the right side we were asked to solve for, in case the update fails
+    double savedRightSide[];
+
+    // give up if a pivot of I + D*W is smaller than this relative to its largest entry
+    static final double PIVOT_TOL = 1e-10;
+    // give up if the residual of a changed row is bigger than this relative to its terms
+    static final double RESIDUAL_TOL = 1e-8;
+    // give up if the correction W*z is this much bigger than the solution, since we'd have
+    // lost that many digits to cancellation
+    static final double CANCEL_LIMIT = 1e6;
+
+    int updateCount, factorCount, rejectCount;
+
+    LowRankUpdate(CirSim s, int n, int maxRank_) {
+	sim = s;
+	size = n;
+	maxRank = maxRank_;
+	baseRows = new int[maxRank*4];
+	baseRowValues = new double[maxRank*4][];
+	baseRowSlot = new int[n];
+	rows = new int[maxRank];
+	changes = new double[maxRank][];
+	inverseColumns = new double[n][];
+	inverseRows = new int[n];
+	capMatrix = new double[maxRank][maxRank];
+	capPermute = new int[maxRank];
+	capRightSide = new double[maxRank];
+	rowValues = new double[n];
+	origRowValues = new double[n];
+	rowChecked = new boolean[n];
+	savedRightSide = new double[n];
+	int i;
+	for (i = 0; i != n; i++)
+	    baseRowSlot[i] = -1;
+    }
+
+    // forget B (after origMatrix changes, for example)
+    void reset() {
+	int i;
+	for (i = 0; i != baseRowCount; i++)
+	    baseRowSlot[baseRows[i]] = -1;
+	baseRowCount = 0;
+	for (i = 0; i != inverseCount; i++)
+	    inverseColumns[inverseRows[i]] = null;
+	inverseCount = 0;
+	hasBase = false;
+	rank = 0;
+    }
+
+    // the matrix was just factored.  remember the rows that were changed from origMatrix, so
+    // we can tell what changed next time.  If there are a lot of them, don't bother.
+    void setBase(int changedRows[], int count) {
+	reset();
+	factorCount++;
+	if (count > baseRows.length)
+	    return;
+	int i;
+	for (i = 0; i != count; i++) {
+	    int r = changedRows[i];
+	    if (baseRowValues[i] == null)
+		baseRowValues[i] = new double[size];
+	    sim.getMatrixRow(r, false, baseRowValues[i]);
+	    baseRows[i] = r;
+	    baseRowSlot[r] = i;
+	}
+	baseRowCount = count;
+	hasBase = true;
+    }
+
+    // find the differences between the current matrix and B, and set up the update.  changedRows
+    // are the rows that are different from origMatrix now.  returns false if the matrix needs
+    // to be factored again.
+    boolean update(int changedRows[], int count) {
+	rank = 0;
+	if (!hasBase)
+	    return false;
+	int i, j, a, b;
+	boolean ok = true;
+	for (i = 0; i != count && ok; i++) {
+	    int r = changedRows[i];
+	    rowChecked[r] = true;
+	    sim.getMatrixRow(r, false, rowValues);
+	    int slot = baseRowSlot[r];
+	    if (slot >= 0)
+		ok = addChange(r, rowValues, baseRowValues[slot]);
+	    else {
+		sim.getMatrixRow(r, true, origRowValues);
+		ok = addChange(r, rowValues, origRowValues);
+	    }
+	}
+	// rows which were changed in B but have been restored from origMatrix since
+	for (i = 0; i != baseRowCount && ok; i++) {
+	    int r = baseRows[i];
+	    if (rowChecked[r])
+		continue;
+	    sim.getMatrixRow(r, true, origRowValues);
+	    ok = addChange(r, origRowValues, baseRowValues[i]);
+	}
+	for (i = 0; i != count; i++)
+	    rowChecked[changedRows[i]] = false;
+	if (!ok) {
+	    rank = 0;
+	    return false;
+	}
+	if (rank == 0) {
+	    updateCount++;
+	    return true;
+	}
+
+	// build I + D*W and factor it
+	double largest = 0;
+	for (b = 0; b != rank; b++) {
+	    double w[] = getInverseColumn(rows[b]);
+	    for (a = 0; a != rank; a++) {
+		double d[] = changes[a];
+		double tot = (a == b) ? 1 : 0;
+		for (j = 0; j != size; j++)
+		    tot += d[j]*w[j];
+		capMatrix[a][b] = tot;
+		largest = Math.max(largest, Math.abs(tot));
+	    }
+	}
+	if (!CirSim.lu_factor(capMatrix, rank, capPermute)) {
+	    rank = 0;
+	    return false;
+	}
+	// a tiny pivot means it's close to singular, and the update would be mostly rounding error
+	for (a = 0; a != rank; a++)
+	    if (!(Math.abs(capMatrix[a][a]) >= PIVOT_TOL*largest)) {
+		rejectCount++;
+		rank = 0;
+		return false;
+	    }
+	updateCount++;
+	return true;
+    }
+
+    // add row r to the update if cur and base are different
+    boolean addChange(int r, double cur[], double base[]) {
+	int j;
+	for (j = 0; j != size; j++)
+	    if (cur[j] != base[j])
+		break;
+	if (j == size)
+	    return true;
+	if (rank == maxRank)
+	    return false;
+	if (changes[rank] == null)
+	    changes[rank] = new double[size];
+	double d[] = changes[rank];
+	for (j = 0; j != size; j++)
+	    d[j] = cur[j]-base[j];
+	rows[rank++] = r;
+	return true;
+    }
+
+    double[] getInverseColumn(int r) {
+	if (inverseColumns[r] != null)
+	    return inverseColumns[r];
+	double col[] = new double[size];
+	col[r] = 1;
+	sim.solveFactoredMatrix(col);
+	inverseColumns[r] = col;
+	inverseRows[inverseCount++] = r;
+	return col;
+    }
+
+    // solve the updated matrix.  b is replaced with the solution.  returns false if the
+    // solution isn't accurate enough, in which case b is left as it was and the matrix has to
+    // be factored
+    boolean solve(double b[]) {
+	int a, j;
+	System.arraycopy(b, 0, savedRightSide, 0, size);
+	sim.solveFactoredMatrix(b);
+	for (a = 0; a != rank; a++) {
+	    double d[] = changes[a];
+	    double tot = 0;
+	    for (j = 0; j != size; j++)
+		tot += d[j]*b[j];
+	    capRightSide[a] = tot;
+	}
+	CirSim.lu_solve(capMatrix, rank, capPermute, capRightSide);
+	double largestY = 0;
+	for (j = 0; j != size; j++)
+	    largestY = Math.max(largestY, Math.abs(b[j]));
+	for (a = 0; a != rank; a++) {
+	    double w[] = inverseColumns[rows[a]];
+	    double z = capRightSide[a];
+	    for (j = 0; j != size; j++)
+		b[j] -= w[j]*z;
+	}
+	if (checkSolution(b, largestY))
+	    return true;
+	rejectCount++;
+	System.arraycopy(savedRightSide, 0, b, 0, size);
+	return false;
+    }
+
+    // B*x = b - E*z (as well as B's factors can tell), so A*x - b = E*(D*x - z), which means
+    // the changed rows are the only ones with any residual to speak of.  We can check those
+    // with what we already have.  largestY is the biggest entry of inverse(B)*b
+    boolean checkSolution(double x[], double largestY) {
+	int a, j;
+	double largestX = 0;
+	for (j = 0; j != size; j++) {
+	    if (Double.isNaN(x[j]))
+		return false;
+	    largestX = Math.max(largestX, Math.abs(x[j]));
+	}
+	if (largestY > CANCEL_LIMIT*largestX)
+	    return false;
+	for (a = 0; a != rank; a++) {
+	    double d[] = changes[a];
+	    double z = capRightSide[a];
+	    double tot = -z, scale = Math.abs(z);
+	    for (j = 0; j != size; j++) {
+		tot += d[j]*x[j];
+		scale += Math.abs(d[j]*x[j]);
+	    }
+	    if (Math.abs(tot) > RESIDUAL_TOL*scale)
+		return false;
+	}
+	return true;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// Buffers for stamping and simplifying the circuit matrix.  stampCircuit() runs every time the
+// circuit changes (and every time runCircuit() changes the time step), and allocating all of
+// these again each time makes a lot of garbage for big circuits.  So we keep them around and
+// only reallocate when the matrix gets bigger than it's been before.
+class MatrixWorkspace {
+    // the full matrix, as stamped by the elements
+    SparseMatrix stampMatrix;
+    double stampRightSide[];
+    RowInfo rowInfo = new RowInfo();
+
+    // the simplified matrix.  origRightSide is allocated with the full size since stampCircuit()
+    // needs it before we know the simplified size
+    double rightSide[], origRightSide[];
+    double matrix[][], origMatrix[][];
+    DenseLU denseLU;
+    SparseMatrix sparseMatrix, origSparseMatrix;
+    int changedRows[];
+    boolean rowChanged[];
+
+    // scratch space for simplifyMatrix()
+    int nonZeroCount[], colStart[], colRows[], colFill[], worklist[];
+
+    CirSim sim;
+
+    MatrixWorkspace(CirSim s) {
+	sim = s;
+    }
+
+    // get ready to stamp a matrix of size n
+    void startStamp(int n) {
+	if (stampMatrix == null) {
+	    stampMatrix = new SparseMatrix(n);
+	    sparseMatrix = new SparseMatrix(n);
+	    origSparseMatrix = new SparseMatrix(n);
+	} else
+	    stampMatrix.reset(n);
+	stampRightSide = zero(stampRightSide, n);
+	origRightSide = zero(origRightSide, n);
+	rowInfo.reset(n);
+	nonZeroCount = zero(nonZeroCount, n);
+	colStart = zero(colStart, n+1);
+	colFill = zero(colFill, n);
+	if (worklist == null || worklist.length < n*2)
+	    worklist = new int[n*2];
+    }
+
+    // get ready for a simplified matrix of size n.  The dense matrix is cleared, the sparse one
+    // is emptied
+    void startSimplified(int n, boolean sparse) {
+	if (rightSide == null || rightSide.length < n) {
+	    rightSide = new double[n];
+	    changedRows = new int[n];
+	    rowChanged = new boolean[n];
+	} else {
+	    int i;
+	    for (i = 0; i != n; i++)
+		rowChanged[i] = false;
+	}
+	if (sparse) {
+	    sparseMatrix.reset(n);
+	    return;
+	}
+	if (matrix == null || matrix.length < n) {
+	    matrix = new double[n][n];
+	    origMatrix = new double[n][n];
+	    denseLU = sim.createDenseLU(n);
+	} else {
+	    int i, j;
+	    for (i = 0; i != n; i++) {
+		double row[] = matrix[i];
+		for (j = 0; j != n; j++)
+		    row[j] = 0;
+	    }
+	}
+    }
+
+    // make sure colRows can hold n entries
+    void setColRowsSize(int n) {
+	if (colRows == null || colRows.length < n)
+	    colRows = new int[n];
+    }
+
+    static double[] zero(double a[], int n) {
+	if (a == null || a.length < n)
+	    return new double[n];
+	int i;
+	for (i = 0; i != n; i++)
+	    a[i] = 0;
+	return a;
+    }
+
+    static int[] zero(int a[], int n) {
+	if (a == null || a.length < n)
+	    return new int[n];
+	int i;
+	for (i = 0; i != n; i++)
+	    a[i] = 0;
+	return a;
+    }
+}
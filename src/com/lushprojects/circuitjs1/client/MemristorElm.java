@@ -155,5 +155,8 @@ class MemristorElm extends CircuitElm {
 	if (n == 4)
 	    mobility = ei.value*1e-12;
     }
+
+    // we integrate our state with a simple Euler step, so longer steps would lose accuracy
+    boolean needsFixedTimeStep() { return true; }
 }
 
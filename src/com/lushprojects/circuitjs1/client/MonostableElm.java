@@ -105,4 +105,7 @@ package com.lushprojects.circuitjs1.client;
 	    }
 	    super.setChipEditValue(n, ei);
 	}
+
+	// our delay is only as precise as the time step
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -100,6 +100,7 @@ class MosfetElm extends CircuitElm {
 	    diodeB2.reset();
 	    if (doBodyDiode())
 		volts[bodyTerminal] = 0;
+	    bypassSource = 0;
 	}
 	String dump() {
 	    return super.dump() + " " + vt + " " + beta;
@@ -280,8 +281,15 @@ class MosfetElm extends CircuitElm {
 	double ids;
 	int mode = 0;
 	double gm = 0;
+	// the last model evaluation doStep() stamped, and the voltages it was for, so we can use
+	// it again if they've hardly changed (see CirSim.deviceBypass).  bypassSource is 0 if
+	// there isn't one
+	double bypassVgs, bypassVds, bypassIds, bypassGm, bypassGds;
+	int bypassSource, bypassMode;
+	long evalCount, bypassCount;
 	
 	void stamp() {
+	    bypassSource = 0;
 	    sim.stampNonLinear(nodes[1]);
 	    sim.stampNonLinear(nodes[2]);
 	    
@@ -380,28 +388,52 @@ class MosfetElm extends CircuitElm {
 	    double realvds = vds;
 	    vgs *= pnp;
 	    vds *= pnp;
-	    ids = 0;
-	    gm = 0;
 	    double Gds = 0;
-	    if (vgs < vt) {
-		// should be all zero, but that causes a singular matrix,
-		// so instead we treat it as a large resistor
-		Gds = 1e-8;
-		ids = vds*Gds;
-		mode = 0;
-	    } else if (vds < vgs-vt) {
-		// linear
-		ids = beta*((vgs-vt)*vds - vds*vds*.5);
-		gm  = beta*vds;
-		Gds = beta*(vgs-vds-vt);
-		mode = 1;
+	    if (!finished && sim.deviceBypass && source == bypassSource &&
+		Math.abs(realvgs-bypassVgs) < CirSim.BYPASS_VOLTAGE_TOL &&
+		Math.abs(realvds-bypassVds) < CirSim.BYPASS_VOLTAGE_TOL) {
+		// close enough to where we last evaluated the model that its linearization is
+		// still good, so stamp that again
+		bypassCount++;
+		realvgs = bypassVgs;
+		realvds = bypassVds;
+		ids = bypassIds;
+		gm = bypassGm;
+		Gds = bypassGds;
+		mode = bypassMode;
 	    } else {
-		// saturation; Gds = 0
-		gm  = beta*(vgs-vt);
-		// use very small Gds to avoid nonconvergence
-		Gds = 1e-8;
-		ids = .5*beta*(vgs-vt)*(vgs-vt) + (vds-(vgs-vt))*Gds;
-		mode = 2;
+		ids = 0;
+		gm = 0;
+		if (vgs < vt) {
+		    // should be all zero, but that causes a singular matrix,
+		    // so instead we treat it as a large resistor
+		    Gds = 1e-8;
+		    ids = vds*Gds;
+		    mode = 0;
+		} else if (vds < vgs-vt) {
+		    // linear
+		    ids = beta*((vgs-vt)*vds - vds*vds*.5);
+		    gm  = beta*vds;
+		    Gds = beta*(vgs-vds-vt);
+		    mode = 1;
+		} else {
+		    // saturation; Gds = 0
+		    gm  = beta*(vgs-vt);
+		    // use very small Gds to avoid nonconvergence
+		    Gds = 1e-8;
+		    ids = .5*beta*(vgs-vt)*(vgs-vt) + (vds-(vgs-vt))*Gds;
+		    mode = 2;
+		}
+		if (!finished) {
+		    evalCount++;
+		    bypassVgs = realvgs;
+		    bypassVds = realvds;
+		    bypassIds = ids;
+		    bypassGm = gm;
+		    bypassGds = Gds;
+		    bypassMode = mode;
+		    bypassSource = source;
+		}
 	    }
 	    
 	    if (doBodyDiode()) {
@@ -435,6 +467,15 @@ class MosfetElm extends CircuitElm {
 	    sim.stampRightSide(nodes[source], -rs);
 	}
 	
+	void getBypassCounts(long counts[]) {
+	    counts[0] += evalCount;
+	    counts[1] += bypassCount;
+	    diodeB1.getBypassCounts(counts);
+	    diodeB2.getBypassCounts(counts);
+	}
+	
+	boolean usePredictedVoltages() { return true; }
+	
 	void getFetInfo(String arr[], String n) {
 	    arr[0] = Locale.LS(((pnp == -1) ? "p-" : "n-") + n);
 	    arr[0] += " (Vt=" + getVoltageText(pnp*vt);
@@ -87,6 +87,7 @@ package com.lushprojects.circuitjs1.client;
 	    return outputCount + selectBitCount + 1 + (hasFlag(FLAG_INVERTED_OUTPUT) ? 1 : 0) + (hasFlag(FLAG_STROBE) ? 1 : 0);
 	}
 	int getVoltageSourceCount() {return hasFlag(FLAG_INVERTED_OUTPUT) ? 2 : 1;}
+	boolean isLogicChip() { return true; }
 
 	void execute() {
 	    int selectedValue=0;
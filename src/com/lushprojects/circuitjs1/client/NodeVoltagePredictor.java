@@ -0,0 +1,133 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// Guesses the node voltages at the end of the next time step by extrapolating from the last
+// two steps' solutions, so nonlinear devices can start their first subiteration there instead
+// of at the last step's solution (see CirSim.predictNodeVoltages()).  A node that's slewing
+// quickly then needs fewer subiterations to catch up.  We extrapolate linearly; a quadratic
+// through three solutions overshoots at every corner, and took more subiterations than a
+// straight line on most of the examples.
+//
+// Newton only converges to within its tolerance, and where it ends up in that range depends on
+// where it started, so predicting shifts the results within the Newton tolerance.  Usually
+// that's too small to notice, but a circuit that's switching or oscillating can amplify it:
+// when peak-detect or vilnius chatter, their waveforms move by more than 100%.  A bad guess
+// also costs subiterations, which can be more than it saves when waveforms have lots of
+// corners.  So we keep running averages of the subiterations steps take with and without a
+// prediction (doing a step without one every PROBE_INTERVAL steps, so we know what we're
+// comparing with), and stop predicting for a while when predicting is worse.
+class NodeVoltagePredictor {
+    static final int PROBE_INTERVAL = 16;
+    static final int HOLD_OFF_STEPS = 256;
+
+    // the solution one step before CirSim.lastNodeVoltages, and the length of that step
+    double past[];
+    double pastStep;
+    // how many of lastNodeVoltages and past we have
+    int count;
+
+    // whether the step we're solving started from a prediction
+    boolean predicting;
+    // average subiterations per step with and without a prediction (-1 if we don't know yet)
+    double predictedAverage = -1, plainAverage = -1;
+    int sinceProbe, holdOff;
+    // for statistics
+    long predictedSteps;
+
+    void reset() {
+	count = 0;
+	predicting = false;
+	predictedAverage = plainAverage = -1;
+	sinceProbe = holdOff = 0;
+    }
+
+    // runCircuit() landed on a breakpoint, so the older solution is on the other side of a
+    // corner.  keep only the one we're about to save
+    void restart() {
+	count = 1;
+    }
+
+    // a step of length h was accepted.  call this with lastNodeVoltages before they're replaced
+    // with the new solution
+    void add(double last[], double h) {
+	if (count == 0) {
+	    // last isn't a solution, just whatever the nodes started at
+	    count = 1;
+	    return;
+	}
+	if (past == null || past.length != last.length)
+	    past = new double[last.length];
+	System.arraycopy(last, 0, past, 0, last.length);
+	pastStep = h;
+	count = 2;
+    }
+
+    // decide whether to use a prediction for the step we're about to solve
+    boolean startStep() {
+	predicting = false;
+	if (count < 2)
+	    return false;
+	if (holdOff > 0) {
+	    holdOff--;
+	    return false;
+	}
+	if (plainAverage < 0 || sinceProbe >= PROBE_INTERVAL) {
+	    sinceProbe = 0;
+	    return false;
+	}
+	sinceProbe++;
+	predicting = true;
+	return true;
+    }
+
+    // the voltage of node n at the end of a step of length h.  v is its value now
+    // (lastNodeVoltages[n])
+    double predict(int n, double v, double h) {
+	return v + (v-past[n])*h/pastStep;
+    }
+
+    static double average(double avg, int x) {
+	return (avg < 0) ? x : avg + (x-avg)/8;
+    }
+
+    // the step we started with startStep() converged after subiter subiterations
+    void stepDone(int subiter) {
+	if (!predicting) {
+	    plainAverage = average(plainAverage, subiter);
+	    return;
+	}
+	predictedSteps++;
+	predictedAverage = average(predictedAverage, subiter);
+	if (predictedAverage > plainAverage)
+	    stopPredicting();
+    }
+
+    // the step we started with startStep() didn't converge
+    void stepFailed() {
+	if (predicting)
+	    stopPredicting();
+    }
+
+    void stopPredicting() {
+	holdOff = HOLD_OFF_STEPS;
+	predictedAverage = -1;
+    }
+}
@@ -35,7 +35,7 @@ package com.lushprojects.circuitjs1.client;
 	    gbw = 1e6;
            flags = FLAG_GAIN; // need to do this before setSize()
 	    gain = 100000;
-           setSize(sim.smallGridCheckItem.getState() ? 1 : 2);
+           setSize((!CirSim.headless && sim.smallGridCheckItem.getState()) ? 1 : 2);
 	}
 	public OpAmpElm(int xa, int ya, int xb, int yb, int f,
 			StringTokenizer st) {
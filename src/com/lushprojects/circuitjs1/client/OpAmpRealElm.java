@@ -91,6 +91,8 @@ public class OpAmpRealElm extends CompositeElm {
 	case MODEL_324: init324(); break;
 	case MODEL_324v2: init324v2(); break;
 	}
+	// the base constructor allocated nodes before we knew how many posts we have
+	allocNodes();
 	curCounts = new double[5];
 	setPoints();
     }
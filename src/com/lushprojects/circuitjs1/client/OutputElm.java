@@ -70,6 +70,7 @@ class OutputElm extends CircuitElm {
 	    g.restore();
 	}
 	double getVoltageDiff() { return volts[0]; }
+	boolean isHighImpedanceInput(int n) { return true; }
 	void getInfo(String arr[]) {
 	    arr[0] = "output";
 	    arr[1] = "V = " + getVoltageText(volts[0]);
@@ -94,6 +94,7 @@ class PisoShiftElm extends ChipElm {
 	}
 	int getPostCount() { return (hasNewBhvr() ? 4 : 3) + bits; }
 	int getVoltageSourceCount() { return 1; }
+	boolean isLogicChip() { return true; }
 	
 	void execute() {
 		//LOAD raised
@@ -71,6 +71,9 @@ class PotElm extends CircuitElm implements Command, MouseWheelHandler {
     		position + " " + sliderText; }
     
     void createSlider() {
+    	// no UI to put it in; we'll just keep the position we were saved with
+    	if (CirSim.headless)
+    		return;
     	sim.addWidgetToVerticalPanel(label = new Label(sliderText));
     	label.addStyleName("topSpace");
     	int value = (int) Math.round((position-.005)/.0099);
@@ -116,7 +119,8 @@ class PotElm extends CircuitElm implements Command, MouseWheelHandler {
 	dn = distance(point1, point2);
 	int bodyLen = 32;
 	calcLeads(bodyLen);
-	position = slider.getValue() * .0099 + .005;
+	if (slider != null)
+	    position = slider.getValue() * .0099 + .005;
 	int soff = (int) ((position - .5) * bodyLen);
 	// int offset2 = offset - sign(offset)*4;
 	post3 = interpPoint(point1, point2, .5, offset);
@@ -287,6 +287,7 @@ class ProbeElm extends CircuitElm {
 	arr[1] = "Vd = " + getVoltageText(getVoltageDiff());
     }
     boolean getConnection(int n1, int n2) { return (resistance != 0); }
+    boolean isHighImpedanceInput(int n) { return resistance == 0; }
 
     public EditInfo getEditInfo(int n) {
 	if (n == 0) {
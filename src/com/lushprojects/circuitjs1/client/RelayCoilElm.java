@@ -252,6 +252,7 @@ class RelayCoilElm extends CircuitElm {
 	setSwitchPositions();
     }
     
+    void stepFinished() { ind.stepFinished(); }
     void startIteration() {
 	ind.startIteration(volts[nCoil1]-volts[nCoil3]);
 	double absCurrent = Math.abs(coilCurrent);
@@ -378,5 +379,8 @@ class RelayCoilElm extends CircuitElm {
     boolean getConnection(int n1, int n2) {
 	return true;
     }
+
+    // we integrate our state with a simple Euler step, so longer steps would lose accuracy
+    boolean needsFixedTimeStep() { return true; }
 }
     
@@ -306,6 +306,7 @@ class RelayElm extends CircuitElm {
 	    sim.stampNonLinear(nodes[nSwitch0+i]);
     }
     
+    void stepFinished() { ind.stepFinished(); }
     void startIteration() {
 	// using old model?
 	if (switchingTime == 0) {
@@ -520,5 +521,7 @@ class RelayElm extends CircuitElm {
 	super.flipXY(xmy, count);
     }
 
+    // we integrate our state with a simple Euler step, so longer steps would lose accuracy
+    boolean needsFixedTimeStep() { return true; }
 }
     
@@ -66,6 +66,7 @@ package com.lushprojects.circuitjs1.client;
 	}
 	int getPostCount() { return hasClockInhibit() ? bits+3 : bits+2; }
 	int getVoltageSourceCount() { return bits; }
+	boolean isLogicChip() { return true; }
 	void execute() {
 	    int i;
 	    
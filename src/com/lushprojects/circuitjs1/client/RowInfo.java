@@ -19,14 +19,38 @@
 
 package com.lushprojects.circuitjs1.client;
 
-// info about each row/column of the matrix for simplification purposes
+// info about each row/column of the matrix for simplification purposes.  There's one of
+// these for the whole matrix, with an array for each field, so restamping the circuit doesn't
+// have to allocate an object for every row.
     class RowInfo {
 	static final int ROW_NORMAL = 0;  // ordinary value
 	static final int ROW_CONST  = 1;  // value is constant
-	int type, mapCol, mapRow;
-	double value;
-	boolean rsChanges; // row's right side changes
-	boolean lsChanges; // row's left side changes
-	boolean dropRow;   // row is not needed in matrix
-	RowInfo() { type = ROW_NORMAL; }
+	int size;
+	int type[], mapCol[], mapRow[];
+	double value[];
+	boolean rsChanges[]; // row's right side changes
+	boolean lsChanges[]; // row's left side changes
+	boolean dropRow[];   // row is not needed in matrix
+
+	// clear the info for n rows, keeping the arrays if they're big enough
+	void reset(int n) {
+	    size = n;
+	    if (type == null || type.length < n) {
+		type = new int[n];
+		mapCol = new int[n];
+		mapRow = new int[n];
+		value = new double[n];
+		rsChanges = new boolean[n];
+		lsChanges = new boolean[n];
+		dropRow = new boolean[n];
+		return;
+	    }
+	    int i;
+	    for (i = 0; i != n; i++) {
+		type[i] = ROW_NORMAL;
+		mapCol[i] = mapRow[i] = 0;
+		value[i] = 0;
+		rsChanges[i] = lsChanges[i] = dropRow[i] = false;
+	    }
+	}
     }
@@ -0,0 +1,218 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// Solves a nonlinear circuit's matrix by splitting it into linear and nonlinear parts.
+// Rows whose left side never changes in doStep() (and the matching columns) form the
+// linear block A11, and the rest form the nonlinear block:
+//
+//   [ A11 A12 ] [x1]   [b1]
+//   [ A21 A22 ] [x2] = [b2]
+//
+// Only A21 and A22 change from one subiteration to the next, so we factor A11 and compute
+// X = inverse(A11)*A12 once when the circuit is stamped.  Each subiteration then only needs
+// to build and factor the small Schur complement S = A22 - A21*X, and solve
+//
+//   S*x2 = b2 - A21*inverse(A11)*b1,   x1 = inverse(A11)*b1 - X*x2
+//
+// For a big linear network with a few diodes, this is much cheaper than refactoring the
+// whole matrix every time.
+class SchurSolver {
+    int size;
+    int linearCount, nonLinearCount;
+
+    // which rows are in the nonlinear block, and each row's index within its block
+    boolean nonLinearRow[];
+    int blockIndex[];
+
+    // matrix row of each entry in the linear and nonlinear blocks
+    int linearRows[], nonLinearRows[];
+
+    SparseLU linearLU;
+
+    // X = inverse(A11)*A12, one row of length nonLinearCount for each linear row
+    double linearSolved[][];
+
+    SparseMatrix schurMatrix;
+    SparseLU schurLU;
+
+    double linearRightSide[], nonLinearRightSide[];
+
+    // set up the partition for matrix m, factor the linear block, and compute X.  nonLinear
+    // marks the rows that change in doStep().  returns false if the linear block is singular
+    // by itself, in which case this won't work.
+    boolean init(SparseMatrix m, boolean nonLinear[]) {
+	int n = m.size;
+	int i, j, k;
+	size = n;
+	nonLinearRow = nonLinear;
+	moveEmptyRows(m);
+	blockIndex = new int[n];
+	linearCount = nonLinearCount = 0;
+	for (i = 0; i != n; i++)
+	    blockIndex[i] = nonLinear[i] ? nonLinearCount++ : linearCount++;
+	linearRows = new int[linearCount];
+	nonLinearRows = new int[nonLinearCount];
+	for (i = 0; i != n; i++) {
+	    if (nonLinear[i])
+		nonLinearRows[blockIndex[i]] = i;
+	    else
+		linearRows[blockIndex[i]] = i;
+	}
+
+	// factor A11, and gather the columns of A12 as we go
+	SparseMatrix a11 = new SparseMatrix(linearCount);
+	linearSolved = new double[linearCount][nonLinearCount];
+	double a12[][] = new double[nonLinearCount][linearCount];
+	for (i = 0; i != linearCount; i++) {
+	    int row = linearRows[i];
+	    int cols[] = m.rowColumns[row];
+	    double vals[] = m.rowValues[row];
+	    for (j = 0; j != m.rowLength[row]; j++) {
+		int c = cols[j];
+		if (nonLinear[c])
+		    a12[blockIndex[c]][i] += vals[j];
+		else
+		    a11.add(i, blockIndex[c], vals[j]);
+	    }
+	}
+	linearLU = new SparseLU(linearCount);
+	if (linearCount > 0 && !linearLU.factor(a11))
+	    return false;
+
+	// solve for X one column at a time
+	for (k = 0; k != nonLinearCount; k++) {
+	    double col[] = a12[k];
+	    if (linearCount > 0)
+		linearLU.solve(col);
+	    for (i = 0; i != linearCount; i++)
+		linearSolved[i][k] = col[i];
+	}
+
+	schurMatrix = new SparseMatrix(nonLinearCount);
+	schurLU = new SparseLU(nonLinearCount);
+	linearRightSide = new double[linearCount];
+	nonLinearRightSide = new double[nonLinearCount];
+	return true;
+    }
+
+    // a row or column of the linear block with no nonzero entries makes it singular.  This
+    // happens all the time, for example with a voltage source connected only to nonlinear nodes.
+    // So move those into the nonlinear block, and repeat until there aren't any left.
+    void moveEmptyRows(SparseMatrix m) {
+	int n = m.size;
+	int rowCount[] = new int[n];
+	int colCount[] = new int[n];
+	int i, j;
+	boolean changed = true;
+	while (changed) {
+	    changed = false;
+	    for (i = 0; i != n; i++)
+		rowCount[i] = colCount[i] = 0;
+	    for (i = 0; i != n; i++) {
+		if (nonLinearRow[i])
+		    continue;
+		int cols[] = m.rowColumns[i];
+		double vals[] = m.rowValues[i];
+		for (j = 0; j != m.rowLength[i]; j++) {
+		    int c = cols[j];
+		    if (nonLinearRow[c] || vals[j] == 0)
+			continue;
+		    rowCount[i]++;
+		    colCount[c]++;
+		}
+	    }
+	    for (i = 0; i != n; i++)
+		if (!nonLinearRow[i] && (rowCount[i] == 0 || colCount[i] == 0)) {
+		    nonLinearRow[i] = true;
+		    changed = true;
+		}
+	}
+    }
+
+    // build the Schur complement from the current values of the nonlinear rows of m, and
+    // factor it.  returns false if it's singular
+    boolean factor(SparseMatrix m) {
+	int a, j, b;
+	SparseMatrix s = schurMatrix;
+	s.clear();
+	for (a = 0; a != nonLinearCount; a++) {
+	    int row = nonLinearRows[a];
+	    int cols[] = m.rowColumns[row];
+	    double vals[] = m.rowValues[row];
+	    for (j = 0; j != m.rowLength[row]; j++) {
+		int c = cols[j];
+		double v = vals[j];
+		if (nonLinearRow[c]) {
+		    s.add(a, blockIndex[c], v);
+		    continue;
+		}
+		if (v == 0)
+		    continue;
+		// subtract A21 entry times the corresponding row of X
+		double x[] = linearSolved[blockIndex[c]];
+		for (b = 0; b != nonLinearCount; b++)
+		    if (x[b] != 0)
+			s.add(a, b, -v*x[b]);
+	    }
+	}
+	if (nonLinearCount == 0)
+	    return true;
+	return schurLU.factor(s);
+    }
+
+    // solve the system using the current factors.  b is the right side of the full
+    // matrix, and is replaced with the solution
+    void solve(SparseMatrix m, double b[]) {
+	int i, j, a;
+	double y1[] = linearRightSide;
+	double y2[] = nonLinearRightSide;
+	for (i = 0; i != linearCount; i++)
+	    y1[i] = b[linearRows[i]];
+	if (linearCount > 0)
+	    linearLU.solve(y1);
+
+	// right side of the Schur complement system
+	for (a = 0; a != nonLinearCount; a++) {
+	    int row = nonLinearRows[a];
+	    double tot = b[row];
+	    int cols[] = m.rowColumns[row];
+	    double vals[] = m.rowValues[row];
+	    for (j = 0; j != m.rowLength[row]; j++) {
+		int c = cols[j];
+		if (!nonLinearRow[c])
+		    tot -= vals[j]*y1[blockIndex[c]];
+	    }
+	    y2[a] = tot;
+	}
+	if (nonLinearCount > 0)
+	    schurLU.solve(y2);
+
+	for (a = 0; a != nonLinearCount; a++)
+	    b[nonLinearRows[a]] = y2[a];
+	for (i = 0; i != linearCount; i++) {
+	    double x[] = linearSolved[i];
+	    double tot = y1[i];
+	    for (a = 0; a != nonLinearCount; a++)
+		tot -= x[a]*y2[a];
+	    b[linearRows[i]] = tot;
+	}
+    }
+}
@@ -119,7 +119,8 @@ class ScopePlot {
 		minValues[ptr] = v;
 	if (v > maxValues[ptr])
 		maxValues[ptr] = v;
-	if (CirSim.theSim.t-lastUpdateTime >= CirSim.theSim.maxTimeStep * scopePlotSpeed) {
+	// with error-controlled time steps, one step may cover several points
+	while (CirSim.theSim.t-lastUpdateTime >= CirSim.theSim.maxTimeStep * scopePlotSpeed) {
 	    ptr = (ptr+1) & (scopePointCount-1);
 	    minValues[ptr] = maxValues[ptr] = v;
 	    lastUpdateTime += CirSim.theSim.maxTimeStep * scopePlotSpeed;
@@ -42,6 +42,9 @@ class ScopeElm extends CircuitElm {
 	super(xa, ya, xb, yb, f);
 	noDiagonal=false;
 	String sStr = st.nextToken();
+	// no canvas to draw it on; we'll just be a placeholder
+	if (CirSim.headless)
+	    return;
 	StringTokenizer sst = new StringTokenizer(sStr, "_");
 	elmScope = new Scope(sim);
 	elmScope.undump(sst);
@@ -61,7 +64,8 @@ class ScopeElm extends CircuitElm {
     
     public void setPoints() {
 	super.setPoints();
-	setScopeRect();
+	if (elmScope != null)
+	    setScopeRect();
     }
     
     public void setElmScope( Scope s) {
@@ -70,12 +74,14 @@ class ScopeElm extends CircuitElm {
     
     
     public void stepScope() {
-	elmScope.timeStep();
+	if (elmScope != null)
+	    elmScope.timeStep();
     }
     
     public void reset() {
 	super.reset();
-	elmScope.resetGraph(true);
+	if (elmScope != null)
+	    elmScope.resetGraph(true);
     }
     
     public void clearElmScope() {
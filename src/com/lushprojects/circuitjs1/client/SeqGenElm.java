@@ -92,6 +92,7 @@ class SeqGenElm extends ChipElm {
 	}
 	int getPostCount() { return hasReset() ? 3 : 2; }
 	int getVoltageSourceCount() { return 1; }
+	boolean isLogicChip() { return true; }
 	boolean hasPlayOnce() { return (flags & FLAG_PLAY_ONCE) != 0; }
 	boolean hasReset() { return (flags & FLAG_HAS_RESET) != 0; }
 	
@@ -88,6 +88,7 @@ package com.lushprojects.circuitjs1.client;
 	    return hasBlank() ? 12 : 11;
 	}
 	int getVoltageSourceCount() {return 7;}
+	boolean isLogicChip() { return true; }
 
 	void execute() {
 	    int input=0;
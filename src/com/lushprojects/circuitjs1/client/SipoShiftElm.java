@@ -71,6 +71,7 @@ class SipoShiftElm extends ChipElm {
 	}
 	int getPostCount() { return 2 + bits; }
 	int getVoltageSourceCount() { return bits; }
+	boolean isLogicChip() { return true; }
 	
 	void execute() {
 		if (pins[1].value != clockstate) {
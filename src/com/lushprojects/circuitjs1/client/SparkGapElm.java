@@ -131,5 +131,8 @@ class SparkGapElm extends CircuitElm {
 	if (ei.value > 0 && n == 3)
 	    holdcurrent = ei.value;
     }
+
+    // we break down as soon as the voltage gets high enough, so a long step would make us fire late
+    boolean needsFixedTimeStep() { return true; }
 }
 
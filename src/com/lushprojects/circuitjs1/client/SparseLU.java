@@ -0,0 +1,548 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// LU factorization of a SparseMatrix, using the left-looking Gilbert-Peierls algorithm
+// with threshold partial pivoting (see Davis, Direct Methods for Sparse Linear Systems).
+// The work done is proportional to the number of nonzeros in the factors rather than n^3,
+// which makes a big difference for large circuits since nearly all of the matrix is zeroes.
+//
+// We factor P*A*Q = L*U, where L is unit lower triangular and U is upper triangular, both
+// stored by column.  Q is a fill-reducing column ordering computed once for each matrix
+// pattern.  The first factorization chooses the pivots (P); after that, as long as the
+// pattern doesn't change, refactor() reuses the pivots and the nonzero structure of L and U
+// and only recomputes the values, which is much cheaper.  If a reused pivot gets too small
+// we do a full factorization again.
+class SparseLU {
+    // prefer the diagonal as pivot if it's at least this fraction of the largest candidate.
+    // this keeps the factors sparse without losing much accuracy
+    static final double PIVOT_TOLERANCE = 1e-3;
+
+    int size;
+
+    // the matrix in compressed column form
+    int aColStart[], aRow[];
+    double aValue[];
+
+    // factors
+    int lColStart[], lRow[];
+    double lValue[];
+    int uColStart[], uRow[];
+    double uValue[];
+
+    // pivotRow[i] = which row of L/U row i of the matrix was moved to
+    int pivotRow[];
+
+    // column k of L/U comes from column colOrder[k] of the matrix
+    int colOrder[];
+
+    // pattern the ordering and factors were computed for
+    SparseMatrix analyzedMatrix;
+    int analyzedVersion;
+    boolean haveFactors;
+
+    // workspace
+    double work[];
+    int reachList[], dfsStack[];
+    boolean marked[];
+
+    // statistics
+    int matrixNonZeroCount, factorNonZeroCount;
+    int analyzeCount, pivotingFactorCount, refactorCount;
+
+    SparseLU(int n) {
+	size = n;
+	aColStart = new int[n+1];
+	lColStart = new int[n+1];
+	uColStart = new int[n+1];
+	pivotRow = new int[n];
+	colOrder = new int[n];
+	work = new double[n];
+	reachList = new int[n];
+	dfsStack = new int[n*2];
+	marked = new boolean[n];
+	aRow = new int[16];
+	aValue = new double[16];
+	lRow = new int[16];
+	lValue = new double[16];
+	uRow = new int[16];
+	uValue = new double[16];
+    }
+
+    // number of entries in the factors that were zero in the original matrix
+    int getFillIn() {
+	return factorNonZeroCount - matrixNonZeroCount;
+    }
+
+    // convert row-ordered matrix to compressed column form
+    void loadMatrix(SparseMatrix m) {
+	int n = size;
+	int i, j;
+	int nz = m.nonZeroCount();
+	if (aRow.length < nz) {
+	    aRow = new int[nz];
+	    aValue = new double[nz];
+	}
+	for (j = 0; j <= n; j++)
+	    aColStart[j] = 0;
+	for (i = 0; i != n; i++) {
+	    int cols[] = m.rowColumns[i];
+	    for (j = 0; j != m.rowLength[i]; j++)
+		aColStart[cols[j]+1]++;
+	}
+	for (j = 0; j != n; j++)
+	    aColStart[j+1] += aColStart[j];
+	int next[] = reachList;
+	for (j = 0; j != n; j++)
+	    next[j] = aColStart[j];
+	for (i = 0; i != n; i++) {
+	    int cols[] = m.rowColumns[i];
+	    double vals[] = m.rowValues[i];
+	    for (j = 0; j != m.rowLength[i]; j++) {
+		int p = next[cols[j]]++;
+		aRow[p] = i;
+		aValue[p] = vals[j];
+	    }
+	}
+	matrixNonZeroCount = nz;
+    }
+
+    // factor the matrix.  returns false if it's singular
+    boolean factor(SparseMatrix m) {
+	loadMatrix(m);
+	if (m != analyzedMatrix || m.patternVersion != analyzedVersion) {
+	    analyze(m);
+	} else if (haveFactors) {
+	    if (refactor())
+		return true;
+	}
+	haveFactors = pivotingFactor();
+	return haveFactors;
+    }
+
+    // compute a fill-reducing column ordering for the matrix's pattern
+    void analyze(SparseMatrix m) {
+	int order[] = minimumDegreeOrder(m);
+	System.arraycopy(order, 0, colOrder, 0, size);
+	analyzedMatrix = m;
+	analyzedVersion = m.patternVersion;
+	haveFactors = false;
+	analyzeCount++;
+    }
+
+    // factor the matrix from scratch, choosing pivots and finding the structure of L and U
+    boolean pivotingFactor() {
+	int n = size;
+	int i, k, p;
+	int lnz = 0, unz = 0;
+	for (i = 0; i != n; i++)
+	    pivotRow[i] = -1;
+	for (k = 0; k != n; k++) {
+	    lColStart[k] = lnz;
+	    uColStart[k] = unz;
+	    // make sure there is room for a full column in each factor
+	    if (lnz+n > lRow.length)
+		growL(2*lRow.length+n);
+	    if (unz+n > uRow.length)
+		growU(2*uRow.length+n);
+
+	    // solve L*x = column k of the matrix
+	    int col = colOrder[k];
+	    int top = solveColumn(col);
+
+	    // find pivot; rows already pivoted go in U
+	    int ipiv = -1;
+	    double largest = -1;
+	    for (p = top; p != n; p++) {
+		i = reachList[p];
+		if (pivotRow[i] < 0) {
+		    double t = Math.abs(work[i]);
+		    if (t > largest) {
+			largest = t;
+			ipiv = i;
+		    }
+		} else {
+		    uRow[unz] = pivotRow[i];
+		    uValue[unz++] = work[i];
+		}
+	    }
+	    if (ipiv == -1 || largest <= 0)
+		return false;
+	    if (pivotRow[col] < 0 && Math.abs(work[col]) >= largest*PIVOT_TOLERANCE)
+		ipiv = col;
+
+	    // diagonal of U goes last in each column
+	    double pivot = work[ipiv];
+	    uRow[unz] = k;
+	    uValue[unz++] = pivot;
+	    pivotRow[ipiv] = k;
+
+	    // diagonal of L goes first
+	    lRow[lnz] = ipiv;
+	    lValue[lnz++] = 1;
+	    for (p = top; p != n; p++) {
+		i = reachList[p];
+		if (pivotRow[i] < 0) {
+		    lRow[lnz] = i;
+		    lValue[lnz++] = work[i]/pivot;
+		}
+		work[i] = 0;
+	    }
+	}
+	lColStart[n] = lnz;
+	uColStart[n] = unz;
+
+	// renumber rows of L in pivot order
+	for (p = 0; p != lnz; p++)
+	    lRow[p] = pivotRow[lRow[p]];
+
+	// sort the rows in each column of U (except the diagonal, which is last), so
+	// refactor() can go through them in order
+	for (k = 0; k != n; k++) {
+	    int pend = uColStart[k+1]-1;
+	    for (p = uColStart[k]+1; p < pend; p++) {
+		int r = uRow[p];
+		double v = uValue[p];
+		int q = p-1;
+		while (q >= uColStart[k] && uRow[q] > r) {
+		    uRow[q+1] = uRow[q];
+		    uValue[q+1] = uValue[q];
+		    q--;
+		}
+		uRow[q+1] = r;
+		uValue[q+1] = v;
+	    }
+	}
+	factorNonZeroCount = lnz + unz - n;
+	pivotingFactorCount++;
+	return true;
+    }
+
+    // recompute the values of L and U using the pivots and structure from the last
+    // pivotingFactor().  returns false if a pivot is too small, in which case we need to
+    // do a full factorization.
+    boolean refactor() {
+	int k;
+	for (k = 0; k != size; k++)
+	    if (!refactorColumn(k, work))
+		return false;
+	refactorCount++;
+	return true;
+    }
+
+    // recompute column k of L and U.  The columns of L it depends on (the rows of U in column
+    // k) must already be done, but no others, so columns that don't depend on each other can
+    // be done in any order.  x is workspace, all zeroes, and is left that way.  returns false
+    // if the pivot is too small.
+    boolean refactorColumn(int k, double x[]) {
+	int p, q;
+	// scatter column of matrix into x, in pivot order
+	int col = colOrder[k];
+	for (p = aColStart[col]; p != aColStart[col+1]; p++)
+	    x[pivotRow[aRow[p]]] = aValue[p];
+
+	// compute column of U
+	int pend = uColStart[k+1]-1;
+	for (p = uColStart[k]; p != pend; p++) {
+	    int j = uRow[p];
+	    double ujk = x[j];
+	    x[j] = 0;
+	    uValue[p] = ujk;
+	    if (ujk == 0)
+		continue;
+	    for (q = lColStart[j]+1; q != lColStart[j+1]; q++)
+		x[lRow[q]] -= lValue[q]*ujk;
+	}
+
+	// check that the pivot is still large enough compared to the rest of the column
+	double pivot = x[k];
+	x[k] = 0;
+	double largest = 0;
+	for (q = lColStart[k]+1; q != lColStart[k+1]; q++) {
+	    double t = Math.abs(x[lRow[q]]);
+	    if (t > largest)
+		largest = t;
+	}
+	if (pivot == 0 || Math.abs(pivot) < largest*PIVOT_TOLERANCE) {
+	    for (q = lColStart[k]+1; q != lColStart[k+1]; q++)
+		x[lRow[q]] = 0;
+	    return false;
+	}
+	uValue[pend] = pivot;
+
+	// compute column of L
+	for (q = lColStart[k]+1; q != lColStart[k+1]; q++) {
+	    int i = lRow[q];
+	    lValue[q] = x[i]/pivot;
+	    x[i] = 0;
+	}
+	return true;
+    }
+
+    // Find a column ordering which reduces fill-in, using the minimum degree heuristic on
+    // the graph of A+A' (the same idea as AMD, but working on the explicit elimination
+    // graph, which is fine for circuit matrices).  The ordering is symmetric so that the
+    // diagonal, which we prefer as pivot, stays on the diagonal.
+    static int[] minimumDegreeOrder(SparseMatrix m) {
+	int n = m.size;
+	int i, j, k;
+	int adj[][] = new int[n][];
+	int adjLength[] = new int[n];
+	int mark[] = new int[n];
+	for (i = 0; i != n; i++) {
+	    adj[i] = new int[Math.max(m.rowLength[i]*2, 4)];
+	    mark[i] = -1;
+	}
+
+	// build the graph of A+A'
+	for (i = 0; i != n; i++) {
+	    int cols[] = m.rowColumns[i];
+	    for (k = 0; k != m.rowLength[i]; k++) {
+		j = cols[k];
+		if (i == j)
+		    continue;
+		adjLength[i] = addEdge(adj, adjLength, i, j);
+		adjLength[j] = addEdge(adj, adjLength, j, i);
+	    }
+	}
+	for (i = 0; i != n; i++)
+	    adjLength[i] = removeDuplicates(adj[i], adjLength[i], mark, i);
+
+	// put nodes in linked lists by degree
+	int head[] = new int[n+1];
+	int next[] = new int[n];
+	int prev[] = new int[n];
+	for (i = 0; i <= n; i++)
+	    head[i] = -1;
+	for (i = n-1; i >= 0; i--)
+	    insertNode(head, next, prev, adjLength[i], i);
+
+	boolean eliminated[] = new boolean[n];
+	int order[] = new int[n];
+	int mindeg = 0;
+	int tag = n;
+	for (k = 0; k != n; k++) {
+	    while (head[mindeg] == -1)
+		mindeg++;
+	    int v = head[mindeg];
+	    removeNode(head, next, prev, adjLength[v], v);
+	    order[k] = v;
+	    eliminated[v] = true;
+
+	    // eliminating v connects all of its neighbors to each other
+	    int nbrs[] = adj[v];
+	    int nlen = adjLength[v];
+	    int a;
+	    for (a = 0; a != nlen; a++) {
+		int u = nbrs[a];
+		removeNode(head, next, prev, adjLength[u], u);
+
+		// remove v and eliminated nodes from u's list, then add v's neighbors
+		int ulist[] = adj[u];
+		int ulen = 0, b;
+		tag++;
+		for (b = 0; b != adjLength[u]; b++) {
+		    int w = ulist[b];
+		    if (!eliminated[w]) {
+			ulist[ulen++] = w;
+			mark[w] = tag;
+		    }
+		}
+		adjLength[u] = ulen;
+		mark[u] = tag;
+		for (b = 0; b != nlen; b++) {
+		    int w = nbrs[b];
+		    if (mark[w] != tag) {
+			mark[w] = tag;
+			adjLength[u] = addEdge(adj, adjLength, u, w);
+		    }
+		}
+		insertNode(head, next, prev, adjLength[u], u);
+		if (adjLength[u] < mindeg)
+		    mindeg = adjLength[u];
+	    }
+	    adj[v] = null;
+	}
+	return order;
+    }
+
+    static int addEdge(int adj[][], int adjLength[], int i, int j) {
+	int len = adjLength[i];
+	if (len == adj[i].length) {
+	    int na[] = new int[len*2];
+	    System.arraycopy(adj[i], 0, na, 0, len);
+	    adj[i] = na;
+	}
+	adj[i][len] = j;
+	return len+1;
+    }
+
+    static int removeDuplicates(int list[], int len, int mark[], int tag) {
+	int i, nlen = 0;
+	for (i = 0; i != len; i++) {
+	    int j = list[i];
+	    if (mark[j] != tag) {
+		mark[j] = tag;
+		list[nlen++] = j;
+	    }
+	}
+	return nlen;
+    }
+
+    static void insertNode(int head[], int next[], int prev[], int deg, int i) {
+	next[i] = head[deg];
+	prev[i] = -1;
+	if (head[deg] != -1)
+	    prev[head[deg]] = i;
+	head[deg] = i;
+    }
+
+    static void removeNode(int head[], int next[], int prev[], int deg, int i) {
+	if (prev[i] != -1)
+	    next[prev[i]] = next[i];
+	else
+	    head[deg] = next[i];
+	if (next[i] != -1)
+	    prev[next[i]] = prev[i];
+    }
+
+    // solve L*x = column k of the matrix, using the partially computed L.  The nonzero
+    // pattern of x goes in reachList[top..n-1] (in topological order) and the values in work[].
+    int solveColumn(int k) {
+	int n = size;
+	int p;
+	int top = reach(k);
+	for (p = top; p != n; p++)
+	    work[reachList[p]] = 0;
+	for (p = aColStart[k]; p != aColStart[k+1]; p++)
+	    work[aRow[p]] = aValue[p];
+	for (p = top; p != n; p++) {
+	    int j = reachList[p];
+	    int jcol = pivotRow[j];
+	    if (jcol < 0)
+		continue;
+	    double x = work[j];
+	    int q;
+	    // skip diagonal of L, which is 1
+	    for (q = lColStart[jcol]+1; q != lColStart[jcol+1]; q++)
+		work[lRow[q]] -= lValue[q]*x;
+	}
+	return top;
+    }
+
+    // find the rows which will be nonzero in the solution of L*x = column k.  These are
+    // all the rows reachable from the column's nonzeros in the graph of L.
+    int reach(int k) {
+	int n = size;
+	int p;
+	int top = n;
+	for (p = aColStart[k]; p != aColStart[k+1]; p++)
+	    if (!marked[aRow[p]])
+		top = depthFirstSearch(aRow[p], top);
+	for (p = top; p != n; p++)
+	    marked[reachList[p]] = false;
+	return top;
+    }
+
+    // non-recursive depth first search starting at row j, adding rows to reachList in
+    // reverse postorder.  dfsStack holds the row stack in the first half and the position
+    // we reached in each row's column of L in the second half.
+    int depthFirstSearch(int j, int top) {
+	int n = size;
+	int head = 0;
+	dfsStack[0] = j;
+	while (head >= 0) {
+	    j = dfsStack[head];
+	    int jcol = pivotRow[j];
+	    if (!marked[j]) {
+		marked[j] = true;
+		dfsStack[n+head] = (jcol < 0) ? 0 : lColStart[jcol];
+	    }
+	    boolean done = true;
+	    int p, pend = (jcol < 0) ? 0 : lColStart[jcol+1];
+	    for (p = dfsStack[n+head]; p < pend; p++) {
+		int i = lRow[p];
+		if (marked[i])
+		    continue;
+		// remember where we were in this column and descend
+		dfsStack[n+head] = p;
+		dfsStack[++head] = i;
+		done = false;
+		break;
+	    }
+	    if (done) {
+		head--;
+		reachList[--top] = j;
+	    }
+	}
+	return top;
+    }
+
+    // solve A*x = b using the factors.  b is replaced with the solution
+    void solve(double b[]) {
+	int n = size;
+	int i, j, p;
+	double x[] = work;
+	for (i = 0; i != n; i++)
+	    x[pivotRow[i]] = b[i];
+
+	// forward substitution with L
+	for (j = 0; j != n; j++) {
+	    double xj = x[j];
+	    if (xj == 0)
+		continue;
+	    for (p = lColStart[j]+1; p != lColStart[j+1]; p++)
+		x[lRow[p]] -= lValue[p]*xj;
+	}
+
+	// back substitution with U
+	for (j = n-1; j >= 0; j--) {
+	    int pend = uColStart[j+1]-1;
+	    double xj = x[j] / uValue[pend];
+	    x[j] = xj;
+	    if (xj == 0)
+		continue;
+	    for (p = uColStart[j]; p != pend; p++)
+		x[uRow[p]] -= uValue[p]*xj;
+	}
+	for (i = 0; i != n; i++) {
+	    b[colOrder[i]] = x[i];
+	    x[i] = 0;
+	}
+    }
+
+    void growL(int len) {
+	int nrow[] = new int[len];
+	double nval[] = new double[len];
+	System.arraycopy(lRow, 0, nrow, 0, lRow.length);
+	System.arraycopy(lValue, 0, nval, 0, lValue.length);
+	lRow = nrow;
+	lValue = nval;
+    }
+
+    void growU(int len) {
+	int nrow[] = new int[len];
+	double nval[] = new double[len];
+	System.arraycopy(uRow, 0, nrow, 0, uRow.length);
+	System.arraycopy(uValue, 0, nval, 0, uValue.length);
+	uRow = nrow;
+	uValue = nval;
+    }
+}
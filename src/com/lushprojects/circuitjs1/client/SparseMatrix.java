@@ -0,0 +1,200 @@
+/*
+    Copyright (C) Paul Falstad and Iain Sharp
+
+    This file is part of CircuitJS1.
+
+    CircuitJS1 is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 2 of the License, or
+    (at your option) any later version.
+
+    CircuitJS1 is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with CircuitJS1.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.lushprojects.circuitjs1.client;
+
+// square matrix which only stores nonzero entries.  Each row keeps a list of the columns
+// that have been stamped, sorted by column, along with their values.  Entries are added
+// to the pattern the first time they are stamped and never removed, so after the first
+// iteration the pattern stays the same and stamping just updates values in place.
+class SparseMatrix {
+    int size;
+    int rowColumns[][];
+    double rowValues[][];
+    int rowLength[];
+
+    // incremented whenever an entry is added to the pattern, so SparseLU knows when it
+    // needs to redo its analysis
+    int patternVersion;
+
+    SparseMatrix(int n) {
+	size = n;
+	rowColumns = new int[n][];
+	rowValues = new double[n][];
+	rowLength = new int[n];
+	int i;
+	for (i = 0; i != n; i++) {
+	    rowColumns[i] = new int[4];
+	    rowValues[i] = new double[4];
+	}
+    }
+
+    // find the position of entry (i, j) in row i, or -1 if it's not in the pattern
+    int find(int i, int j) {
+	int cols[] = rowColumns[i];
+	int lo = 0, hi = rowLength[i]-1;
+	while (lo <= hi) {
+	    int mid = (lo+hi) >>> 1;
+	    int c = cols[mid];
+	    if (c < j)
+		lo = mid+1;
+	    else if (c > j)
+		hi = mid-1;
+	    else
+		return mid;
+	}
+	return -(lo+1);
+    }
+
+    // find the position of entry (i, j), adding it to the pattern if necessary
+    int findOrInsert(int i, int j) {
+	int p = find(i, j);
+	if (p >= 0)
+	    return p;
+	p = -(p+1);
+	int len = rowLength[i];
+	if (len == rowColumns[i].length) {
+	    int ncols[] = new int[len*2];
+	    double nvals[] = new double[len*2];
+	    System.arraycopy(rowColumns[i], 0, ncols, 0, len);
+	    System.arraycopy(rowValues[i], 0, nvals, 0, len);
+	    rowColumns[i] = ncols;
+	    rowValues[i] = nvals;
+	}
+	System.arraycopy(rowColumns[i], p, rowColumns[i], p+1, len-p);
+	System.arraycopy(rowValues[i], p, rowValues[i], p+1, len-p);
+	rowColumns[i][p] = j;
+	rowValues[i][p] = 0;
+	rowLength[i] = len+1;
+	patternVersion++;
+	return p;
+    }
+
+    void add(int i, int j, double x) {
+	int p = findOrInsert(i, j);
+	rowValues[i][p] += x;
+    }
+
+    double get(int i, int j) {
+	int p = find(i, j);
+	return (p >= 0) ? rowValues[i][p] : 0;
+    }
+
+    int nonZeroCount() {
+	int i, nz = 0;
+	for (i = 0; i != size; i++)
+	    nz += rowLength[i];
+	return nz;
+    }
+
+    // set all values to zero, keeping the pattern
+    void clear() {
+	int i, j;
+	for (i = 0; i != size; i++) {
+	    double vals[] = rowValues[i];
+	    for (j = 0; j != rowLength[i]; j++)
+		vals[j] = 0;
+	}
+    }
+
+    // copy values from src, whose pattern must be a subset of ours.  Entries which are
+    // not in src are set to zero.
+    void copyValues(SparseMatrix src) {
+	int i;
+	for (i = 0; i != size; i++)
+	    copyRowValues(src, i);
+    }
+
+    // same as copyValues() but for row i only
+    void copyRowValues(SparseMatrix src, int i) {
+	int cols[] = rowColumns[i];
+	double vals[] = rowValues[i];
+	int scols[] = src.rowColumns[i];
+	double svals[] = src.rowValues[i];
+	int slen = src.rowLength[i];
+	int len = rowLength[i];
+	if (len == slen) {
+	    // same pattern (the usual case)
+	    System.arraycopy(svals, 0, vals, 0, len);
+	    return;
+	}
+	int j, sj = 0;
+	for (j = 0; j != len; j++) {
+	    if (sj < slen && scols[sj] == cols[j])
+		vals[j] = svals[sj++];
+	    else
+		vals[j] = 0;
+	}
+    }
+
+    // make this an empty n x n matrix, keeping the row arrays we already have
+    void reset(int n) {
+	int i;
+	if (n > rowLength.length) {
+	    int ncols[][] = new int[n][];
+	    double nvals[][] = new double[n][];
+	    for (i = 0; i != n; i++) {
+		if (i < rowLength.length) {
+		    ncols[i] = rowColumns[i];
+		    nvals[i] = rowValues[i];
+		} else {
+		    ncols[i] = new int[4];
+		    nvals[i] = new double[4];
+		}
+	    }
+	    rowColumns = ncols;
+	    rowValues = nvals;
+	    rowLength = new int[n];
+	}
+	size = n;
+	for (i = 0; i != n; i++)
+	    rowLength[i] = 0;
+	patternVersion++;
+    }
+
+    // make this a copy of src, reusing our row arrays where they're big enough
+    void copyFrom(SparseMatrix src) {
+	reset(src.size);
+	int i;
+	for (i = 0; i != size; i++) {
+	    int len = src.rowLength[i];
+	    if (rowColumns[i].length < len) {
+		rowColumns[i] = new int[len];
+		rowValues[i] = new double[len];
+	    }
+	    System.arraycopy(src.rowColumns[i], 0, rowColumns[i], 0, len);
+	    System.arraycopy(src.rowValues[i], 0, rowValues[i], 0, len);
+	    rowLength[i] = len;
+	}
+    }
+
+    SparseMatrix copy() {
+	SparseMatrix m = new SparseMatrix(size);
+	int i;
+	for (i = 0; i != size; i++) {
+	    int len = rowLength[i];
+	    m.rowColumns[i] = new int[Math.max(len, 4)];
+	    m.rowValues[i] = new double[Math.max(len, 4)];
+	    System.arraycopy(rowColumns[i], 0, m.rowColumns[i], 0, len);
+	    System.arraycopy(rowValues[i], 0, m.rowValues[i], 0, len);
+	    m.rowLength[i] = len;
+	}
+	return m;
+    }
+}
@@ -186,7 +186,7 @@ public String nextToken() throws NoSuchElementException
  if (pos < len && delim.indexOf(str.charAt(pos)) >= 0)
    {
      if (retDelims)
-       return str.substring(pos, ++pos);
+       return str.substring(pos, ++pos).intern();
      while (++pos < len && delim.indexOf(str.charAt(pos)) >= 0)
        ;
    }
@@ -196,7 +196,9 @@ public String nextToken() throws NoSuchElementException
      while (++pos < len && delim.indexOf(str.charAt(pos)) < 0)
        ;
 
-     return str.substring(start, pos);
+     // callers compare tokens with ==, which works in javascript but only works on
+     // the JVM (see HeadlessSim) if the token is interned
+     return str.substring(start, pos).intern();
    }
  throw new NoSuchElementException();
 }
@@ -125,10 +125,16 @@ class SweepElm extends CircuitElm {
 	setParams();
     }
     double v;
+    // state from the start of the step, in case it's rejected
+    double startFrequency, startFreqTime;
+    int startDir;
     void startIteration() {
 	// has timestep been changed?
 	if (sim.timeStep != savedTimeStep)
 	    setParams();
+	startFrequency = frequency;
+	startFreqTime = freqTime;
+	startDir = dir;
 	v = Math.sin(freqTime)*maxV;
 	freqTime += frequency*2*pi*sim.timeStep;
 	frequency = frequency*fmul+fadd;
@@ -149,6 +155,24 @@ class SweepElm extends CircuitElm {
     void doStep() {
 	sim.updateVoltageSource(0, nodes[0], voltSource, v);
     }
+    void rejectStep() {
+	frequency = startFrequency;
+	freqTime = startFreqTime;
+	dir = startDir;
+	setParams();
+    }
+    // when the sweep turns around (or starts over)
+    double getNextBreakpoint() {
+	if (maxF <= minF || minF <= 0)
+	    return Double.POSITIVE_INFINITY;
+	double target = (dir == 1) ? maxF : minF;
+	double dt;
+	if ((flags & FLAG_LOG) == 0)
+	    dt = (target-frequency)*sweepTime/(maxF-minF);
+	else
+	    dt = Math.log(target/frequency)*sweepTime/Math.log(maxF/minF);
+	return sim.t + Math.abs(dt);
+    }
 	
     double getVoltageDiff() { return volts[0]; }
     int getVoltageSourceCount() { return 1; }
@@ -212,5 +236,8 @@ class SweepElm extends CircuitElm {
 	setParams();
     }
     double getPower() { return -getVoltageDiff()*current; }
+
+    // we don't estimate the error of our waveform
+    boolean needsFixedTimeStep() { return true; }
 }
     
@@ -30,11 +30,13 @@ package com.lushprojects.circuitjs1.client;
 	    super(xx, yy, false);
 	    noDiagonal = true;
 	    throwCount = 2;
+	    allocNodes();
 	}
 	Switch2Elm(int xx, int yy, boolean mm) {
 	    super(xx, yy, mm);
 	    noDiagonal = true;
 	    throwCount = 2;
+	    allocNodes();
 	}
 	public Switch2Elm(int xa, int ya, int xb, int yb, int f,
 			  StringTokenizer st) {
@@ -45,6 +47,8 @@ package com.lushprojects.circuitjs1.client;
 		throwCount = new Integer(st.nextToken()).intValue();
 	    } catch (Exception e) { }
 	    noDiagonal = true;
+	    // the base constructor allocated nodes before we knew throwCount
+	    allocNodes();
 	}
 	int getDumpType() { return 'S'; }
 	String dump() {
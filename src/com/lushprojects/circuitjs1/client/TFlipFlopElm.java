@@ -55,6 +55,7 @@ package com.lushprojects.circuitjs1.client;
 	    return 4 + (hasReset() ? 1 : 0) + (hasSet() ? 1 : 0);
 	}
 	int getVoltageSourceCount() { return 2; }
+	boolean isLogicChip() { return true; }
         void reset() {
             super.reset();
             volts[2] = highVoltage;
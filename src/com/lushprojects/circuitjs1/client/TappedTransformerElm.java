@@ -136,8 +136,13 @@ package com.lushprojects.circuitjs1.client;
 	    // calculateCurrent() may get called (from setNodeVoltage()) when analyzing circuit, before
 	    // startIteration() gets called
 	    curSourceValue[0] = curSourceValue[1] = curSourceValue[2] = 0;
+	    int i;
+	    for (i = 0; i != 3; i++)
+		history[i].reset();
 	}
 	double a[];
+	// past winding currents, for Gear-2 integration
+	IntegrationHistory history[] = { new IntegrationHistory(), new IntegrationHistory(), new IntegrationHistory() };
 	void stamp() {
 	    // equations for transformer:
 	    //   v1 = L1 di1/dt + M1 di2/dt + M1 di3/dt
@@ -157,7 +162,9 @@ package com.lushprojects.circuitjs1.client;
 	    //  b. resistor, G = a1 dt/2
 	    //  c. current source controlled by voltage v2, G = a2 dt/2
 	    //  d. current source controlled by voltage v3, G = a3 dt/2
-	    // and similarly for i2, i3
+	    // and similarly for i2, i3.  For backward euler the current source is
+	    // just i1(t1) and we use dt; for Gear-2 it's 4/3 i1(t1) - 1/3 i1(t1-dt)
+	    // and we use 2/3 dt.
 	    // 
 	    // first winding goes from node 0 to 1, second is from 2 to 3 to 4
 	    double l1 = inductance;
@@ -176,8 +183,9 @@ package com.lushprojects.circuitjs1.client;
 	    a[5] = a[7] = (m1*m1-l1*m2)/(l2-m2);
 	    int i;
 	    double det = l1*(l2+m2)-2*m1*m1;
+	    double ts = getCompanionTimeStep();
 	    for (i = 0; i != 9; i++)
-		a[i] *= (isTrapezoidal() ? sim.timeStep/2 : sim.timeStep)/det;
+		a[i] *= ts/det;
 	    sim.stampConductance(nodes[0], nodes[1], a[0]);
 	    sim.stampVCCurrentSource(nodes[0], nodes[1], nodes[2], nodes[3], a[1]);
 	    sim.stampVCCurrentSource(nodes[0], nodes[1], nodes[3], nodes[4], a[2]);
@@ -194,6 +202,12 @@ package com.lushprojects.circuitjs1.client;
 		sim.stampRightSide(nodes[i]);
 	}
 	boolean isTrapezoidal() { return (flags & Inductor.FLAG_BACK_EULER) == 0; }
+	double getCompanionTimeStep() {
+	    int method = IntegrationHistory.getMethod(sim, isTrapezoidal());
+	    if (method == IntegrationHistory.GEAR2)
+		return 2*sim.timeStep/3;
+	    return (method == IntegrationHistory.TRAPEZOIDAL) ? sim.timeStep/2 : sim.timeStep;
+	}
 	void startIteration() {
 	    voltdiff[0] = volts[0]-volts[1];
 	    voltdiff[1] = volts[2]-volts[3];
@@ -201,11 +215,23 @@ package com.lushprojects.circuitjs1.client;
 	    int i, j;
 	    for (i = 0; i != 3; i++) {
 		curSourceValue[i] = current[i];
-		if (isTrapezoidal())
+		if (sim.gear2Integration)
+		    curSourceValue[i] = history[i].getGear2Value(sim.timeStep, current[i]);
+		else if (isTrapezoidal())
 		    for (j = 0; j != 3; j++)
 			curSourceValue[i] += a[i*3+j]*voltdiff[j];
 	    }
 	}
+	void stepFinished() {
+	    int i;
+	    for (i = 0; i != 3; i++)
+		history[i].add(sim.t, current[i]);
+	}
+	void breakpointReached() {
+	    int i;
+	    for (i = 0; i != 3; i++)
+		history[i].restart();
+	}
 	double curSourceValue[], voltdiff[];
 	void doStep() {
 	    sim.stampCurrentSource(nodes[0], nodes[1], curSourceValue[0]);
@@ -298,4 +324,7 @@ package com.lushprojects.circuitjs1.client;
 	    flags ^= FLAG_FLIP;
 	    super.flipXY(c2, count);
 	}
+
+	// we don't keep the history needed to estimate our truncation error
+	boolean needsFixedTimeStep() { return true; }
     }
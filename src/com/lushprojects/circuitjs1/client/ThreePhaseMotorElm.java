@@ -401,4 +401,7 @@ class ThreePhaseMotorElm extends CircuitElm {
     }
     boolean canFlipX() { return false; }
     boolean canFlipY() { return false; }
+
+    // we integrate our state with a simple Euler step, so longer steps would lose accuracy
+    boolean needsFixedTimeStep() { return true; }
 }
@@ -79,9 +79,16 @@ package com.lushprojects.circuitjs1.client;
 	    poweredState = (volts[0]-volts[1] > 2.5);
 	    if (oldState != poweredState)
 		lastTransition = sim.t;
-	    if (sim.t > lastTransition + (poweredState ? onDelay : offDelay))
+	    if (sim.t >= lastTransition + (poweredState ? onDelay : offDelay))
 		onState = poweredState;
 	}
+
+	// when we'll switch, if the input has changed
+	double getNextBreakpoint() {
+	    if (onState == poweredState)
+		return Double.POSITIVE_INFINITY;
+	    return lastTransition + (poweredState ? onDelay : offDelay);
+	}
 	
 	void draw(Graphics g) {
 	    pins[0].current = -(volts[0]-volts[1])/vinResistance;
@@ -190,6 +190,9 @@ class TransLineElm extends CircuitElm {
 	}
     }
 
+    // the line is a delay line with one entry per maxTimeStep
+    boolean needsFixedTimeStep() { return true; }
+
     void stepFinished() {
 	if (sim.timeStepCount == lastStepCount)
 	    return;
@@ -155,7 +155,11 @@ package com.lushprojects.circuitjs1.client;
 	    // startIteration() gets called
 	    current[0] = current[1] = volts[0] = volts[1] = volts[2] =
 		volts[3] = curcount[0] = curcount[1] = curSourceValue1 = curSourceValue2 = 0;
+	    history[0].reset();
+	    history[1].reset();
 	}
+	// past currents, for Gear-2 integration
+	IntegrationHistory history[] = { new IntegrationHistory(), new IntegrationHistory() };
 	double a1, a2, a3, a4;
 	void stamp() {
 	    // equations for transformer:
@@ -184,13 +188,19 @@ package com.lushprojects.circuitjs1.client;
 	    // So the current source value is just i1(t1) and we use
 	    // dt instead of dt/2 for the resistor and VCCS.
 	    //
+	    // For Gear-2,
+	    //
+	    //   i1(t2) = 4/3 i1(t1) - 1/3 i1(t0) + 2/3 dt (a1 v1(t2) + a2 v2(t2))
+	    //
+	    // where t0 = t1-dt, so we use 2/3 dt for the resistor and VCCS.
+	    //
 	    // first winding goes from node 0 to 2, second is from 1 to 3
 	    double l1 = inductance;
 	    double l2 = inductance*ratio*ratio;
 	    double m = couplingCoef*Math.sqrt(l1*l2);
 	    // build inverted matrix
 	    double deti = 1/(l1*l2-m*m);
-	    double ts = isTrapezoidal() ? sim.timeStep/2 : sim.timeStep;
+	    double ts = getCompanionTimeStep();
 	    a1 = l2*deti*ts; // we multiply dt/2 into a1..a4 here
 	    a2 = -m*deti*ts;
 	    a3 = -m*deti*ts;
@@ -204,10 +214,19 @@ package com.lushprojects.circuitjs1.client;
 	    sim.stampRightSide(nodes[2]);
 	    sim.stampRightSide(nodes[3]);
 	}
+	double getCompanionTimeStep() {
+	    int method = IntegrationHistory.getMethod(sim, isTrapezoidal());
+	    if (method == IntegrationHistory.GEAR2)
+		return 2*sim.timeStep/3;
+	    return (method == IntegrationHistory.TRAPEZOIDAL) ? sim.timeStep/2 : sim.timeStep;
+	}
 	void startIteration() {
 	    double voltdiff1 = volts[0]-volts[2];
 	    double voltdiff2 = volts[1]-volts[3];
-	    if (isTrapezoidal()) {
+	    if (sim.gear2Integration) {
+		curSourceValue1 = history[0].getGear2Value(sim.timeStep, current[0]);
+		curSourceValue2 = history[1].getGear2Value(sim.timeStep, current[1]);
+	    } else if (isTrapezoidal()) {
 		curSourceValue1 = voltdiff1*a1+voltdiff2*a2+current[0];
 		curSourceValue2 = voltdiff1*a3+voltdiff2*a4+current[1];
 	    } else {
@@ -215,6 +234,14 @@ package com.lushprojects.circuitjs1.client;
 		curSourceValue2 = current[1];
 	    } 
 	}
+	void stepFinished() {
+	    history[0].add(sim.t, current[0]);
+	    history[1].add(sim.t, current[1]);
+	}
+	void breakpointReached() {
+	    history[0].restart();
+	    history[1].restart();
+	}
 	double curSourceValue1, curSourceValue2;
 	void doStep() {
 	    sim.stampCurrentSource(nodes[0], nodes[2], curSourceValue1);
@@ -310,4 +337,6 @@ package com.lushprojects.circuitjs1.client;
            super.flipXY(xmy, count);
        }
 
+	// we don't keep the history needed to estimate our truncation error
+	boolean needsFixedTimeStep() { return true; }
     }
@@ -72,12 +72,14 @@ class TransistorElm extends CircuitElm {
 	    modelName = model.name;   // in case we couldn't find that model    
 	    vcrit = vt * Math.log(vt/(Math.sqrt(2)*model.satCur));
 	    noDiagonal = true;
+	    bypassValid = false;
 	}
 	boolean nonLinear() { return true; }
 	void reset() {
 	    volts[0] = volts[1] = volts[2] = 0;
 	    lastvbc = lastvbe = curcount_c = curcount_e = curcount_b = 0;
 	    badIters = 0;
+	    bypassValid = false;
 	}
 	int getDumpType() { return 't'; }
 	String dump() {
@@ -203,6 +205,12 @@ class TransistorElm extends CircuitElm {
 	static final double vt = 0.025865;
 	double vcrit;
 	double lastvbc, lastvbe;
+	// the last linearization doStep() stamped, and the junction voltages and gmin it was for,
+	// so we can use it again if they've hardly changed (see CirSim.deviceBypass)
+	double gpi, gmu, go, gm, ceqbe, ceqbc;
+	double bypassVbc, bypassVbe, bypassGmin;
+	boolean bypassValid;
+	long evalCount, bypassCount;
 	double limitStep(double vnew, double vold) {
 	    double arg;
 	    double oo = vnew;
@@ -224,6 +232,7 @@ class TransistorElm extends CircuitElm {
 	    return(vnew);
 	}
 	void stamp() {
+	    bypassValid = false;
 	    sim.stampNonLinear(nodes[0]);
 	    sim.stampNonLinear(nodes[1]);
 	    sim.stampNonLinear(nodes[2]);
@@ -254,6 +263,17 @@ class TransistorElm extends CircuitElm {
 	    lastvbc = vbc;
 	    lastvbe = vbe;
 
+	    if (sim.deviceBypass && bypassValid && gmin == bypassGmin &&
+		Math.abs(vbc-bypassVbc) < CirSim.BYPASS_VOLTAGE_TOL &&
+		Math.abs(vbe-bypassVbe) < CirSim.BYPASS_VOLTAGE_TOL) {
+		// close enough to where we last evaluated the model that its linearization is
+		// still good.  ic, ib and ie are left from then too
+		bypassCount++;
+		stampLinearization();
+		return;
+	    }
+	    evalCount++;
+
             /*
              *   dc model paramters (from Spice 3f5, bjtload.c)
              */
@@ -349,17 +369,32 @@ class TransistorElm extends CircuitElm {
                 gx=rbpr+3*rbpi*(arg1-arg2)/arg2/arg1/arg1;
             }
             if(gx != 0) gx=1/gx;*/
-            double gpi=gbe/beta+gben;
-            double gmu=gbc/model.betaR+gbcn;
-            double go=(gbc+(cex-cbc)*dqbdvc/qb)/qb;
-            double gm=(gex-(cex-cbc)*dqbdve/qb)/qb-go;
+            gpi=gbe/beta+gben;
+            gmu=gbc/model.betaR+gbcn;
+            go=(gbc+(cex-cbc)*dqbdvc/qb)/qb;
+            gm=(gex-(cex-cbc)*dqbdve/qb)/qb-go;
 
-            double ceqbe=pnp * (cc + cb - vbe * (gm + go + gpi) + vbc * go);
-            double ceqbc=pnp * (-cc + vbe * (gm + go) - vbc * (gmu + go));
+            ceqbe=pnp * (cc + cb - vbe * (gm + go + gpi) + vbc * go);
+            ceqbc=pnp * (-cc + vbe * (gm + go) - vbc * (gmu + go));
 
             if (Double.isInfinite(ib) || Double.isNaN(ic))
         	sim.stop("infinite transistor current", this);
-            
+
+	    bypassVbc = vbc;
+	    bypassVbe = vbe;
+	    bypassGmin = gmin;
+	    bypassValid = true;
+	    stampLinearization();
+	}
+
+	void getBypassCounts(long counts[]) {
+	    counts[0] += evalCount;
+	    counts[1] += bypassCount;
+	}
+
+	boolean usePredictedVoltages() { return true; }
+
+	void stampLinearization() {
             // stamp matrix.
 	    // Node 0 is the base, node 1 the collector, node 2 the emitter.
 	    sim.stampMatrix(nodes[1], nodes[1], gmu+go);
@@ -43,6 +43,7 @@ class UnijunctionElm extends CompositeElm {
 	    flags |= FLAG_ESCAPE;
 	    StringTokenizer st = new StringTokenizer(ujtModelDump, "/");
 	    loadComposite(st, ujtModelString, ujtExternalNodes);
+	    allocNodes();
 	    sim.adjustTimeStep = true; // model doesn't work without time step auto-adjust
 	}
 	
@@ -221,5 +221,8 @@ class VCCSElm extends ChipElm {
             super.reset();
             exprState.reset();
         }
+
+        // the expression may depend on t
+        boolean needsFixedTimeStep() { return true; }
     }
 
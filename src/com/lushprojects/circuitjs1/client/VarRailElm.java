@@ -49,6 +49,9 @@ import com.google.gwt.event.dom.client.MouseWheelHandler;
 	int getDumpType() { return 172; }
 	void createSlider() {
 	    waveform = WF_VAR;
+	    // no UI to put it in; we'll just keep the voltage we were saved with
+	    if (CirSim.headless)
+		return;
 	    sim.addWidgetToVerticalPanel(label = new Label(Locale.LS(sliderText)));
 	    label.addStyleName("topSpace");
 	    int value = (int) ((frequency-bias)*100/(maxVoltage-bias));
@@ -57,7 +60,8 @@ import com.google.gwt.event.dom.client.MouseWheelHandler;
 //	    sim.verticalPanel.validate();
 	}
 	double getVoltage() {
-	    frequency = slider.getValue() * (maxVoltage-bias) / 100. + bias;
+	    if (slider != null)
+		frequency = slider.getValue() * (maxVoltage-bias) / 100. + bias;
 	    return frequency;
 	}
 	void delete() {
@@ -120,5 +120,8 @@ class VaractorElm extends DiodeElm {
     double voltSourceValue;
     int getVoltageSourceCount() { return 1; }
     int getInternalNodeCount() { return 1; }
+
+    // we don't keep the history needed to estimate our truncation error
+    boolean needsFixedTimeStep() { return true; }
 }
     
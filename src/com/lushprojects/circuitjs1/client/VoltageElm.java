@@ -116,6 +116,52 @@ class VoltageElm extends CircuitElm {
 	if (waveform == WF_NOISE)
 	    noiseValue = (sim.random.nextDouble()*2-1) * maxVoltage + bias;
     }
+    // a new random value every step would make the error estimates shrink the time step forever
+    boolean needsFixedTimeStep() { return waveform == WF_NOISE; }
+
+    // we get the voltage at the start of each time step, so a long step delays the waveform.
+    // keep the error that causes within tolerance (though never below what maxTimeStep gives
+    // us).  The edges and corners are breakpoints, so we only care about the slope in between
+    double getMaxLteTimeStep() {
+	double slope;
+	switch (waveform) {
+	case WF_AC:       slope = 2*pi; break;
+	case WF_TRIANGLE: slope = 4; break;
+	case WF_SAWTOOTH: slope = 2; break;
+	default:
+	    return Double.POSITIVE_INFINITY;
+	}
+	if (frequency == 0)
+	    return Double.POSITIVE_INFINITY;
+	return Math.max(sim.maxTimeStep, CirSim.LTE_REL_TOL/(slope*frequency));
+    }
+
+    // the waveform jumps or has a corner where its phase (mod 2pi) is 0 or p2
+    double getNextBreakpoint() {
+	if (frequency == 0)
+	    return Double.POSITIVE_INFINITY;
+	switch (waveform) {
+	case WF_SQUARE:
+	case WF_PULSE:
+	    return getNextPhaseTime(2*pi*dutyCycle);
+	case WF_TRIANGLE:
+	    return getNextPhaseTime(pi);
+	case WF_SAWTOOTH:
+	    return getNextPhaseTime(0);
+	}
+	return Double.POSITIVE_INFINITY;
+    }
+
+    // first time after sim.t when the phase is 0 or p2 (mod 2pi), plus a little so getVoltage()
+    // sees the new value there despite rounding errors
+    double getNextPhaseTime(double p2) {
+	double w = 2*pi*(sim.t-freqTimeZero)*frequency + phaseShift;
+	double w0 = 2*pi*(Math.floor(w/(2*pi))+1);
+	double w2 = p2 + 2*pi*(Math.floor((w-p2)/(2*pi))+1);
+	double t = freqTimeZero + (Math.min(w0, w2)-phaseShift)/(2*pi*frequency);
+	return t + 1e-9/frequency + Math.abs(t)*1e-14;
+    }
+
     double getVoltage() {
 	if (waveform != WF_DC && sim.dcAnalysisFlag)
 	    return bias;